@@ -0,0 +1,60 @@
+package org.kiji.express.flow;
+
+import java.util.Map;
+
+import cascading.flow.FlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Function;
+import cascading.operation.FunctionCall;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import com.google.common.collect.ImmutableMap;
+import scala.collection.JavaConversions;
+
+import org.kiji.annotations.ApiAudience;
+
+/**
+ * Cascading function which replaces the versions of Kiji columns read into tuple fields with
+ * their {@link VersionAggregation}s. Declares its argument fields, so it should be applied with
+ * {@link Fields#REPLACE}.
+ */
+@ApiAudience.Private
+final class AggregateVersions extends BaseOperation<Void> implements Function<Void> {
+  private static final long serialVersionUID = 1L;
+
+  private final Map<String, VersionAggregation> mAggregations;
+
+  /**
+   * Create a new AggregateVersions function.
+   *
+   * @param aggregations mapping from field name to the aggregation of that field.
+   */
+  AggregateVersions(
+      final Map<String, VersionAggregation> aggregations
+  ) {
+    super(Fields.ARGS);
+    mAggregations = ImmutableMap.copyOf(aggregations);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void operate(
+      final FlowProcess flowProcess,
+      final FunctionCall<Void> functionCall
+  ) {
+    final TupleEntry arguments = functionCall.getArguments();
+    final Fields fields = arguments.getFields();
+    final Tuple result = Tuple.size(fields.size());
+    for (int pos = 0; pos < fields.size(); pos++) {
+      final String field = fields.get(pos).toString();
+      final Object versions = arguments.getObject(pos);
+      final Object aggregate = (null == versions)
+          ? null
+          : mAggregations.get(field).aggregate(
+              JavaConversions.asJavaIterable(LazyCells.decode(versions)));
+      result.set(pos, aggregate);
+    }
+    functionCall.getOutputCollector().add(result);
+  }
+}
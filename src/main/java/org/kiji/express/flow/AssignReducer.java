@@ -0,0 +1,163 @@
+package org.kiji.express.flow;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import cascading.flow.FlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Function;
+import cascading.operation.FunctionCall;
+import cascading.operation.OperationCall;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleException;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import org.kiji.annotations.ApiAudience;
+import org.kiji.schema.EntityIdFactory;
+import org.kiji.schema.Kiji;
+import org.kiji.schema.KijiRegion;
+import org.kiji.schema.KijiTable;
+import org.kiji.schema.KijiURI;
+import org.kiji.schema.util.ResourceUtils;
+
+/**
+ * Cascading function which assigns each tuple to the reducer whose key range of the output table
+ * contains the row of the tuple. Expects a single argument containing a KijiExpress entity ID and
+ * emits the index of the reducer in {@link #REDUCER_FIELD}.
+ *
+ * <p>
+ *   Reducer ranges are contiguous runs of regions of roughly equal total size, so each reducer
+ *   writes to few regions and the write load is balanced across region servers. The step grouping
+ *   on the reducer index is partitioned by {@link ReducerIndexPartitioner}, which sends the tuples
+ *   assigned to reducer {@code i} to partition {@code i}.
+ * </p>
+ */
+@ApiAudience.Private
+final class AssignReducer
+    extends BaseOperation<EntityIdFactory>
+    implements Function<EntityIdFactory> {
+  private static final long serialVersionUID = 1L;
+
+  /** Name of the field holding the index of the reducer assigned to a tuple. */
+  static final String REDUCER_FIELD = "__kiji_reducer";
+
+  /**
+   * Divide the regions of a table into at most {@code maxReducers} contiguous key ranges of
+   * roughly equal size. Regions whose size is not known count as one byte, so the ranges are
+   * balanced by region count if no sizes are known.
+   *
+   * @param tableURI KijiURI of the table.
+   * @param conf Hadoop configuration used to access the table and cluster.
+   * @param maxReducers maximum number of key ranges.
+   * @return the start keys of every key range but the first, in row key order.
+   * @throws IOException in case of an error reading the regions of the table.
+   */
+  static List<byte[]> planBoundaries(
+      final KijiURI tableURI,
+      final Configuration conf,
+      final int maxReducers
+  ) throws IOException {
+    Preconditions.checkArgument(maxReducers > 0,
+        "Maximum reducers must be strictly positive, but got: %d", maxReducers);
+    final List<byte[]> startKeys = Lists.newArrayList();
+    final Kiji kiji = Kiji.Factory.open(tableURI, conf);
+    try {
+      final KijiTable table = kiji.openTable(tableURI.getTable());
+      try {
+        for (KijiRegion region : table.getRegions()) {
+          startKeys.add(region.getStartKey());
+        }
+      } finally {
+        ResourceUtils.releaseOrLog(table);
+      }
+    } finally {
+      ResourceUtils.releaseOrLog(kiji);
+    }
+    Collections.sort(startKeys, Bytes.BYTES_COMPARATOR);
+
+    final Map<byte[], Long> sizes = RegionSizes.get(tableURI, conf);
+    final long[] weights = new long[startKeys.size()];
+    long total = 0;
+    for (int index = 0; index < weights.length; index++) {
+      final Long size = sizes.get(startKeys.get(index));
+      weights[index] = (null == size) ? 1 : Math.max(size, 1);
+      total += weights[index];
+    }
+
+    final int reducers = Math.min(maxReducers, startKeys.size());
+    final List<byte[]> boundaries = Lists.newArrayListWithCapacity(reducers - 1);
+    long accumulated = 0;
+    for (int index = 0; index < weights.length; index++) {
+      // Start a new range at this region once the previous ranges hold their share of the table.
+      if (index > 0 && boundaries.size() < reducers - 1
+          && accumulated * reducers >= total * (boundaries.size() + 1)) {
+        boundaries.add(startKeys.get(index));
+      }
+      accumulated += weights[index];
+    }
+    return boundaries;
+  }
+
+  private final String mTableURI;
+  private final List<byte[]> mBoundaries;
+
+  /**
+   * Create a new AssignReducer function.
+   *
+   * @param tableURI KijiURI of the output table.
+   * @param boundaries start keys of every reducer range but the first, in row key order.
+   */
+  AssignReducer(
+      final KijiURI tableURI,
+      final List<byte[]> boundaries
+  ) {
+    super(1, new Fields(REDUCER_FIELD));
+    mTableURI = tableURI.toString();
+    mBoundaries = Lists.newArrayList(boundaries);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void prepare(
+      final FlowProcess flowProcess,
+      final OperationCall<EntityIdFactory> operationCall
+  ) {
+    final KijiURI tableURI = KijiURI.newBuilder(mTableURI).build();
+    try {
+      final Kiji kiji = Kiji.Factory.open(tableURI, TupleWriter.getConfiguration(flowProcess));
+      try {
+        final KijiTable table = kiji.openTable(tableURI.getTable());
+        try {
+          operationCall.setContext(EntityIdFactory.getFactory(table.getLayout()));
+        } finally {
+          ResourceUtils.releaseOrLog(table);
+        }
+      } finally {
+        ResourceUtils.releaseOrLog(kiji);
+      }
+    } catch (IOException ioe) {
+      throw new TupleException("Unable to read layout of table: " + mTableURI, ioe);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void operate(
+      final FlowProcess flowProcess,
+      final FunctionCall<EntityIdFactory> functionCall
+  ) {
+    final byte[] rowKey = ((EntityId) functionCall.getArguments().getObject(0))
+        .toJavaEntityId(functionCall.getContext())
+        .getHBaseRowKey();
+    // The reducer index is the number of boundaries at or before the row key.
+    final int search = Collections.binarySearch(mBoundaries, rowKey, Bytes.BYTES_COMPARATOR);
+    final int reducer = (search >= 0) ? search + 1 : -(search + 1);
+    functionCall.getOutputCollector().add(new Tuple(reducer));
+  }
+}
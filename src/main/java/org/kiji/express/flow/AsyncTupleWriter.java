@@ -0,0 +1,334 @@
+package org.kiji.express.flow;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.hadoop.conf.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.kiji.annotations.ApiAudience;
+import org.kiji.annotations.ApiStability;
+import org.kiji.schema.KijiURI;
+
+/**
+ * Non-blocking writer of tuples to a Kiji table, for use outside of Cascading flows. Tuples are
+ * mapped to cells by the same output column specs as {@link TapBuilder#withOutputColumns(Map)}.
+ *
+ * <p>
+ *   Written tuples are collected into batches. A batch is sent once it is full, or once it has
+ *   waited for the linger time, by one of a fixed number of background threads, each with its own
+ *   buffered Kiji writer. {@link #write(TupleEntry)} returns a future which completes when the
+ *   batch containing the tuple has been flushed to the table, and only blocks the caller when the
+ *   maximum number of batches is already in flight. A writer which fails to write a batch is
+ *   closed and replaced by a new one, so that cells left buffered by the failed batch are never
+ *   sent along with a later batch.
+ * </p>
+ *
+ * <p>
+ *   Batches in flight concurrently may be applied in any order. Use a single in-flight batch if
+ *   later writes to a cell must replace earlier writes at the same timestamp.
+ * </p>
+ */
+@ApiAudience.Public
+@ApiStability.Experimental
+public final class AsyncTupleWriter implements Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(AsyncTupleWriter.class);
+
+  /**
+   * Open a new AsyncTupleWriter for the given table.
+   *
+   * @param tableURI KijiURI of the table to which to write.
+   * @param outputColumns mapping from field name to output spec.
+   * @param timestampField name of the field containing the write timestamp, or null to write at
+   *     the current time.
+   * @param conf Hadoop configuration used to open the table.
+   * @param batchSize maximum number of tuples in a batch.
+   * @param maxInFlightBatches maximum number of batches being sent at once.
+   * @param lingerMillis maximum number of milliseconds a partial batch waits before being sent, or
+   *     0 to send partial batches only when flushed.
+   * @return a new AsyncTupleWriter which must be closed by the caller.
+   * @throws IOException in case of an error opening the table.
+   */
+  public static AsyncTupleWriter open(
+      final KijiURI tableURI,
+      final Map<String, ColumnOutputSpec> outputColumns,
+      final String timestampField,
+      final Configuration conf,
+      final int batchSize,
+      final int maxInFlightBatches,
+      final long lingerMillis
+  ) throws IOException {
+    Preconditions.checkArgument(batchSize > 0,
+        "Batch size must be strictly positive, but got: %d", batchSize);
+    Preconditions.checkArgument(maxInFlightBatches > 0,
+        "Maximum in-flight batches must be strictly positive, but got: %d", maxInFlightBatches);
+    Preconditions.checkArgument(lingerMillis >= 0,
+        "Linger time may not be negative, but got: %d", lingerMillis);
+    final BlockingQueue<TupleWriter> writers =
+        new LinkedBlockingQueue<TupleWriter>(maxInFlightBatches);
+    try {
+      for (int index = 0; index < maxInFlightBatches; index++) {
+        writers.add(TupleWriter.open(tableURI, outputColumns, timestampField, conf));
+      }
+    } catch (IOException ioe) {
+      closeWriters(writers);
+      throw ioe;
+    }
+    return new AsyncTupleWriter(
+        tableURI, outputColumns, timestampField, conf, writers, batchSize, lingerMillis);
+  }
+
+  /** Tuples collected for one send, and the future completed when they have been flushed. */
+  private static final class Batch {
+    private final List<TupleEntry> mTuples = Lists.newArrayList();
+    private final SettableFuture<Void> mFuture = SettableFuture.create();
+  }
+
+  private final KijiURI mTableURI;
+  private final Map<String, ColumnOutputSpec> mOutputColumns;
+  private final String mTimestampField;
+  private final Configuration mConf;
+  private final BlockingQueue<TupleWriter> mWriters;
+  private final int mMaxInFlightBatches;
+  private final Semaphore mInFlight;
+  private final ExecutorService mExecutor;
+  private final ScheduledExecutorService mLingerExecutor;
+  private final int mBatchSize;
+  private final Object mLock = new Object();
+  private Batch mBatch = new Batch();
+  private boolean mClosed = false;
+
+  /**
+   * Private constructor, use
+   * {@link #open(KijiURI, Map, String, Configuration, int, int, long)}.
+   *
+   * @param tableURI KijiURI of the table to which to write.
+   * @param outputColumns mapping from field name to output spec.
+   * @param timestampField name of the field containing the write timestamp, or null.
+   * @param conf Hadoop configuration used to open replacement writers.
+   * @param writers one writer per in-flight batch.
+   * @param batchSize maximum number of tuples in a batch.
+   * @param lingerMillis maximum number of milliseconds a partial batch waits, or 0.
+   */
+  private AsyncTupleWriter(
+      final KijiURI tableURI,
+      final Map<String, ColumnOutputSpec> outputColumns,
+      final String timestampField,
+      final Configuration conf,
+      final BlockingQueue<TupleWriter> writers,
+      final int batchSize,
+      final long lingerMillis
+  ) {
+    mTableURI = tableURI;
+    mOutputColumns = outputColumns;
+    mTimestampField = timestampField;
+    mConf = conf;
+    mWriters = writers;
+    mMaxInFlightBatches = writers.size();
+    mInFlight = new Semaphore(mMaxInFlightBatches);
+    mBatchSize = batchSize;
+    mExecutor = Executors.newFixedThreadPool(mMaxInFlightBatches,
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("kiji-async-writer-%d").build());
+    if (lingerMillis > 0) {
+      mLingerExecutor = Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder().setDaemon(true).setNameFormat("kiji-async-linger-%d").build());
+      mLingerExecutor.scheduleWithFixedDelay(new Runnable() {
+        /** {@inheritDoc} */
+        @Override
+        public void run() {
+          try {
+            sendPartialBatch();
+          } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      }, lingerMillis, lingerMillis, TimeUnit.MILLISECONDS);
+    } else {
+      mLingerExecutor = null;
+    }
+  }
+
+  /**
+   * Add a tuple to the current batch. The tuple is copied, so the caller may reuse it.
+   *
+   * @param tuple tuple to write. Must contain the entity ID in {@link TapBuilder#ENTITY_ID_FIELD}.
+   * @return a future which completes when the tuple has been flushed to the table, or fails with
+   *     the error which prevented its batch from being written.
+   * @throws InterruptedException if interrupted while waiting for an in-flight batch to finish.
+   */
+  public ListenableFuture<Void> write(
+      final TupleEntry tuple
+  ) throws InterruptedException {
+    Preconditions.checkNotNull(tuple, "Tuple may not be null.");
+    final TupleEntry copy = new TupleEntry(tuple.getFields(), new Tuple(tuple.getTuple()));
+    final ListenableFuture<Void> future;
+    Batch full = null;
+    synchronized (mLock) {
+      Preconditions.checkState(!mClosed, "Cannot write to a closed AsyncTupleWriter.");
+      mBatch.mTuples.add(copy);
+      future = mBatch.mFuture;
+      if (mBatch.mTuples.size() >= mBatchSize) {
+        full = mBatch;
+        mBatch = new Batch();
+      }
+    }
+    if (null != full) {
+      send(full);
+    }
+    return future;
+  }
+
+  /**
+   * Send the current batch and wait until every batch sent so far has finished.
+   *
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  public void flush() throws InterruptedException {
+    sendPartialBatch();
+    mInFlight.acquire(mMaxInFlightBatches);
+    mInFlight.release(mMaxInFlightBatches);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void close() throws IOException {
+    synchronized (mLock) {
+      if (mClosed) {
+        return;
+      }
+      mClosed = true;
+    }
+    try {
+      if (null != mLingerExecutor) {
+        // Let a running linger task finish sending the batch it may already have detached.
+        mLingerExecutor.shutdown();
+        mLingerExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      }
+      flush();
+      mExecutor.shutdown();
+      mExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while closing AsyncTupleWriter.");
+    } finally {
+      closeWriters(mWriters);
+    }
+  }
+
+  /**
+   * Send the current batch if it contains any tuples.
+   *
+   * @throws InterruptedException if interrupted while waiting for an in-flight batch to finish.
+   */
+  private void sendPartialBatch() throws InterruptedException {
+    final Batch partial;
+    synchronized (mLock) {
+      if (mBatch.mTuples.isEmpty()) {
+        return;
+      }
+      partial = mBatch;
+      mBatch = new Batch();
+    }
+    send(partial);
+  }
+
+  /**
+   * Send a batch from a background thread, first waiting for an in-flight batch to finish if the
+   * maximum number of batches is already in flight. If interrupted while waiting, the future of
+   * the batch fails, since its tuples are no longer held by the current batch.
+   *
+   * @param batch batch to send.
+   * @throws InterruptedException if interrupted while waiting for an in-flight batch to finish.
+   */
+  private void send(
+      final Batch batch
+  ) throws InterruptedException {
+    try {
+      mInFlight.acquire();
+    } catch (InterruptedException ie) {
+      batch.mFuture.setException(ie);
+      throw ie;
+    }
+    mExecutor.execute(new Runnable() {
+      /** {@inheritDoc} */
+      @Override
+      public void run() {
+        // There are as many permits as writers, so a writer is available unless a failed writer
+        // was discarded, in which case a replacement is opened.
+        TupleWriter writer = mWriters.poll();
+        boolean failed = true;
+        try {
+          if (null == writer) {
+            writer = TupleWriter.open(mTableURI, mOutputColumns, mTimestampField, mConf);
+          }
+          for (TupleEntry tuple : batch.mTuples) {
+            writer.write(tuple);
+          }
+          writer.flush();
+          failed = false;
+          batch.mFuture.set(null);
+        } catch (IOException ioe) {
+          batch.mFuture.setException(ioe);
+        } catch (RuntimeException re) {
+          batch.mFuture.setException(re);
+        } finally {
+          if (null != writer) {
+            if (failed) {
+              // The writer may still buffer cells of the failed batch.
+              closeWriter(writer);
+            } else {
+              mWriters.add(writer);
+            }
+          }
+          mInFlight.release();
+        }
+      }
+    });
+  }
+
+  /**
+   * Close every writer in the given queue, logging any errors.
+   *
+   * @param writers writers to close.
+   */
+  private static void closeWriters(
+      final BlockingQueue<TupleWriter> writers
+  ) {
+    for (TupleWriter writer : writers) {
+      closeWriter(writer);
+    }
+  }
+
+  /**
+   * Close a writer, logging any error.
+   *
+   * @param writer writer to close.
+   */
+  private static void closeWriter(
+      final TupleWriter writer
+  ) {
+    try {
+      writer.close();
+    } catch (IOException ioe) {
+      LOG.warn("Unable to close writer: {}", ioe.getMessage());
+    }
+  }
+}
@@ -0,0 +1,159 @@
+package org.kiji.express.flow;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import cascading.flow.FlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Function;
+import cascading.operation.FunctionCall;
+import cascading.operation.OperationCall;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryCollector;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+import org.kiji.annotations.ApiAudience;
+
+/**
+ * Cascading function which coalesces tuples targeting the same Kiji cells before they reach a
+ * Kiji sink.
+ *
+ * <p>
+ *   Tuples are keyed by entity ID, timestamp and the values of any qualifier selector fields, so
+ *   two tuples with equal keys write to exactly the same cells. Tuples are buffered in the task
+ *   until the buffer holds the configured number of keys, at which point every buffered tuple is
+ *   emitted. Remaining tuples are emitted when the task is flushed. Within the buffer the last
+ *   non-null value of each output field wins, unless a {@link WriteMerger} is supplied, so tuples
+ *   writing different columns of the same cell key are combined rather than replaced.
+ * </p>
+ */
+@ApiAudience.Private
+final class CoalesceWrites
+    extends BaseOperation<Map<Tuple, Tuple>>
+    implements Function<Map<Tuple, Tuple>> {
+  private static final long serialVersionUID = 1L;
+
+  private final String mTimestampField;
+  private final List<String> mQualifierSelectorFields;
+  private final List<String> mOutputFields;
+  private final int mMaxBufferedKeys;
+  private final WriteMerger mMerger;
+
+  /**
+   * Create a new CoalesceWrites function.
+   *
+   * @param timestampField name of the field containing the write timestamp.
+   * @param qualifierSelectorFields names of the fields selecting column family qualifiers.
+   * @param outputFields names of the fields written to Kiji columns.
+   * @param maxBufferedKeys number of distinct cell keys to buffer before emitting.
+   * @param merger merges values for the same cell, or null to keep the last value.
+   */
+  CoalesceWrites(
+      final String timestampField,
+      final List<String> qualifierSelectorFields,
+      final List<String> outputFields,
+      final int maxBufferedKeys,
+      final WriteMerger merger
+  ) {
+    super(Fields.ARGS);
+    Preconditions.checkArgument(maxBufferedKeys > 0,
+        "Coalescing buffer size must be strictly positive, but got: %d", maxBufferedKeys);
+    mTimestampField = Preconditions.checkNotNull(timestampField,
+        "Write coalescing requires a timestamp field.");
+    mQualifierSelectorFields = ImmutableList.copyOf(qualifierSelectorFields);
+    mOutputFields = ImmutableList.copyOf(outputFields);
+    mMaxBufferedKeys = maxBufferedKeys;
+    mMerger = merger;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void prepare(
+      final FlowProcess flowProcess,
+      final OperationCall<Map<Tuple, Tuple>> operationCall
+  ) {
+    operationCall.setContext(Maps.<Tuple, Tuple>newLinkedHashMap());
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void operate(
+      final FlowProcess flowProcess,
+      final FunctionCall<Map<Tuple, Tuple>> functionCall
+  ) {
+    final TupleEntry arguments = functionCall.getArguments();
+    final Map<Tuple, Tuple> buffer = functionCall.getContext();
+
+    final Tuple key = new Tuple();
+    key.add(arguments.getObject(TapBuilder.ENTITY_ID_FIELD));
+    key.add(arguments.getObject(mTimestampField));
+    for (String selector : mQualifierSelectorFields) {
+      key.add(arguments.getObject(selector));
+    }
+
+    final Tuple next = arguments.getTupleCopy();
+    final Tuple previous = buffer.get(key);
+    if (null != previous) {
+      // Coalesce column by column: a null field writes nothing, so it may not erase the value of
+      // an earlier tuple written to the same cell.
+      final Fields fields = arguments.getFields();
+      for (String field : mOutputFields) {
+        final int pos = fields.getPos(field);
+        if (null != mMerger) {
+          next.set(pos, mMerger.merge(field, previous.getObject(pos), next.getObject(pos)));
+        } else if (null == next.getObject(pos)) {
+          next.set(pos, previous.getObject(pos));
+        }
+      }
+    }
+    buffer.put(key, next);
+
+    if (buffer.size() >= mMaxBufferedKeys) {
+      emit(buffer, functionCall.getOutputCollector());
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  @SuppressWarnings("unchecked")
+  public void flush(
+      final FlowProcess flowProcess,
+      final OperationCall<Map<Tuple, Tuple>> operationCall
+  ) {
+    final Map<Tuple, Tuple> buffer = operationCall.getContext();
+    if (null != buffer) {
+      emit(buffer, ((FunctionCall<Map<Tuple, Tuple>>) operationCall).getOutputCollector());
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void cleanup(
+      final FlowProcess flowProcess,
+      final OperationCall<Map<Tuple, Tuple>> operationCall
+  ) {
+    operationCall.setContext(null);
+  }
+
+  /**
+   * Emit and remove every tuple in the given buffer.
+   *
+   * @param buffer tuples to emit.
+   * @param collector collector to which to emit the tuples.
+   */
+  private static void emit(
+      final Map<Tuple, Tuple> buffer,
+      final TupleEntryCollector collector
+  ) {
+    final Iterator<Tuple> tuples = buffer.values().iterator();
+    while (tuples.hasNext()) {
+      collector.add(tuples.next());
+      tuples.remove();
+    }
+  }
+}
@@ -21,6 +21,36 @@ public class ColumnInputSpecBuilders {
      * @return a new ColumnInputSpec from the values stored in this builder.
      */
     public abstract ColumnInputSpec build();
+
+    /**
+     * Build a new ColumnInputSpec for a {@link TapBuilder}, which applies the options of this
+     * builder that a ColumnInputSpec cannot hold: the time range and version aggregation.
+     *
+     * @return a new ColumnInputSpec from the values stored in this builder.
+     */
+    ColumnInputSpec buildForTap() {
+      return build();
+    }
+
+    /**
+     * Get the version aggregation or null if it has not been set. Builders which do not support
+     * version aggregations return null.
+     *
+     * @return the version aggregation or null if it has not been set.
+     */
+    public VersionAggregation getAggregation() {
+      return null;
+    }
+
+    /**
+     * Get the time range of the column or null if it has not been set. Builders which do not
+     * support per-column time ranges return null.
+     *
+     * @return the time range of the column or null if it has not been set.
+     */
+    public TimeRangeSpec getTimeRange() {
+      return null;
+    }
   }
 
   /** Builder for {@link QualifiedColumnInputSpec}. */
@@ -51,6 +81,8 @@ public class ColumnInputSpecBuilders {
     private Integer mMaxVersions = null;
     private ColumnFilterSpec mColumnFilterSpec = null;
     private PagingSpec mPagingSpec = null;
+    private VersionAggregation mAggregation = null;
+    private TimeRangeSpec mTimeRange = null;
 
     /**
      * Private constructor. Use {@link #create()}
@@ -63,6 +95,11 @@ public class ColumnInputSpecBuilders {
       if (null != toCopy) {
         mColumn = toCopy.mColumn;
         mSchemaSpec = toCopy.mSchemaSpec;
+        mMaxVersions = toCopy.mMaxVersions;
+        mColumnFilterSpec = toCopy.mColumnFilterSpec;
+        mPagingSpec = toCopy.mPagingSpec;
+        mAggregation = toCopy.mAggregation;
+        mTimeRange = toCopy.mTimeRange;
       }
     }
 
@@ -318,11 +355,80 @@ public class ColumnInputSpecBuilders {
     }
 
     /**
-     * Build a new QualifiedColumnInputSpec from the values stored in this builder.
+     * Configure the input spec to read the column from the given time range instead of the time
+     * range of the tap. The tap scans the union of the time ranges of its columns once, and cells
+     * outside the time range of their column are dropped in the map task by
+     * {@link TapBuilder#buildSourceAssembly(cascading.pipe.Pipe)}. Max versions is applied per
+     * qualifier after this time range. When this time range ends before the end of the union,
+     * newer versions outside it could displace the versions within it, so the scan requests every
+     * version of the column over the whole union and ships them to the map task: narrow ranges
+     * ending well before the end of a wide union are expensive. Only builders added to a
+     * {@link TapBuilder} through its column builder methods may have a time range.
+     *
+     * @param timeRange time range from which to read the column.
+     * @return this.
+     */
+    public QualifiedColumnInputSpecBuilder withTimeRange(
+        final TimeRangeSpec timeRange
+    ) {
+      Preconditions.checkNotNull(timeRange, "Time range may not be null.");
+      Preconditions.checkState(null == mTimeRange, "Time range already set to: " + mTimeRange);
+      mTimeRange = timeRange;
+      return this;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public TimeRangeSpec getTimeRange() {
+      return mTimeRange;
+    }
+
+    /**
+     * Configure the input spec to reduce all versions read from the column to a single aggregate
+     * value. Aggregations are evaluated by
+     * {@link TapBuilder#buildSourceAssembly(cascading.pipe.Pipe)} after every version of the
+     * column has been read into the map task, so they save shuffle and downstream work but not
+     * scan cost. Paging is left as configured.
+     *
+     * @param aggregation aggregation to apply to the versions of the column.
+     * @return this.
+     */
+    public QualifiedColumnInputSpecBuilder withAggregation(
+        final VersionAggregation aggregation
+    ) {
+      Preconditions.checkNotNull(aggregation, "Version aggregation may not be null.");
+      Preconditions.checkState(null == mAggregation,
+          "Version aggregation already set to: " + mAggregation);
+      mAggregation = aggregation;
+      return this;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public VersionAggregation getAggregation() {
+      return mAggregation;
+    }
+
+    /**
+     * Build a new QualifiedColumnInputSpec from the values stored in this builder. A time range or
+     * version aggregation may only be applied by a {@link TapBuilder}, so builders with either
+     * must be passed to {@link TapBuilder#addInputColumnBuilders(java.util.Map)} instead.
      *
      * @return a new QualifiedColumnInputSpec from the values stored in this builder.
      */
     public QualifiedColumnInputSpec build() {
+      Preconditions.checkState(null == mTimeRange,
+          "Column time range: %s is applied by TapBuilder; add this builder to a TapBuilder.",
+          mTimeRange);
+      Preconditions.checkState(null == mAggregation,
+          "Version aggregation: %s is applied by TapBuilder; add this builder to a TapBuilder.",
+          mAggregation);
+      return buildForTap();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    QualifiedColumnInputSpec buildForTap() {
       final KijiColumnName column = Preconditions.checkNotNull(mColumn,
           "Input column may not be null.");
       // TODO(shashir): This construct method needs to be implemented in ColumnInputSpec.
@@ -364,6 +470,8 @@ public class ColumnInputSpecBuilders {
     private Integer mMaxVersions = null;
     private ColumnFilterSpec mColumnFilterSpec = null;
     private PagingSpec mPagingSpec = null;
+    private VersionAggregation mAggregation = null;
+    private TimeRangeSpec mTimeRange = null;
 
     /**
      * Private constructor. Use {@link #create()}
@@ -376,6 +484,11 @@ public class ColumnInputSpecBuilders {
       if (null != toCopy) {
         mColumn = toCopy.mColumn;
         mSchemaSpec = toCopy.mSchemaSpec;
+        mMaxVersions = toCopy.mMaxVersions;
+        mColumnFilterSpec = toCopy.mColumnFilterSpec;
+        mPagingSpec = toCopy.mPagingSpec;
+        mAggregation = toCopy.mAggregation;
+        mTimeRange = toCopy.mTimeRange;
       }
     }
 
@@ -629,11 +742,80 @@ public class ColumnInputSpecBuilders {
     }
 
     /**
-     * Build a new ColumnFamilyInputSpec from the values stored in this builder.
+     * Configure the input spec to read the column from the given time range instead of the time
+     * range of the tap. The tap scans the union of the time ranges of its columns once, and cells
+     * outside the time range of their column are dropped in the map task by
+     * {@link TapBuilder#buildSourceAssembly(cascading.pipe.Pipe)}. Max versions is applied per
+     * qualifier after this time range. When this time range ends before the end of the union,
+     * newer versions outside it could displace the versions within it, so the scan requests every
+     * version of the column over the whole union and ships them to the map task: narrow ranges
+     * ending well before the end of a wide union are expensive. Only builders added to a
+     * {@link TapBuilder} through its column builder methods may have a time range.
+     *
+     * @param timeRange time range from which to read the column.
+     * @return this.
+     */
+    public ColumnFamilyInputSpecBuilder withTimeRange(
+        final TimeRangeSpec timeRange
+    ) {
+      Preconditions.checkNotNull(timeRange, "Time range may not be null.");
+      Preconditions.checkState(null == mTimeRange, "Time range already set to: " + mTimeRange);
+      mTimeRange = timeRange;
+      return this;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public TimeRangeSpec getTimeRange() {
+      return mTimeRange;
+    }
+
+    /**
+     * Configure the input spec to reduce all versions read from the column to a single aggregate
+     * value. Aggregations are evaluated by
+     * {@link TapBuilder#buildSourceAssembly(cascading.pipe.Pipe)} after every version of the
+     * column has been read into the map task, so they save shuffle and downstream work but not
+     * scan cost. Paging is left as configured.
+     *
+     * @param aggregation aggregation to apply to the versions of the column.
+     * @return this.
+     */
+    public ColumnFamilyInputSpecBuilder withAggregation(
+        final VersionAggregation aggregation
+    ) {
+      Preconditions.checkNotNull(aggregation, "Version aggregation may not be null.");
+      Preconditions.checkState(null == mAggregation,
+          "Version aggregation already set to: " + mAggregation);
+      mAggregation = aggregation;
+      return this;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public VersionAggregation getAggregation() {
+      return mAggregation;
+    }
+
+    /**
+     * Build a new ColumnFamilyInputSpec from the values stored in this builder. A time range or
+     * version aggregation may only be applied by a {@link TapBuilder}, so builders with either
+     * must be passed to {@link TapBuilder#addInputColumnBuilders(java.util.Map)} instead.
      *
      * @return a new ColumnFamilyInputSpec from the values stored in this builder.
      */
     public ColumnFamilyInputSpec build() {
+      Preconditions.checkState(null == mTimeRange,
+          "Column time range: %s is applied by TapBuilder; add this builder to a TapBuilder.",
+          mTimeRange);
+      Preconditions.checkState(null == mAggregation,
+          "Version aggregation: %s is applied by TapBuilder; add this builder to a TapBuilder.",
+          mAggregation);
+      return buildForTap();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    ColumnFamilyInputSpec buildForTap() {
       final KijiColumnName column = Preconditions.checkNotNull(mColumn,
           "Input column may not be null.");
       // TODO(shashir): This construct method needs to be implemented in ColumnInputSpec.
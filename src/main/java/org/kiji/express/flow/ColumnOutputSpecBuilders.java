@@ -405,4 +405,114 @@ public final class ColumnOutputSpecBuilders {
       return ColumnFamilyOutputSpec$.MODULE$.construct(family, qualifierSelector, mSchemaSpec);
     }
   }
+
+  /**
+   * Builder for output specs of counter columns. The built spec is a
+   * {@link QualifiedColumnOutputSpec} of the counter column; output fields configured with this
+   * builder through {@link TapBuilder#withOutputColumnBuilders(java.util.Map)} hold numeric
+   * increments which are summed per cell before being sent. See
+   * {@link TapBuilder#withCounterField(String)}.
+   */
+  public static final class CounterOutputSpecBuilder extends ColumnOutputSpecBuilder {
+
+    /**
+     * Initializes a new empty CounterOutputSpecBuilder.
+     *
+     * @return a new empty CounterOutputSpecBuilder.
+     */
+    public static CounterOutputSpecBuilder create() {
+      return new CounterOutputSpecBuilder(null);
+    }
+
+    /**
+     * Initializes a new CounterOutputSpecBuilder as a copy of the given builder.
+     *
+     * @param toCopy builder to copy.
+     * @return a new CounterOutputSpecBuilder as a copy of the given builder.
+     */
+    public static CounterOutputSpecBuilder copy(
+        final CounterOutputSpecBuilder toCopy
+    ) {
+      return new CounterOutputSpecBuilder(toCopy);
+    }
+
+    private KijiColumnName mColumn = null;
+
+    /**
+     * Private constructor, use {@link #create()} or
+     * {@link #copy(ColumnOutputSpecBuilders.CounterOutputSpecBuilder)}.
+     *
+     * @param toCopy builder to copy or null to make an empty builder.
+     */
+    private CounterOutputSpecBuilder(
+        final CounterOutputSpecBuilder toCopy
+    ) {
+      if (null != toCopy) {
+        mColumn = toCopy.mColumn;
+      }
+    }
+
+    /**
+     * Configure the output spec to increment the given counter column.
+     *
+     * @param column name of the qualified counter column to increment.
+     * @return this.
+     */
+    public CounterOutputSpecBuilder withQualifiedColumn(
+        final KijiColumnName column
+    ) {
+      Preconditions.checkNotNull(column, "Counter column may not be null.");
+      Preconditions.checkArgument(null != column.getQualifier(),
+          "Counter column must be fully qualified, found: " + column);
+      Preconditions.checkState(null == mColumn, "Counter column already set to: " + mColumn);
+      mColumn = column;
+      return this;
+    }
+
+    /**
+     * Configure the output spec to increment the counter column with the given family and
+     * qualifier.
+     *
+     * @param family Kiji column family of the counter column.
+     * @param qualifier Kiji column qualifier of the counter column.
+     * @return this.
+     */
+    public CounterOutputSpecBuilder withQualifiedColumn(
+        final String family,
+        final String qualifier
+    ) {
+      Preconditions.checkNotNull(family, "Counter family may not be null.");
+      Preconditions.checkNotNull(qualifier, "Counter qualifier may not be null.");
+      Preconditions.checkState(null == mColumn, "Counter column already set to: " + mColumn);
+      mColumn = new KijiColumnName(family, qualifier);
+      return this;
+    }
+
+    /**
+     * Get the specified counter column or null if none has been set.
+     *
+     * @return the specified counter column or null if none has been set.
+     */
+    public KijiColumnName getQualifiedColumn() {
+      return mColumn;
+    }
+
+    /**
+     * Build a new QualifiedColumnOutputSpec of the counter column from the values stored in this
+     * builder.
+     *
+     * @return a new QualifiedColumnOutputSpec of the counter column.
+     */
+    @Override
+    public QualifiedColumnOutputSpec build() {
+      final KijiColumnName column = Preconditions.checkNotNull(mColumn,
+          "Counter column may not be null.");
+      // Counters are encoded by the table, so no Avro schema applies.
+      return QualifiedColumnOutputSpec$.MODULE$.apply(
+          column.getFamily(),
+          column.getQualifier(),
+          null
+      );
+    }
+  }
 }
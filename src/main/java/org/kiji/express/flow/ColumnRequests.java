@@ -0,0 +1,68 @@
+package org.kiji.express.flow;
+
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+import scala.Option;
+
+import org.kiji.annotations.ApiAudience;
+import org.kiji.schema.KijiDataRequest;
+import org.kiji.schema.KijiDataRequestBuilder;
+import org.kiji.schema.filter.KijiColumnFilter;
+
+/** Utilities for translating column input specs into Kiji data requests. */
+@ApiAudience.Private
+final class ColumnRequests {
+
+  /**
+   * Build a KijiDataRequest which reads every column in the given input column map from the given
+   * time range.
+   *
+   * @param inputColumns mapping from field name to input spec.
+   * @param timeRange time range from which to read values, or null to read from all time.
+   * @return a KijiDataRequest for the given columns and time range.
+   */
+  static KijiDataRequest build(
+      final Map<String, ColumnInputSpec> inputColumns,
+      final TimeRangeSpec timeRange
+  ) {
+    Preconditions.checkNotNull(inputColumns, "Input columns may not be null.");
+    final KijiDataRequestBuilder builder = KijiDataRequest.builder();
+    if (null != timeRange) {
+      builder.withTimeRange(timeRange.begin(), timeRange.end());
+    }
+    for (ColumnInputSpec spec : inputColumns.values()) {
+      final KijiDataRequestBuilder.ColumnsDef columnsDef =
+          builder.newColumnsDef().withMaxVersions(spec.maxVersions());
+      final Option<KijiColumnFilter> filter = spec.filterSpec().toKijiColumnFilter();
+      if (filter.isDefined()) {
+        columnsDef.withFilter(filter.get());
+      }
+      columnsDef.add(spec.columnName());
+    }
+    return builder.build();
+  }
+
+  /**
+   * Copy an input spec, requesting every version of its column.
+   *
+   * @param spec input spec to copy.
+   * @return a copy of the given input spec without a limit on the number of versions.
+   */
+  static ColumnInputSpec withAllVersions(
+      final ColumnInputSpec spec
+  ) {
+    if (spec instanceof ColumnFamilyInputSpec) {
+      return ColumnFamilyInputSpec$.MODULE$.construct(
+          spec.columnName(), Integer.MAX_VALUE, spec.filterSpec(), spec.pagingSpec(),
+          spec.schemaSpec());
+    }
+    return QualifiedColumnInputSpec$.MODULE$.construct(
+        spec.columnName(), Integer.MAX_VALUE, spec.filterSpec(), spec.pagingSpec(),
+        spec.schemaSpec());
+  }
+
+  /** Utility class may not be instantiated. */
+  private ColumnRequests() {
+  }
+}
@@ -0,0 +1,779 @@
+package org.kiji.express.flow;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.avro.Schema;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.kiji.annotations.ApiAudience;
+import org.kiji.annotations.ApiStability;
+import org.kiji.schema.EntityId;
+import org.kiji.schema.Kiji;
+import org.kiji.schema.KijiColumnName;
+import org.kiji.schema.KijiRowData;
+import org.kiji.schema.KijiRowScanner;
+import org.kiji.schema.KijiTable;
+import org.kiji.schema.KijiTableReader;
+import org.kiji.schema.KijiURI;
+import org.kiji.schema.layout.CellSpec;
+import org.kiji.schema.layout.KijiTableLayout;
+import org.kiji.schema.layout.KijiTableLayout.LocalityGroupLayout.FamilyLayout;
+import org.kiji.schema.layout.KijiTableLayout.LocalityGroupLayout.FamilyLayout.ColumnLayout;
+import org.kiji.schema.util.ResourceUtils;
+
+/**
+ * Exports a snapshot of Kiji columns into a columnar file layout.
+ *
+ * <p>
+ *   The exporter scans the table, time range and input columns configured in a {@link TapBuilder}
+ *   and writes the cells of each input field into its own Avro container file, so that downstream
+ *   jobs read only the columns they need. Files are partitioned by cell timestamp:
+ * </p>
+ * <pre>
+ *   &lt;output&gt;/partition=&lt;partition start millis&gt;/&lt;field&gt;-&lt;part&gt;.avro
+ *   &lt;output&gt;/partition=&lt;partition start millis&gt;/&lt;field&gt;.stats.json
+ * </pre>
+ * <p>
+ *   Each column file holds records of entity ID, qualifier, timestamp and value, where values use
+ *   the reader schema of their column in the table layout. The compression codec may be chosen
+ *   per field. The stats file records the cell count, the minimum and maximum timestamps and, for
+ *   primitive values, the minimum and maximum values of the column in the partition. The output
+ *   path may be on HDFS or on the local filesystem.
+ * </p>
+ * <p>
+ *   Rows are scanned in row key order rather than time order, so cells of every partition may
+ *   arrive at any point of the scan. The exporter keeps a bounded number of column files open and
+ *   closes the least recently written one when it needs another; cells arriving later for a
+ *   closed file go to a new part of the same partition and field.
+ * </p>
+ */
+@ApiAudience.Public
+@ApiStability.Experimental
+public final class ColumnarExporter {
+  private static final Logger LOG = LoggerFactory.getLogger(ColumnarExporter.class);
+
+  /** Default maximum number of column files open at once. */
+  private static final int DEFAULT_MAX_OPEN_FILES = 64;
+
+  /** Schema of the per-partition column statistics. */
+  private static final Schema STATS_SCHEMA = Schema.createRecord(
+      "ColumnarExportStats", null, "org.kiji.express.flow", false);
+
+  static {
+    final Schema nullableString = Schema.createUnion(Arrays.asList(
+        Schema.create(Schema.Type.NULL), Schema.create(Schema.Type.STRING)));
+    STATS_SCHEMA.setFields(Arrays.asList(
+        new Schema.Field("field", Schema.create(Schema.Type.STRING), null, null),
+        new Schema.Field("column", Schema.create(Schema.Type.STRING), null, null),
+        new Schema.Field("codec", Schema.create(Schema.Type.STRING), null, null),
+        new Schema.Field("cell_count", Schema.create(Schema.Type.LONG), null, null),
+        new Schema.Field("min_timestamp", Schema.create(Schema.Type.LONG), null, null),
+        new Schema.Field("max_timestamp", Schema.create(Schema.Type.LONG), null, null),
+        new Schema.Field("min_value", nullableString, null, null),
+        new Schema.Field("max_value", nullableString, null, null)));
+  }
+
+  /**
+   * Create a new ColumnarExporter which exports the table, time range and input columns
+   * configured in the given TapBuilder.
+   *
+   * @param tapBuilder builder whose table, time range and input columns to export.
+   * @return a new ColumnarExporter.
+   */
+  public static ColumnarExporter forTap(
+      final TapBuilder tapBuilder
+  ) {
+    Preconditions.checkNotNull(tapBuilder, "Tap builder may not be null.");
+    Preconditions.checkArgument(null != tapBuilder.getTableURI(),
+        "Tap builder must have a table URI.");
+    Preconditions.checkArgument(
+        null != tapBuilder.getInputColumns() && !tapBuilder.getInputColumns().isEmpty(),
+        "Tap builder must have input columns.");
+    return new ColumnarExporter(tapBuilder);
+  }
+
+  private final KijiURI mTableURI;
+  private final TimeRangeSpec mTimeRange;
+  private final Map<String, ColumnInputSpec> mInputColumns;
+  private final Map<String, CodecFactory> mColumnCodecs = Maps.newHashMap();
+  private Path mOutputPath = null;
+  private Long mPartitionMillis = null;
+  private CodecFactory mDefaultCodec = null;
+  private Integer mMaxOpenFiles = null;
+
+  /**
+   * Private constructor, use {@link #forTap(TapBuilder)}.
+   *
+   * @param tapBuilder builder whose table, time range and input columns to export.
+   */
+  private ColumnarExporter(
+      final TapBuilder tapBuilder
+  ) {
+    mTableURI = tapBuilder.getTableURI();
+    mTimeRange = tapBuilder.getTimeRangeSpec();
+    mInputColumns = Maps.newHashMap(tapBuilder.getInputColumns());
+  }
+
+  /**
+   * Configure the exporter to write into the given directory.
+   *
+   * @param outputPath directory into which to write. May be on HDFS or the local filesystem.
+   * @return this.
+   */
+  public ColumnarExporter withOutputPath(
+      final Path outputPath
+  ) {
+    Preconditions.checkNotNull(outputPath, "Output path may not be null.");
+    Preconditions.checkState(null == mOutputPath, "Output path already set to: " + mOutputPath);
+    mOutputPath = outputPath;
+    return this;
+  }
+
+  /**
+   * Configure the exporter to partition cells into time ranges of the given length.
+   *
+   * @param partitionMillis length in milliseconds of each time partition.
+   * @return this.
+   */
+  public ColumnarExporter withPartitionMillis(
+      final long partitionMillis
+  ) {
+    Preconditions.checkArgument(partitionMillis > 0,
+        "Partition length must be strictly positive, but got: %d", partitionMillis);
+    Preconditions.checkState(null == mPartitionMillis,
+        "Partition length already set to: " + mPartitionMillis);
+    mPartitionMillis = partitionMillis;
+    return this;
+  }
+
+  /**
+   * Configure the exporter to compress every column without a specific codec with the given
+   * codec. Columns are compressed with deflate by default.
+   *
+   * @param codec compression codec for columns without a specific codec.
+   * @return this.
+   */
+  public ColumnarExporter withCodec(
+      final CodecFactory codec
+  ) {
+    Preconditions.checkNotNull(codec, "Codec may not be null.");
+    Preconditions.checkState(null == mDefaultCodec, "Codec already set to: " + mDefaultCodec);
+    mDefaultCodec = codec;
+    return this;
+  }
+
+  /**
+   * Configure the exporter to compress the column of the given field with the given codec.
+   *
+   * @param field name of the input field whose column to compress.
+   * @param codec compression codec for the column.
+   * @return this.
+   */
+  public ColumnarExporter withColumnCodec(
+      final String field,
+      final CodecFactory codec
+  ) {
+    Preconditions.checkArgument(mInputColumns.containsKey(field),
+        "Field: %s is not an input field of this export.", field);
+    Preconditions.checkNotNull(codec, "Codec may not be null.");
+    final CodecFactory overwritten = mColumnCodecs.put(field, codec);
+    Preconditions.checkState(null == overwritten,
+        "Field: %s already has codec: %s", field, overwritten);
+    return this;
+  }
+
+  /**
+   * Configure the exporter to keep at most the given number of column files open at once.
+   * Defaults to {@value #DEFAULT_MAX_OPEN_FILES}.
+   *
+   * @param maxOpenFiles maximum number of column files open at once.
+   * @return this.
+   */
+  public ColumnarExporter withMaxOpenFiles(
+      final int maxOpenFiles
+  ) {
+    Preconditions.checkArgument(maxOpenFiles > 0,
+        "Maximum open files must be strictly positive, but got: %d", maxOpenFiles);
+    Preconditions.checkState(null == mMaxOpenFiles,
+        "Maximum open files already set to: " + mMaxOpenFiles);
+    mMaxOpenFiles = maxOpenFiles;
+    return this;
+  }
+
+  /**
+   * Scan the configured table and write the columnar export.
+   *
+   * @param conf Hadoop configuration used to open the table and the output filesystem.
+   * @return the number of cells exported.
+   * @throws IOException in case of an error reading the table or writing the export.
+   */
+  public long export(
+      final Configuration conf
+  ) throws IOException {
+    Preconditions.checkState(null != mOutputPath, "Output path must be set before exporting.");
+    Preconditions.checkState(null != mPartitionMillis,
+        "Partition length must be set before exporting.");
+
+    final ColumnFileWriters writers = new ColumnFileWriters(mOutputPath.getFileSystem(conf),
+        (null == mMaxOpenFiles) ? DEFAULT_MAX_OPEN_FILES : mMaxOpenFiles);
+    final long cells;
+    try {
+      cells = scan(conf, writers);
+    } catch (IOException ioe) {
+      writers.closeAllOrLog();
+      throw ioe;
+    } catch (RuntimeException re) {
+      writers.closeAllOrLog();
+      throw re;
+    }
+    writers.closeAll();
+    writers.writeStats();
+    LOG.info("Exported {} cells from {} into {} column files under {}.",
+        cells, mTableURI, writers.getFileCount(), mOutputPath);
+    return cells;
+  }
+
+  /**
+   * Scan the configured table and write every cell to its column file.
+   *
+   * @param conf Hadoop configuration used to open the table.
+   * @param writers column file writers.
+   * @return the number of cells exported.
+   * @throws IOException in case of an error reading the table or writing a column file.
+   */
+  private long scan(
+      final Configuration conf,
+      final ColumnFileWriters writers
+  ) throws IOException {
+    long cells = 0;
+    final Kiji kiji = Kiji.Factory.open(mTableURI, conf);
+    try {
+      final KijiTable table = kiji.openTable(mTableURI.getTable());
+      try {
+        final Map<String, Schema> valueSchemas = Maps.newHashMap();
+        for (Map.Entry<String, ColumnInputSpec> inputEntry : mInputColumns.entrySet()) {
+          valueSchemas.put(inputEntry.getKey(),
+              getValueSchema(table.getLayout(), inputEntry.getValue().columnName()));
+        }
+        final KijiTableReader reader = table.openTableReader();
+        try {
+          final KijiRowScanner scanner =
+              reader.getScanner(ColumnRequests.build(mInputColumns, mTimeRange));
+          try {
+            for (KijiRowData row : scanner) {
+              for (Map.Entry<String, ColumnInputSpec> inputEntry : mInputColumns.entrySet()) {
+                final String field = inputEntry.getKey();
+                cells += exportColumn(writers, row, field, inputEntry.getValue().columnName(),
+                    valueSchemas.get(field));
+              }
+            }
+          } finally {
+            ResourceUtils.closeOrLog(scanner);
+          }
+        } finally {
+          ResourceUtils.closeOrLog(reader);
+        }
+      } finally {
+        ResourceUtils.releaseOrLog(table);
+      }
+    } finally {
+      ResourceUtils.releaseOrLog(kiji);
+    }
+    return cells;
+  }
+
+  /**
+   * Get the schema of the values the table reader decodes from the given column: the reader
+   * schema of the column in the layout, or the union of the reader schemas of every column of a
+   * group family.
+   *
+   * @param layout layout of the exported table.
+   * @param column name of the exported column.
+   * @return the schema of the values decoded from the given column, or null if the column does
+   *     not hold Avro values, in which case the schema is inferred from the first value written.
+   * @throws IOException in case the column does not exist in the layout.
+   */
+  private static Schema getValueSchema(
+      final KijiTableLayout layout,
+      final KijiColumnName column
+  ) throws IOException {
+    final FamilyLayout family = layout.getFamilyMap().get(column.getFamily());
+    Preconditions.checkArgument(null != family,
+        "Column: %s does not exist in the table layout.", column);
+    if (column.isFullyQualified() || family.isMapType()) {
+      return getCellSchema(layout.getCellSpec(column));
+    }
+    final List<Schema> branches = Lists.newArrayList();
+    for (ColumnLayout qualifier : family.getColumns()) {
+      final Schema schema = getCellSchema(
+          layout.getCellSpec(new KijiColumnName(column.getFamily(), qualifier.getName())));
+      if (null == schema) {
+        return null;
+      } else if (!branches.contains(schema)) {
+        branches.add(schema);
+      }
+    }
+    return (1 == branches.size()) ? branches.get(0) : Schema.createUnion(branches);
+  }
+
+  /**
+   * Get the schema of the values decoded from cells of the given spec.
+   *
+   * @param cellSpec spec of the cells.
+   * @return the schema of the decoded values, or null if the cells do not hold Avro values.
+   */
+  private static Schema getCellSchema(
+      final CellSpec cellSpec
+  ) {
+    return cellSpec.isCounter() ? Schema.create(Schema.Type.LONG) : cellSpec.getAvroSchema();
+  }
+
+  /**
+   * Write the cells of one input column of the given row.
+   *
+   * @param writers column file writers.
+   * @param row row from which to export.
+   * @param field name of the input field of the column.
+   * @param column name of the column to export.
+   * @param valueSchema schema of the values of the column, or null to infer it.
+   * @return the number of cells written.
+   * @throws IOException in case of an error writing a column file.
+   */
+  private long exportColumn(
+      final ColumnFileWriters writers,
+      final KijiRowData row,
+      final String field,
+      final KijiColumnName column,
+      final Schema valueSchema
+  ) throws IOException {
+    final EntityId entityId = row.getEntityId();
+    long cells = 0;
+    if (column.isFullyQualified()) {
+      if (row.containsColumn(column.getFamily(), column.getQualifier())) {
+        final NavigableMap<Long, Object> values =
+            row.getValues(column.getFamily(), column.getQualifier());
+        cells += writeCells(
+            writers, field, column, valueSchema, entityId, column.getQualifier(), values);
+      }
+    } else {
+      final NavigableMap<String, NavigableMap<Long, Object>> qualifiers =
+          row.getValues(column.getFamily());
+      for (Map.Entry<String, NavigableMap<Long, Object>> qualifier : qualifiers.entrySet()) {
+        cells += writeCells(writers, field, column, valueSchema,
+            entityId, qualifier.getKey(), qualifier.getValue());
+      }
+    }
+    return cells;
+  }
+
+  /**
+   * Write the given versions of one Kiji cell to the column files of their partitions.
+   *
+   * @param writers column file writers.
+   * @param field name of the input field of the column.
+   * @param column name of the exported column.
+   * @param valueSchema schema of the values of the column, or null to infer it.
+   * @param entityId entity ID of the row.
+   * @param qualifier qualifier of the cell.
+   * @param values versions of the cell keyed by timestamp.
+   * @return the number of cells written.
+   * @throws IOException in case of an error writing a column file.
+   */
+  private long writeCells(
+      final ColumnFileWriters writers,
+      final String field,
+      final KijiColumnName column,
+      final Schema valueSchema,
+      final EntityId entityId,
+      final String qualifier,
+      final NavigableMap<Long, Object> values
+  ) throws IOException {
+    final ByteBuffer rowKey = ByteBuffer.wrap(entityId.getHBaseRowKey());
+    for (Map.Entry<Long, Object> version : values.entrySet()) {
+      final long timestamp = version.getKey();
+      final long partition = timestamp - (((timestamp % mPartitionMillis) + mPartitionMillis)
+          % mPartitionMillis);
+      writers.get(partition, field, column, valueSchema, getCodec(field))
+          .write(rowKey, qualifier, timestamp, version.getValue());
+    }
+    return values.size();
+  }
+
+  /**
+   * Get the codec with which to compress the column of the given field.
+   *
+   * @param field name of the input field.
+   * @return the codec with which to compress the column of the given field.
+   */
+  private CodecFactory getCodec(
+      final String field
+  ) {
+    final CodecFactory codec = mColumnCodecs.get(field);
+    if (null != codec) {
+      return codec;
+    } else if (null != mDefaultCodec) {
+      return mDefaultCodec;
+    } else {
+      return CodecFactory.deflateCodec(CodecFactory.DEFAULT_DEFLATE_LEVEL);
+    }
+  }
+
+  /**
+   * Column file writers keyed by partition and field, of which at most a bounded number are open
+   * at once. Tracks the statistics of every partition and field across all of its parts.
+   */
+  private final class ColumnFileWriters {
+    private final FileSystem mFs;
+    private final int mMaxOpenFiles;
+    private final Map<String, ColumnStats> mStats = Maps.newLinkedHashMap();
+    /** Open writers in least recently written order. */
+    private final Map<String, ColumnFileWriter> mOpenWriters =
+        new LinkedHashMap<String, ColumnFileWriter>(16, 0.75f, true);
+    private int mFileCount = 0;
+
+    /**
+     * Create a new set of column file writers.
+     *
+     * @param fs filesystem of the output path.
+     * @param maxOpenFiles maximum number of column files open at once.
+     */
+    private ColumnFileWriters(
+        final FileSystem fs,
+        final int maxOpenFiles
+    ) {
+      mFs = fs;
+      mMaxOpenFiles = maxOpenFiles;
+    }
+
+    /**
+     * Get the open writer of the given partition and field, creating a new part if it has none,
+     * and closing the least recently written writer if too many are open.
+     *
+     * @param partition start of the partition in milliseconds.
+     * @param field name of the input field.
+     * @param column name of the exported column.
+     * @param valueSchema schema of the values of the column, or null to infer it.
+     * @param codec compression codec of the column file.
+     * @return the open writer of the given partition and field.
+     * @throws IOException in case of an error closing another writer.
+     */
+    private ColumnFileWriter get(
+        final long partition,
+        final String field,
+        final KijiColumnName column,
+        final Schema valueSchema,
+        final CodecFactory codec
+    ) throws IOException {
+      final String key = partition + "/" + field;
+      ColumnFileWriter writer = mOpenWriters.get(key);
+      if (null == writer) {
+        ColumnStats stats = mStats.get(key);
+        if (null == stats) {
+          stats = new ColumnStats(new Path(mOutputPath, "partition=" + partition), field, column,
+              codec);
+          mStats.put(key, stats);
+        }
+        if (mOpenWriters.size() >= mMaxOpenFiles) {
+          final Iterator<ColumnFileWriter> eldest = mOpenWriters.values().iterator();
+          final ColumnFileWriter evicted = eldest.next();
+          eldest.remove();
+          evicted.close();
+        }
+        writer = new ColumnFileWriter(mFs, stats, valueSchema, codec);
+        mOpenWriters.put(key, writer);
+        mFileCount++;
+      }
+      return writer;
+    }
+
+    /**
+     * Close every open writer, then report the first error.
+     *
+     * @throws IOException in case of an error closing a writer.
+     */
+    private void closeAll() throws IOException {
+      IOException error = null;
+      for (ColumnFileWriter writer : mOpenWriters.values()) {
+        try {
+          writer.close();
+        } catch (IOException ioe) {
+          // Close the remaining writers before reporting the first error.
+          error = (null == error) ? ioe : error;
+        }
+      }
+      mOpenWriters.clear();
+      if (null != error) {
+        throw error;
+      }
+    }
+
+    /** Close every open writer, logging any errors. */
+    private void closeAllOrLog() {
+      try {
+        closeAll();
+      } catch (IOException ioe) {
+        LOG.warn("Unable to close column file: {}", ioe.getMessage());
+      }
+    }
+
+    /**
+     * Write the statistics file of every partition and field.
+     *
+     * @throws IOException in case of an error writing a statistics file.
+     */
+    private void writeStats() throws IOException {
+      for (ColumnStats stats : mStats.values()) {
+        stats.write(mFs);
+      }
+    }
+
+    /**
+     * Get the number of column files written.
+     *
+     * @return the number of column files written.
+     */
+    private int getFileCount() {
+      return mFileCount;
+    }
+  }
+
+  /** Statistics of the cells of one field in one partition, across all parts of the field. */
+  private static final class ColumnStats {
+    private final Path mPartitionPath;
+    private final String mField;
+    private final KijiColumnName mColumn;
+    private final CodecFactory mCodec;
+    private int mParts = 0;
+    private long mCellCount = 0;
+    private long mMinTimestamp = Long.MAX_VALUE;
+    private long mMaxTimestamp = Long.MIN_VALUE;
+    private Object mMinValue = null;
+    private Object mMaxValue = null;
+
+    /**
+     * Create new empty statistics.
+     *
+     * @param partitionPath directory of the partition.
+     * @param field name of the input field.
+     * @param column name of the exported column.
+     * @param codec compression codec of the column files.
+     */
+    private ColumnStats(
+        final Path partitionPath,
+        final String field,
+        final KijiColumnName column,
+        final CodecFactory codec
+    ) {
+      mPartitionPath = partitionPath;
+      mField = field;
+      mColumn = column;
+      mCodec = codec;
+    }
+
+    /**
+     * Get the path of the next part of the column file.
+     *
+     * @return the path of the next part of the column file.
+     */
+    private Path nextPart() {
+      return new Path(mPartitionPath, String.format("%s-%05d.avro", mField, mParts++));
+    }
+
+    /**
+     * Record one cell version.
+     *
+     * @param timestamp timestamp of the cell.
+     * @param value decoded value of the cell.
+     * @param valueSchema schema of the value.
+     */
+    private void update(
+        final long timestamp,
+        final Object value,
+        final Schema valueSchema
+    ) {
+      mCellCount++;
+      mMinTimestamp = Math.min(mMinTimestamp, timestamp);
+      mMaxTimestamp = Math.max(mMaxTimestamp, timestamp);
+      final Schema ordered = getOrderedPrimitive(valueSchema);
+      if (null != value && null != ordered) {
+        if (null == mMinValue || GenericData.get().compare(value, mMinValue, ordered) < 0) {
+          mMinValue = value;
+        }
+        if (null == mMaxValue || GenericData.get().compare(value, mMaxValue, ordered) > 0) {
+          mMaxValue = value;
+        }
+      }
+    }
+
+    /**
+     * Write the statistics file.
+     *
+     * @param fs filesystem of the output path.
+     * @throws IOException in case of an error writing the statistics file.
+     */
+    private void write(
+        final FileSystem fs
+    ) throws IOException {
+      final GenericRecord stats = new GenericData.Record(STATS_SCHEMA);
+      stats.put("field", mField);
+      stats.put("column", mColumn.getName());
+      stats.put("codec", mCodec.toString());
+      stats.put("cell_count", mCellCount);
+      stats.put("min_timestamp", mMinTimestamp);
+      stats.put("max_timestamp", mMaxTimestamp);
+      stats.put("min_value", (null == mMinValue) ? null : mMinValue.toString());
+      stats.put("max_value", (null == mMaxValue) ? null : mMaxValue.toString());
+      final OutputStream statsStream =
+          fs.create(new Path(mPartitionPath, mField + ".stats.json"));
+      try {
+        statsStream.write(GenericData.get().toString(stats).getBytes(Charsets.UTF_8));
+      } finally {
+        statsStream.close();
+      }
+    }
+
+    /**
+     * Get the schema of the values of the given schema which have a meaningful total order for
+     * min/max statistics: the schema itself if it is such a primitive, or the single non-null
+     * branch of a nullable union of such a primitive.
+     *
+     * @param schema schema of the values.
+     * @return the ordered primitive schema of the values, or null if they have no such order.
+     */
+    private static Schema getOrderedPrimitive(
+        final Schema schema
+    ) {
+      switch (schema.getType()) {
+        case INT:
+        case LONG:
+        case FLOAT:
+        case DOUBLE:
+        case STRING:
+        case BOOLEAN:
+          return schema;
+        case UNION:
+          final List<Schema> branches = schema.getTypes();
+          if (2 == branches.size() && Schema.Type.NULL == branches.get(0).getType()) {
+            return getOrderedPrimitive(branches.get(1));
+          } else if (2 == branches.size() && Schema.Type.NULL == branches.get(1).getType()) {
+            return getOrderedPrimitive(branches.get(0));
+          }
+          return null;
+        default:
+          return null;
+      }
+    }
+  }
+
+  /** Writer for one part of the column file of one field in one partition. */
+  private static final class ColumnFileWriter {
+    private final FileSystem mFs;
+    private final ColumnStats mStats;
+    private final CodecFactory mCodec;
+    private Schema mValueSchema;
+    private Schema mRecordSchema = null;
+    private DataFileWriter<GenericRecord> mWriter = null;
+
+    /**
+     * Create a new writer. The column file is created lazily on the first write.
+     *
+     * @param fs filesystem of the output path.
+     * @param stats statistics of the field in the partition.
+     * @param valueSchema schema of the values of the column, or null to infer it from the first
+     *     value written.
+     * @param codec compression codec of the column file.
+     */
+    private ColumnFileWriter(
+        final FileSystem fs,
+        final ColumnStats stats,
+        final Schema valueSchema,
+        final CodecFactory codec
+    ) {
+      mFs = fs;
+      mStats = stats;
+      mValueSchema = valueSchema;
+      mCodec = codec;
+    }
+
+    /**
+     * Write one cell version.
+     *
+     * @param rowKey HBase row key of the cell.
+     * @param qualifier qualifier of the cell.
+     * @param timestamp timestamp of the cell.
+     * @param value decoded value of the cell.
+     * @throws IOException in case of an error writing the column file.
+     */
+    private void write(
+        final ByteBuffer rowKey,
+        final String qualifier,
+        final long timestamp,
+        final Object value
+    ) throws IOException {
+      if (null == mWriter) {
+        open((null == mValueSchema) ? GenericData.get().induce(value) : mValueSchema);
+      }
+      final GenericRecord record = new GenericData.Record(mRecordSchema);
+      record.put("entity_id", rowKey);
+      record.put("qualifier", qualifier);
+      record.put("timestamp", timestamp);
+      record.put("value", value);
+      mWriter.append(record);
+      mStats.update(timestamp, value, mValueSchema);
+    }
+
+    /**
+     * Create the next part of the column file with records holding values of the given schema.
+     *
+     * @param valueSchema schema of the values of the column.
+     * @throws IOException in case of an error creating the column file.
+     */
+    private void open(
+        final Schema valueSchema
+    ) throws IOException {
+      mValueSchema = valueSchema;
+      mRecordSchema = Schema.createRecord("ColumnarExportCell", null, "org.kiji.express.flow",
+          false);
+      mRecordSchema.setFields(Arrays.asList(
+          new Schema.Field("entity_id", Schema.create(Schema.Type.BYTES), null, null),
+          new Schema.Field("qualifier", Schema.create(Schema.Type.STRING), null, null),
+          new Schema.Field("timestamp", Schema.create(Schema.Type.LONG), null, null),
+          new Schema.Field("value", valueSchema, null, null)));
+      mWriter = new DataFileWriter<GenericRecord>(new GenericDatumWriter<GenericRecord>())
+          .setCodec(mCodec)
+          .create(mRecordSchema, mFs.create(mStats.nextPart()));
+    }
+
+    /**
+     * Close the column file.
+     *
+     * @throws IOException in case of an error closing the column file.
+     */
+    private void close() throws IOException {
+      if (null != mWriter) {
+        mWriter.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,139 @@
+package org.kiji.express.flow;
+
+import java.io.IOException;
+import java.util.Map;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+import org.kiji.annotations.ApiAudience;
+import org.kiji.schema.EntityId;
+import org.kiji.schema.KijiTableWriter;
+
+/**
+ * Bounded buffer which sums the increments written to each counter cell, so that many increments
+ * of the same cell are sent to the table as one atomic increment. The buffer reports when it holds
+ * its maximum number of distinct cells, at which point it should be flushed.
+ *
+ * <p>
+ *   Increments are not idempotent: increments flushed by a task attempt which later fails are
+ *   applied again by the retried attempt.
+ * </p>
+ */
+@ApiAudience.Private
+final class CounterBuffer {
+
+  /** Counter cell of a row. */
+  private static final class CounterKey {
+    private final EntityId mEntityId;
+    private final String mFamily;
+    private final String mQualifier;
+
+    /**
+     * Create a new CounterKey.
+     *
+     * @param entityId entity ID of the row.
+     * @param family family of the counter.
+     * @param qualifier qualifier of the counter.
+     */
+    private CounterKey(
+        final EntityId entityId,
+        final String family,
+        final String qualifier
+    ) {
+      mEntityId = entityId;
+      mFamily = family;
+      mQualifier = qualifier;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean equals(
+        final Object other
+    ) {
+      if (!(other instanceof CounterKey)) {
+        return false;
+      }
+      final CounterKey that = (CounterKey) other;
+      return mEntityId.equals(that.mEntityId)
+          && mFamily.equals(that.mFamily)
+          && mQualifier.equals(that.mQualifier);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(mEntityId, mFamily, mQualifier);
+    }
+  }
+
+  private final int mMaxCounters;
+  private final Map<CounterKey, long[]> mIncrements = Maps.newHashMap();
+
+  /**
+   * Create a new CounterBuffer.
+   *
+   * @param maxCounters maximum number of distinct counter cells to buffer.
+   */
+  CounterBuffer(
+      final int maxCounters
+  ) {
+    Preconditions.checkArgument(maxCounters > 0,
+        "Maximum buffered counters must be strictly positive, but got: %d", maxCounters);
+    mMaxCounters = maxCounters;
+  }
+
+  /**
+   * Add an increment of a counter cell to the buffer.
+   *
+   * @param entityId entity ID of the row.
+   * @param family family of the counter.
+   * @param qualifier qualifier of the counter.
+   * @param amount amount by which to increment the counter.
+   * @return whether the buffer is full and should be flushed.
+   */
+  boolean add(
+      final EntityId entityId,
+      final String family,
+      final String qualifier,
+      final long amount
+  ) {
+    final CounterKey key = new CounterKey(entityId, family, qualifier);
+    final long[] total = mIncrements.get(key);
+    if (null == total) {
+      mIncrements.put(key, new long[] {amount});
+    } else {
+      total[0] += amount;
+    }
+    return mIncrements.size() >= mMaxCounters;
+  }
+
+  /**
+   * Send the summed increment of every buffered counter cell and empty the buffer.
+   *
+   * @param writer writer to the table of the counters.
+   * @throws IOException in case of an error incrementing a counter.
+   */
+  void flush(
+      final KijiTableWriter writer
+  ) throws IOException {
+    for (Map.Entry<CounterKey, long[]> increment : mIncrements.entrySet()) {
+      final CounterKey key = increment.getKey();
+      final long amount = increment.getValue()[0];
+      if (0 != amount) {
+        writer.increment(key.mEntityId, key.mFamily, key.mQualifier, amount);
+      }
+    }
+    mIncrements.clear();
+  }
+
+  /**
+   * Get the number of distinct counter cells in the buffer.
+   *
+   * @return the number of distinct counter cells in the buffer.
+   */
+  int size() {
+    return mIncrements.size();
+  }
+}
@@ -0,0 +1,427 @@
+package org.kiji.express.flow;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import org.kiji.annotations.ApiAudience;
+import org.kiji.annotations.ApiStability;
+import org.kiji.schema.Kiji;
+import org.kiji.schema.KijiRegion;
+import org.kiji.schema.KijiTable;
+import org.kiji.schema.KijiURI;
+import org.kiji.schema.util.ResourceUtils;
+
+/**
+ * Shared queue of small row key ranges, or chunks, from which scan tasks pull work until the
+ * queue is exhausted. Dividing each region into many chunks lets fast tasks take over the work of
+ * slow ones, so that a few large regions do not leave the rest of a job idle. Salted scans publish
+ * their chunks with {@link SaltedScan#publishScans(Path, int, Configuration)} and read them with
+ * {@link SaltedScan#open(Configuration, DynamicSplits, String, long)}.
+ *
+ * <p>
+ *   The queue is a directory on a Hadoop filesystem. {@link #publish(Path, List, Configuration)}
+ *   writes one file per chunk into its {@code pending} subdirectory. Every transition of a chunk
+ *   is a rename, which is atomic on HDFS, so exactly one caller succeeds in each transition:
+ * </p>
+ * <ul>
+ *   <li>{@link #claim(String, long)} renames a pending chunk into the {@code claimed}
+ *     subdirectory, under a name holding the ID of the claiming task attempt and the expiry time
+ *     of its lease.</li>
+ *   <li>{@link #renew(Claim, long)} renames a claim to extend its lease.</li>
+ *   <li>{@link #complete(Claim)} renames a claim into the {@code done} subdirectory once every
+ *     row of the chunk has been processed.</li>
+ *   <li>{@link #requeueExpired()} renames claims whose lease expired, such as those of failed
+ *     attempts, back into the {@code pending} subdirectory.</li>
+ * </ul>
+ * <p>
+ *   An attempt whose lease expired loses its claim: renewing or completing it fails, and the chunk
+ *   may be processed again by another attempt, so processing a chunk must be idempotent. Leases
+ *   are compared against the local clock of each task, so they should be much longer than the
+ *   clock skew between hosts.
+ * </p>
+ */
+@ApiAudience.Public
+@ApiStability.Experimental
+public final class DynamicSplits {
+  private static final String PENDING_DIRECTORY = "pending";
+  private static final String CLAIMED_DIRECTORY = "claimed";
+  private static final String DONE_DIRECTORY = "done";
+  private static final String CLAIM_SEPARATOR = "@";
+
+  /** A chunk claimed by a task attempt, valid until its lease expires. */
+  @ApiAudience.Public
+  @ApiStability.Experimental
+  public static final class Claim {
+    private final RowKeyRange mRange;
+    private final String mChunk;
+    private final String mAttemptId;
+    private final long mExpiryMillis;
+
+    /**
+     * Create a new claim.
+     *
+     * @param range row key range of the chunk.
+     * @param chunk name of the chunk in the queue.
+     * @param attemptId ID of the task attempt holding the claim.
+     * @param expiryMillis time at which the lease of the claim expires.
+     */
+    private Claim(
+        final RowKeyRange range,
+        final String chunk,
+        final String attemptId,
+        final long expiryMillis
+    ) {
+      mRange = range;
+      mChunk = chunk;
+      mAttemptId = attemptId;
+      mExpiryMillis = expiryMillis;
+    }
+
+    /**
+     * Get the row key range of the claimed chunk.
+     *
+     * @return the row key range of the claimed chunk.
+     */
+    public RowKeyRange getRange() {
+      return mRange;
+    }
+
+    /**
+     * Get the ID of the task attempt holding this claim.
+     *
+     * @return the ID of the task attempt holding this claim.
+     */
+    public String getAttemptId() {
+      return mAttemptId;
+    }
+
+    /**
+     * Get the time in milliseconds since the epoch at which the lease of this claim expires.
+     *
+     * @return the time at which the lease of this claim expires.
+     */
+    public long getExpiryMillis() {
+      return mExpiryMillis;
+    }
+
+    /**
+     * Get the name of the file of this claim in the claimed subdirectory.
+     *
+     * @return the name of the file of this claim.
+     */
+    private String getFileName() {
+      return getClaimFileName(mChunk, mAttemptId, mExpiryMillis);
+    }
+  }
+
+  /**
+   * Divide every region of a table into chunks.
+   *
+   * @param tableURI KijiURI of the table to divide.
+   * @param chunksPerRegion maximum number of chunks into which to divide each region.
+   * @param conf Hadoop configuration used to open the table.
+   * @return chunks covering the whole table, in row key order.
+   * @throws IOException in case of an error reading the regions of the table.
+   */
+  public static List<RowKeyRange> plan(
+      final KijiURI tableURI,
+      final int chunksPerRegion,
+      final Configuration conf
+  ) throws IOException {
+    Preconditions.checkNotNull(tableURI, "Table URI may not be null.");
+    Preconditions.checkArgument(chunksPerRegion > 0,
+        "Chunks per region must be strictly positive, but got: %d", chunksPerRegion);
+    final List<RowKeyRange> chunks = Lists.newArrayList();
+    final Kiji kiji = Kiji.Factory.open(tableURI, conf);
+    try {
+      final KijiTable table = kiji.openTable(tableURI.getTable());
+      try {
+        for (KijiRegion region : table.getRegions()) {
+          chunks.addAll(
+              RowKeyRange.of(region.getStartKey(), region.getEndKey()).split(chunksPerRegion));
+        }
+      } finally {
+        ResourceUtils.releaseOrLog(table);
+      }
+    } finally {
+      ResourceUtils.releaseOrLog(kiji);
+    }
+    return chunks;
+  }
+
+  /**
+   * Write a new queue of chunks into the given directory, which must not already exist.
+   *
+   * @param directory directory in which to create the queue.
+   * @param chunks chunks to enqueue.
+   * @param conf Hadoop configuration used to access the directory.
+   * @return the new queue.
+   * @throws IOException in case of an error writing the queue.
+   */
+  public static DynamicSplits publish(
+      final Path directory,
+      final List<RowKeyRange> chunks,
+      final Configuration conf
+  ) throws IOException {
+    Preconditions.checkNotNull(chunks, "Chunks may not be null.");
+    final DynamicSplits queue = new DynamicSplits(directory, conf);
+    if (queue.mFs.exists(directory)) {
+      throw new IOException("Dynamic split directory already exists: " + directory);
+    }
+    queue.mFs.mkdirs(queue.mPending);
+    queue.mFs.mkdirs(queue.mClaimed);
+    queue.mFs.mkdirs(queue.mDone);
+    for (int index = 0; index < chunks.size(); index++) {
+      final FSDataOutputStream output =
+          queue.mFs.create(new Path(queue.mPending, String.format("chunk-%06d", index)), false);
+      try {
+        final RowKeyRange chunk = chunks.get(index);
+        writeKey(output, chunk.getStartKey());
+        writeKey(output, chunk.getEndKey());
+      } finally {
+        output.close();
+      }
+    }
+    return queue;
+  }
+
+  /**
+   * Open an existing queue of chunks.
+   *
+   * @param directory directory containing the queue.
+   * @param conf Hadoop configuration used to access the directory.
+   * @return the queue in the given directory.
+   * @throws IOException in case of an error accessing the filesystem.
+   */
+  public static DynamicSplits open(
+      final Path directory,
+      final Configuration conf
+  ) throws IOException {
+    return new DynamicSplits(directory, conf);
+  }
+
+  private final FileSystem mFs;
+  private final Path mPending;
+  private final Path mClaimed;
+  private final Path mDone;
+  private final Random mRandom = new Random();
+
+  /**
+   * Private constructor, use {@link #publish(Path, List, Configuration)} or
+   * {@link #open(Path, Configuration)}.
+   *
+   * @param directory directory containing the queue.
+   * @param conf Hadoop configuration used to access the directory.
+   * @throws IOException in case of an error accessing the filesystem.
+   */
+  private DynamicSplits(
+      final Path directory,
+      final Configuration conf
+  ) throws IOException {
+    Preconditions.checkNotNull(directory, "Dynamic split directory may not be null.");
+    mFs = directory.getFileSystem(conf);
+    mPending = new Path(directory, PENDING_DIRECTORY);
+    mClaimed = new Path(directory, CLAIMED_DIRECTORY);
+    mDone = new Path(directory, DONE_DIRECTORY);
+  }
+
+  /**
+   * Claim the next pending chunk for the given task attempt. Claimers visit pending chunks in a
+   * random order, so concurrent tasks rarely contend for the same chunk. When no chunk is pending,
+   * expired claims are requeued first.
+   *
+   * @param attemptId ID of the claiming task attempt.
+   * @param leaseMillis duration of the lease of the claim, in milliseconds.
+   * @return the claim, or null if no chunk is pending. Chunks claimed by other attempts may still
+   *     be requeued later if their leases expire; see {@link #isExhausted()}.
+   * @throws IOException in case of an error accessing the queue.
+   */
+  public Claim claim(
+      final String attemptId,
+      final long leaseMillis
+  ) throws IOException {
+    Preconditions.checkArgument(null != attemptId && !attemptId.contains(CLAIM_SEPARATOR),
+        "Attempt ID must be non-null and may not contain '%s', got: %s",
+        CLAIM_SEPARATOR, attemptId);
+    Preconditions.checkArgument(leaseMillis > 0,
+        "Lease must be strictly positive, but got: %d", leaseMillis);
+    boolean requeued = false;
+    while (true) {
+      final FileStatus[] statuses = mFs.listStatus(mPending);
+      if (null == statuses || statuses.length == 0) {
+        if (requeued || 0 == requeueExpired()) {
+          return null;
+        }
+        requeued = true;
+        continue;
+      }
+      final List<FileStatus> pending = Lists.newArrayList(Arrays.asList(statuses));
+      Collections.shuffle(pending, mRandom);
+      for (FileStatus status : pending) {
+        final String chunk = status.getPath().getName();
+        final long expiryMillis = System.currentTimeMillis() + leaseMillis;
+        final Path claimed =
+            new Path(mClaimed, getClaimFileName(chunk, attemptId, expiryMillis));
+        if (mFs.rename(status.getPath(), claimed)) {
+          return new Claim(readChunk(claimed), chunk, attemptId, expiryMillis);
+        }
+      }
+      // Every listed chunk was claimed by another task; list again to pick up any stragglers.
+    }
+  }
+
+  /**
+   * Extend the lease of a claim.
+   *
+   * @param claim claim to renew.
+   * @param leaseMillis duration of the new lease from now, in milliseconds.
+   * @return the renewed claim, or null if the lease had expired and the claim was lost.
+   * @throws IOException in case of an error accessing the queue.
+   */
+  public Claim renew(
+      final Claim claim,
+      final long leaseMillis
+  ) throws IOException {
+    Preconditions.checkNotNull(claim, "Claim may not be null.");
+    Preconditions.checkArgument(leaseMillis > 0,
+        "Lease must be strictly positive, but got: %d", leaseMillis);
+    final long expiryMillis = System.currentTimeMillis() + leaseMillis;
+    final Path renewed =
+        new Path(mClaimed, getClaimFileName(claim.mChunk, claim.mAttemptId, expiryMillis));
+    if (!mFs.rename(new Path(mClaimed, claim.getFileName()), renewed)) {
+      return null;
+    }
+    return new Claim(claim.mRange, claim.mChunk, claim.mAttemptId, expiryMillis);
+  }
+
+  /**
+   * Mark a claimed chunk as done, so that it is never processed again.
+   *
+   * @param claim claim of the processed chunk.
+   * @return whether the chunk was marked as done. False if the lease had expired and the claim was
+   *     lost, in which case the chunk may be processed again by another attempt.
+   * @throws IOException in case of an error accessing the queue.
+   */
+  public boolean complete(
+      final Claim claim
+  ) throws IOException {
+    Preconditions.checkNotNull(claim, "Claim may not be null.");
+    return mFs.rename(new Path(mClaimed, claim.getFileName()), new Path(mDone, claim.mChunk));
+  }
+
+  /**
+   * Return every claim whose lease has expired to the pending chunks.
+   *
+   * @return the number of chunks requeued.
+   * @throws IOException in case of an error accessing the queue.
+   */
+  public int requeueExpired() throws IOException {
+    final FileStatus[] statuses = mFs.listStatus(mClaimed);
+    if (null == statuses) {
+      return 0;
+    }
+    final long now = System.currentTimeMillis();
+    int requeued = 0;
+    for (FileStatus status : statuses) {
+      final String[] parts = status.getPath().getName().split(CLAIM_SEPARATOR);
+      if (parts.length != 3 || Long.parseLong(parts[2]) > now) {
+        continue;
+      }
+      // Fails if the owner renewed or completed the claim in the meantime.
+      if (mFs.rename(status.getPath(), new Path(mPending, parts[0]))) {
+        requeued++;
+      }
+    }
+    return requeued;
+  }
+
+  /**
+   * Whether every chunk of the queue is done.
+   *
+   * @return whether no chunk is pending or claimed.
+   * @throws IOException in case of an error accessing the queue.
+   */
+  public boolean isExhausted() throws IOException {
+    final FileStatus[] pending = mFs.listStatus(mPending);
+    final FileStatus[] claimed = mFs.listStatus(mClaimed);
+    return (null == pending || pending.length == 0) && (null == claimed || claimed.length == 0);
+  }
+
+  /**
+   * Get the name of the file of a claim.
+   *
+   * @param chunk name of the claimed chunk.
+   * @param attemptId ID of the task attempt holding the claim.
+   * @param expiryMillis time at which the lease of the claim expires.
+   * @return the name of the file of the claim.
+   */
+  private static String getClaimFileName(
+      final String chunk,
+      final String attemptId,
+      final long expiryMillis
+  ) {
+    return chunk + CLAIM_SEPARATOR + attemptId + CLAIM_SEPARATOR + expiryMillis;
+  }
+
+  /**
+   * Read a chunk from its file.
+   *
+   * @param path file containing the chunk.
+   * @return the chunk stored in the given file.
+   * @throws IOException in case of an error reading the file.
+   */
+  private RowKeyRange readChunk(
+      final Path path
+  ) throws IOException {
+    final FSDataInputStream input = mFs.open(path);
+    try {
+      final byte[] startKey = readKey(input);
+      final byte[] endKey = readKey(input);
+      return RowKeyRange.of(startKey, endKey);
+    } finally {
+      input.close();
+    }
+  }
+
+  /**
+   * Write a length-prefixed row key.
+   *
+   * @param output stream to which to write.
+   * @param key row key to write.
+   * @throws IOException in case of an error writing the key.
+   */
+  private static void writeKey(
+      final FSDataOutputStream output,
+      final byte[] key
+  ) throws IOException {
+    output.writeInt(key.length);
+    output.write(key);
+  }
+
+  /**
+   * Read a length-prefixed row key.
+   *
+   * @param input stream from which to read.
+   * @return the row key read.
+   * @throws IOException in case of an error reading the key.
+   */
+  private static byte[] readKey(
+      final FSDataInputStream input
+  ) throws IOException {
+    final byte[] key = new byte[input.readInt()];
+    input.readFully(key);
+    return key;
+  }
+}
@@ -0,0 +1,233 @@
+package org.kiji.express.flow;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.List;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+import com.google.common.primitives.Longs;
+import org.apache.hadoop.util.bloom.BloomFilter;
+import org.apache.hadoop.util.bloom.Key;
+import org.apache.hadoop.util.hash.Hash;
+import scala.collection.JavaConversions;
+
+import org.kiji.annotations.ApiAudience;
+import org.kiji.annotations.ApiStability;
+
+/**
+ * Bloom filter over Kiji entity IDs, used to prune rows read by a tap to those which may join with
+ * a set of keys. See {@link TapBuilder#withEntityIdBloomFilter(EntityIdBloomFilter)} and
+ * {@link EntityIdBloomFilterAssembly}.
+ *
+ * <p>
+ *   Keys are the components of an entity ID, so a filter built from the fields of another
+ *   dataset matches the Kiji rows whose entity ID components have the same values. Components may
+ *   be Strings, integral numbers or byte arrays. Integral components match by value regardless of
+ *   their boxed type, so an Integer component matches a Long component with the same value.
+ * </p>
+ */
+@ApiAudience.Public
+@ApiStability.Experimental
+public final class EntityIdBloomFilter implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Type tags written before each entity ID component in a key. Every integral type shares one
+   * tag and encoding, since an INTEGER or LONG component may be held in either boxed type.
+   */
+  private static final byte STRING_TAG = 1;
+  private static final byte INTEGRAL_TAG = 2;
+  private static final byte BYTES_TAG = 4;
+
+  /**
+   * Create a new empty filter sized for the given number of keys and false positive rate.
+   *
+   * @param expectedKeys number of distinct keys expected to be added to the filter.
+   * @param falsePositiveRate desired probability that a key not in the filter is accepted.
+   * @return a new empty filter.
+   */
+  public static EntityIdBloomFilter create(
+      final long expectedKeys,
+      final double falsePositiveRate
+  ) {
+    Preconditions.checkArgument(expectedKeys > 0,
+        "Expected number of keys must be strictly positive, but got: %d", expectedKeys);
+    Preconditions.checkArgument(falsePositiveRate > 0.0 && falsePositiveRate < 1.0,
+        "False positive rate must be between 0 and 1, but got: %s", falsePositiveRate);
+    final double ln2 = Math.log(2.0);
+    final long vectorSize =
+        (long) Math.ceil(-expectedKeys * Math.log(falsePositiveRate) / (ln2 * ln2));
+    Preconditions.checkArgument(vectorSize <= Integer.MAX_VALUE,
+        "Bloom filter for %d keys at false positive rate %s is too large.",
+        expectedKeys, falsePositiveRate);
+    final int hashCount = Math.max(1, (int) Math.round((double) vectorSize / expectedKeys * ln2));
+    return new EntityIdBloomFilter(
+        new BloomFilter((int) vectorSize, hashCount, Hash.MURMUR_HASH));
+  }
+
+  /**
+   * Deserialize a filter from the string produced by {@link #serialize()}.
+   *
+   * @param serialized filter serialized by {@link #serialize()}.
+   * @return the deserialized filter.
+   */
+  public static EntityIdBloomFilter deserialize(
+      final String serialized
+  ) {
+    Preconditions.checkNotNull(serialized, "Serialized filter may not be null.");
+    final BloomFilter filter = new BloomFilter();
+    try {
+      filter.readFields(ByteStreams.newDataInput(BaseEncoding.base64().decode(serialized)));
+    } catch (IOException ioe) {
+      throw new IllegalArgumentException("Unable to deserialize entity ID Bloom filter.", ioe);
+    }
+    return new EntityIdBloomFilter(filter);
+  }
+
+  private transient BloomFilter mFilter;
+
+  /**
+   * Private constructor, use {@link #create(long, double)} or {@link #deserialize(String)}.
+   *
+   * @param filter underlying Hadoop Bloom filter.
+   */
+  private EntityIdBloomFilter(
+      final BloomFilter filter
+  ) {
+    mFilter = filter;
+  }
+
+  /**
+   * Add the entity ID with the given components to this filter.
+   *
+   * @param components components of the entity ID.
+   * @return this.
+   */
+  public EntityIdBloomFilter add(
+      final List<?> components
+  ) {
+    mFilter.add(toKey(components));
+    return this;
+  }
+
+  /**
+   * Whether the entity ID with the given components may have been added to this filter.
+   *
+   * @param components components of the entity ID.
+   * @return false if the entity ID was definitely not added, true if it may have been.
+   */
+  public boolean mightContain(
+      final List<?> components
+  ) {
+    return mFilter.membershipTest(toKey(components));
+  }
+
+  /**
+   * Whether the given KijiExpress entity ID may have been added to this filter.
+   *
+   * @param entityId entity ID to test.
+   * @return false if the entity ID was definitely not added, true if it may have been.
+   */
+  public boolean mightContain(
+      final EntityId entityId
+  ) {
+    return mightContain(JavaConversions.seqAsJavaList(entityId.components()));
+  }
+
+  /**
+   * Add every key of the given filter to this filter. Both filters must have been created with
+   * the same expected number of keys and false positive rate.
+   *
+   * @param other filter whose keys to add.
+   * @return this.
+   */
+  public EntityIdBloomFilter merge(
+      final EntityIdBloomFilter other
+  ) {
+    mFilter.or(other.mFilter);
+    return this;
+  }
+
+  /**
+   * Serialize this filter into a string which may be stored in a tuple field or a text file.
+   *
+   * @return this filter serialized into a string.
+   */
+  public String serialize() {
+    final ByteArrayDataOutput output = ByteStreams.newDataOutput();
+    try {
+      mFilter.write(output);
+    } catch (IOException ioe) {
+      throw new IllegalStateException("Unable to serialize entity ID Bloom filter.", ioe);
+    }
+    return BaseEncoding.base64().encode(output.toByteArray());
+  }
+
+  /**
+   * Encode entity ID components into a Bloom filter key.
+   *
+   * @param components components of an entity ID.
+   * @return the Bloom filter key of the given components.
+   */
+  private static Key toKey(
+      final List<?> components
+  ) {
+    Preconditions.checkNotNull(components, "Entity ID components may not be null.");
+    final ByteArrayDataOutput output = ByteStreams.newDataOutput();
+    for (Object component : components) {
+      final byte[] bytes;
+      if (component instanceof CharSequence) {
+        output.writeByte(STRING_TAG);
+        bytes = component.toString().getBytes(Charsets.UTF_8);
+      } else if (component instanceof Integer
+          || component instanceof Long
+          || component instanceof Short
+          || component instanceof Byte) {
+        output.writeByte(INTEGRAL_TAG);
+        bytes = Longs.toByteArray(((Number) component).longValue());
+      } else if (component instanceof byte[]) {
+        output.writeByte(BYTES_TAG);
+        bytes = (byte[]) component;
+      } else {
+        throw new IllegalArgumentException("Unsupported entity ID component: " + component);
+      }
+      output.writeInt(bytes.length);
+      output.write(bytes);
+    }
+    return new Key(output.toByteArray());
+  }
+
+  /**
+   * Java serialization hook which writes the filter in its Hadoop Writable form.
+   *
+   * @param out stream to which to write.
+   * @throws IOException in case of an error writing.
+   */
+  private void writeObject(
+      final ObjectOutputStream out
+  ) throws IOException {
+    out.defaultWriteObject();
+    mFilter.write(out);
+  }
+
+  /**
+   * Java serialization hook which reads the filter from its Hadoop Writable form.
+   *
+   * @param in stream from which to read.
+   * @throws IOException in case of an error reading.
+   * @throws ClassNotFoundException never.
+   */
+  private void readObject(
+      final ObjectInputStream in
+  ) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    mFilter = new BloomFilter();
+    mFilter.readFields(in);
+  }
+}
@@ -0,0 +1,188 @@
+package org.kiji.express.flow;
+
+import java.util.List;
+
+import cascading.flow.FlowProcess;
+import cascading.operation.Aggregator;
+import cascading.operation.AggregatorCall;
+import cascading.operation.BaseOperation;
+import cascading.operation.Function;
+import cascading.operation.FunctionCall;
+import cascading.operation.OperationCall;
+import cascading.pipe.Each;
+import cascading.pipe.Every;
+import cascading.pipe.GroupBy;
+import cascading.pipe.Pipe;
+import cascading.pipe.SubAssembly;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+import org.kiji.annotations.ApiAudience;
+import org.kiji.annotations.ApiStability;
+
+/**
+ * Cascading assembly which builds an {@link EntityIdBloomFilter} from the keys in a pipe.
+ *
+ * <p>
+ *   The given key fields are read as the components of an entity ID. Each map task adds its keys
+ *   to a partial filter and a single reducer merges the partial filters, so the assembly emits
+ *   exactly one tuple with the serialized filter in the field {@link #FILTER_FIELD}. Write the
+ *   tuple to any text sink and pass it to {@link EntityIdBloomFilter#deserialize(String)} when
+ *   configuring the Kiji tap of the semi-join with
+ *   {@link TapBuilder#withEntityIdBloomFilter(EntityIdBloomFilter)}.
+ * </p>
+ */
+@ApiAudience.Public
+@ApiStability.Experimental
+public final class EntityIdBloomFilterAssembly extends SubAssembly {
+  private static final long serialVersionUID = 1L;
+
+  /** Name of the field containing the serialized Bloom filter. */
+  public static final String FILTER_FIELD = "entity_id_bloom_filter";
+
+  /**
+   * Create a new assembly which builds a Bloom filter from the given key fields of a pipe.
+   *
+   * @param keys pipe containing the keys.
+   * @param keyFields fields read, in order, as the components of an entity ID.
+   * @param expectedKeys number of distinct keys expected in the pipe.
+   * @param falsePositiveRate desired false positive rate of the filter.
+   */
+  public EntityIdBloomFilterAssembly(
+      final Pipe keys,
+      final Fields keyFields,
+      final long expectedKeys,
+      final double falsePositiveRate
+  ) {
+    Preconditions.checkNotNull(keys, "Key pipe may not be null.");
+    Preconditions.checkNotNull(keyFields, "Key fields may not be null.");
+    // Validate the sizing eagerly rather than when the flow runs.
+    EntityIdBloomFilter.create(expectedKeys, falsePositiveRate);
+
+    final Fields filterField = new Fields(FILTER_FIELD);
+    Pipe pipe = new Each(keys, keyFields,
+        new AddKeys(filterField, expectedKeys, falsePositiveRate), Fields.RESULTS);
+    pipe = new GroupBy(pipe, Fields.NONE);
+    pipe = new Every(pipe, filterField, new MergeFilters(filterField), Fields.RESULTS);
+    setTails(pipe);
+  }
+
+  /** Function which adds keys to a per-task filter and emits it when the task is flushed. */
+  private static final class AddKeys
+      extends BaseOperation<EntityIdBloomFilter>
+      implements Function<EntityIdBloomFilter> {
+    private static final long serialVersionUID = 1L;
+
+    private final long mExpectedKeys;
+    private final double mFalsePositiveRate;
+
+    /**
+     * Create a new AddKeys function.
+     *
+     * @param filterField field declared for the serialized filter.
+     * @param expectedKeys number of distinct keys expected.
+     * @param falsePositiveRate desired false positive rate of the filter.
+     */
+    private AddKeys(
+        final Fields filterField,
+        final long expectedKeys,
+        final double falsePositiveRate
+    ) {
+      super(filterField);
+      mExpectedKeys = expectedKeys;
+      mFalsePositiveRate = falsePositiveRate;
+    }
+
+    @Override
+    public void prepare(
+        final FlowProcess flowProcess,
+        final OperationCall<EntityIdBloomFilter> operationCall
+    ) {
+      operationCall.setContext(EntityIdBloomFilter.create(mExpectedKeys, mFalsePositiveRate));
+    }
+
+    @Override
+    public void operate(
+        final FlowProcess flowProcess,
+        final FunctionCall<EntityIdBloomFilter> functionCall
+    ) {
+      final Tuple key = functionCall.getArguments().getTuple();
+      final List<Object> components = Lists.newArrayListWithCapacity(key.size());
+      for (int pos = 0; pos < key.size(); pos++) {
+        components.add(key.getObject(pos));
+      }
+      functionCall.getContext().add(components);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void flush(
+        final FlowProcess flowProcess,
+        final OperationCall<EntityIdBloomFilter> operationCall
+    ) {
+      if (null != operationCall.getContext()) {
+        ((FunctionCall<EntityIdBloomFilter>) operationCall).getOutputCollector()
+            .add(new Tuple(operationCall.getContext().serialize()));
+      }
+    }
+
+    @Override
+    public void cleanup(
+        final FlowProcess flowProcess,
+        final OperationCall<EntityIdBloomFilter> operationCall
+    ) {
+      operationCall.setContext(null);
+    }
+  }
+
+  /** Aggregator which merges partial filters into a single filter. */
+  private static final class MergeFilters
+      extends BaseOperation<EntityIdBloomFilter[]>
+      implements Aggregator<EntityIdBloomFilter[]> {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Create a new MergeFilters aggregator.
+     *
+     * @param filterField field declared for the serialized filter.
+     */
+    private MergeFilters(
+        final Fields filterField
+    ) {
+      super(1, filterField);
+    }
+
+    @Override
+    public void start(
+        final FlowProcess flowProcess,
+        final AggregatorCall<EntityIdBloomFilter[]> aggregatorCall
+    ) {
+      aggregatorCall.setContext(new EntityIdBloomFilter[1]);
+    }
+
+    @Override
+    public void aggregate(
+        final FlowProcess flowProcess,
+        final AggregatorCall<EntityIdBloomFilter[]> aggregatorCall
+    ) {
+      final TupleEntry arguments = aggregatorCall.getArguments();
+      final EntityIdBloomFilter partial = EntityIdBloomFilter.deserialize(arguments.getString(0));
+      final EntityIdBloomFilter[] merged = aggregatorCall.getContext();
+      merged[0] = (null == merged[0]) ? partial : merged[0].merge(partial);
+    }
+
+    @Override
+    public void complete(
+        final FlowProcess flowProcess,
+        final AggregatorCall<EntityIdBloomFilter[]> aggregatorCall
+    ) {
+      final EntityIdBloomFilter merged = aggregatorCall.getContext()[0];
+      if (null != merged) {
+        aggregatorCall.getOutputCollector().add(new Tuple(merged.serialize()));
+      }
+    }
+  }
+}
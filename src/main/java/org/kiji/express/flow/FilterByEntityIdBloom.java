@@ -0,0 +1,42 @@
+package org.kiji.express.flow;
+
+import cascading.flow.FlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Filter;
+import cascading.operation.FilterCall;
+import com.google.common.base.Preconditions;
+
+import org.kiji.annotations.ApiAudience;
+
+/**
+ * Cascading filter which removes tuples whose entity ID is definitely not in an
+ * {@link EntityIdBloomFilter}. Expects a single argument containing a KijiExpress entity ID.
+ */
+@ApiAudience.Private
+final class FilterByEntityIdBloom extends BaseOperation<Void> implements Filter<Void> {
+  private static final long serialVersionUID = 1L;
+
+  private final EntityIdBloomFilter mBloomFilter;
+
+  /**
+   * Create a new FilterByEntityIdBloom filter.
+   *
+   * @param bloomFilter Bloom filter of the entity IDs to keep.
+   */
+  FilterByEntityIdBloom(
+      final EntityIdBloomFilter bloomFilter
+  ) {
+    super(1);
+    mBloomFilter = Preconditions.checkNotNull(bloomFilter, "Bloom filter may not be null.");
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean isRemove(
+      final FlowProcess flowProcess,
+      final FilterCall<Void> filterCall
+  ) {
+    final EntityId entityId = (EntityId) filterCall.getArguments().getObject(0);
+    return !mBloomFilter.mightContain(entityId);
+  }
+}
@@ -0,0 +1,92 @@
+package org.kiji.express.flow;
+
+import java.util.List;
+import java.util.Map;
+
+import cascading.flow.FlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Function;
+import cascading.operation.FunctionCall;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import scala.collection.JavaConversions;
+
+import org.kiji.annotations.ApiAudience;
+
+/**
+ * Cascading function which drops the versions of Kiji columns read into tuple fields whose
+ * timestamps fall outside the time range of their column, then keeps at most the maximum number
+ * of versions of the column per qualifier. Versions must arrive newest first per qualifier and
+ * include the newest versions within the time range of their column, up to the maximum; see
+ * {@link TapBuilder#withColumnTimeRange(String, TimeRangeSpec)}. Declares its argument fields,
+ * so it should be applied with {@link Fields#REPLACE}.
+ *
+ * <p>
+ *   The versions of each argument are decoded to be filtered, so {@link LazyCells} arguments are
+ *   decoded here; tailing taps, the only taps which emit them, do not support per-column time
+ *   ranges.
+ * </p>
+ */
+@ApiAudience.Private
+final class FilterVersionsByTime extends BaseOperation<Void> implements Function<Void> {
+  private static final long serialVersionUID = 1L;
+
+  private final Map<String, TimeRangeSpec> mTimeRanges;
+  private final Map<String, Integer> mMaxVersions;
+
+  /**
+   * Create a new FilterVersionsByTime function.
+   *
+   * @param timeRanges mapping from field name to the time range of that field.
+   * @param maxVersions mapping from field name to the maximum number of versions per qualifier
+   *     of that field.
+   */
+  FilterVersionsByTime(
+      final Map<String, TimeRangeSpec> timeRanges,
+      final Map<String, Integer> maxVersions
+  ) {
+    super(Fields.ARGS);
+    mTimeRanges = ImmutableMap.copyOf(timeRanges);
+    mMaxVersions = ImmutableMap.copyOf(maxVersions);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void operate(
+      final FlowProcess flowProcess,
+      final FunctionCall<Void> functionCall
+  ) {
+    final TupleEntry arguments = functionCall.getArguments();
+    final Fields fields = arguments.getFields();
+    final Tuple result = Tuple.size(fields.size());
+    for (int pos = 0; pos < fields.size(); pos++) {
+      final Object versions = arguments.getObject(pos);
+      if (null == versions) {
+        continue;
+      }
+      final String field = fields.get(pos).toString();
+      final TimeRangeSpec timeRange = mTimeRanges.get(field);
+      final int maxVersions = mMaxVersions.get(field);
+      final List<FlowCell<?>> kept = Lists.newArrayList();
+      String qualifier = null;
+      int qualifierVersions = 0;
+      for (FlowCell<?> cell : JavaConversions.asJavaIterable(LazyCells.decode(versions))) {
+        if (cell.version() < timeRange.begin() || timeRange.end() <= cell.version()) {
+          continue;
+        }
+        if (!cell.qualifier().equals(qualifier)) {
+          qualifier = cell.qualifier();
+          qualifierVersions = 0;
+        }
+        if (++qualifierVersions <= maxVersions) {
+          kept.add(cell);
+        }
+      }
+      result.set(pos, JavaConversions.asScalaBuffer(kept).toList());
+    }
+    functionCall.getOutputCollector().add(result);
+  }
+}
@@ -0,0 +1,257 @@
+package org.kiji.express.flow;
+
+import java.io.IOException;
+
+import cascading.flow.FlowProcess;
+import cascading.operation.Aggregator;
+import cascading.operation.BaseOperation;
+import cascading.operation.ConcreteCall;
+import cascading.operation.Function;
+import cascading.operation.FunctionCall;
+import cascading.operation.OperationCall;
+import cascading.pipe.Each;
+import cascading.pipe.Pipe;
+import cascading.pipe.SubAssembly;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryCollector;
+import cascading.tuple.TupleException;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import org.kiji.annotations.ApiAudience;
+import org.kiji.annotations.ApiStability;
+import org.kiji.schema.EntityIdFactory;
+import org.kiji.schema.Kiji;
+import org.kiji.schema.KijiTable;
+import org.kiji.schema.KijiURI;
+import org.kiji.schema.util.ResourceUtils;
+
+/**
+ * Cascading assembly which applies an {@link Aggregator} to each entity of a Kiji source without a
+ * reduce phase.
+ *
+ * <p>
+ *   A Kiji tap reads each entity from exactly one row, in entity ID order, within exactly one
+ *   task. As long as the upstream pipe only applies {@link Each} operations to the source, all
+ *   tuples for an entity are therefore adjacent in a single task, and the grouping performed by a
+ *   {@code GroupBy} on {@link TapBuilder#ENTITY_ID_FIELD} can be done in the map task. The
+ *   assembly emits the entity ID followed by the fields declared by the aggregator, once per
+ *   entity.
+ * </p>
+ *
+ * <p>
+ *   Do not use this assembly downstream of a merge, group or join, which do not preserve the
+ *   order or locality of the source. The assembly fails the task if its flow step does not read a
+ *   Kiji tap with input columns, which sets {@link KijiTapProperties#INPUT_SORTED_BY_ENTITY_ID},
+ *   or if the row key of an entity sorts before that of the previous entity.
+ * </p>
+ */
+@ApiAudience.Public
+@ApiStability.Experimental
+public final class GroupByEntity extends SubAssembly {
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Create a new assembly which applies the given aggregator to each entity of the given pipe.
+   *
+   * @param upstream pipe derived from a Kiji source using only {@link Each} operations.
+   * @param argumentFields fields passed to the aggregator. May not include the entity ID field.
+   * @param aggregator aggregator to apply to each entity. Must declare its result fields.
+   */
+  public GroupByEntity(
+      final Pipe upstream,
+      final Fields argumentFields,
+      final Aggregator<?> aggregator
+  ) {
+    Preconditions.checkNotNull(upstream, "Upstream pipe may not be null.");
+    Preconditions.checkNotNull(argumentFields, "Argument fields may not be null.");
+    Preconditions.checkNotNull(aggregator, "Aggregator may not be null.");
+    Preconditions.checkArgument(aggregator.getFieldDeclaration().isDefined(),
+        "Aggregator must declare its result fields, found: %s", aggregator.getFieldDeclaration());
+    final Fields entityField = new Fields(TapBuilder.ENTITY_ID_FIELD);
+    setTails(new Each(upstream, entityField.append(argumentFields),
+        new AggregateAdjacent(entityField, argumentFields, aggregator), Fields.RESULTS));
+  }
+
+  /** Context of {@link AggregateAdjacent} within one task. */
+  private static final class Context {
+    private final ConcreteCall<Object> mCall;
+    private final EntityIdFactory mEntityIdFactory;
+    private Object mEntityId = null;
+    private byte[] mRowKey = null;
+
+    /**
+     * Create a new context.
+     *
+     * @param call call passed to the wrapped aggregator.
+     * @param entityIdFactory factory of the entity IDs of the source table.
+     */
+    private Context(
+        final ConcreteCall<Object> call,
+        final EntityIdFactory entityIdFactory
+    ) {
+      mCall = call;
+      mEntityIdFactory = entityIdFactory;
+    }
+  }
+
+  /** Function which applies an aggregator to runs of tuples sharing an entity ID. */
+  private static final class AggregateAdjacent
+      extends BaseOperation<Context>
+      implements Function<Context> {
+    private static final long serialVersionUID = 1L;
+
+    private final Fields mEntityField;
+    private final Fields mArgumentFields;
+    private final Aggregator<Object> mAggregator;
+
+    /**
+     * Create a new AggregateAdjacent function.
+     *
+     * @param entityField field containing the entity ID.
+     * @param argumentFields fields passed to the aggregator.
+     * @param aggregator aggregator to apply to each entity.
+     */
+    @SuppressWarnings("unchecked")
+    private AggregateAdjacent(
+        final Fields entityField,
+        final Fields argumentFields,
+        final Aggregator<?> aggregator
+    ) {
+      super(entityField.append(aggregator.getFieldDeclaration()));
+      mEntityField = entityField;
+      mArgumentFields = argumentFields;
+      mAggregator = (Aggregator<Object>) aggregator;
+    }
+
+    @Override
+    public void prepare(
+        final FlowProcess flowProcess,
+        final OperationCall<Context> operationCall
+    ) {
+      final Object tableURI = flowProcess.getProperty(KijiTapProperties.INPUT_TABLE_URI);
+      if (!"true".equals(flowProcess.getProperty(KijiTapProperties.INPUT_SORTED_BY_ENTITY_ID))
+          || null == tableURI) {
+        throw new TupleException(
+            "GroupByEntity must be in the flow step of a Kiji tap with input columns.");
+      }
+      final EntityIdFactory entityIdFactory = getEntityIdFactory(flowProcess, tableURI.toString());
+      final ConcreteCall<Object> call =
+          new ConcreteCall<Object>(mArgumentFields, mAggregator.getFieldDeclaration());
+      mAggregator.prepare(flowProcess, call);
+      operationCall.setContext(new Context(call, entityIdFactory));
+    }
+
+    /**
+     * Get the entity ID factory of the given table.
+     *
+     * @param flowProcess current flow process.
+     * @param tableURI KijiURI of the source table.
+     * @return the entity ID factory of the table.
+     */
+    private static EntityIdFactory getEntityIdFactory(
+        final FlowProcess flowProcess,
+        final String tableURI
+    ) {
+      final KijiURI uri = KijiURI.newBuilder(tableURI).build();
+      try {
+        final Kiji kiji = Kiji.Factory.open(uri, TupleWriter.getConfiguration(flowProcess));
+        try {
+          final KijiTable table = kiji.openTable(uri.getTable());
+          try {
+            return EntityIdFactory.getFactory(table.getLayout());
+          } finally {
+            ResourceUtils.releaseOrLog(table);
+          }
+        } finally {
+          ResourceUtils.releaseOrLog(kiji);
+        }
+      } catch (IOException ioe) {
+        throw new TupleException("Unable to read layout of table: " + tableURI, ioe);
+      }
+    }
+
+    @Override
+    public void operate(
+        final FlowProcess flowProcess,
+        final FunctionCall<Context> functionCall
+    ) {
+      final Context context = functionCall.getContext();
+      final TupleEntry arguments = functionCall.getArguments();
+      final Object entityId = arguments.getObject(TapBuilder.ENTITY_ID_FIELD);
+      if (null == context.mEntityId || !Objects.equal(context.mEntityId, entityId)) {
+        final byte[] rowKey =
+            ((EntityId) entityId).toJavaEntityId(context.mEntityIdFactory).getHBaseRowKey();
+        if (null != context.mRowKey && Bytes.compareTo(rowKey, context.mRowKey) <= 0) {
+          throw new TupleException(String.format(
+              "Entity: %s is not after the previous entity: %s in row key order; GroupByEntity "
+              + "may not be used downstream of a merge, group or join.",
+              entityId, context.mEntityId));
+        }
+        complete(flowProcess, context, functionCall.getOutputCollector());
+        context.mRowKey = rowKey;
+        context.mEntityId = entityId;
+        context.mCall.setGroup(new TupleEntry(mEntityField, new Tuple(entityId)));
+        mAggregator.start(flowProcess, context.mCall);
+      }
+      context.mCall.setArguments(arguments.selectEntry(mArgumentFields));
+      mAggregator.aggregate(flowProcess, context.mCall);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void flush(
+        final FlowProcess flowProcess,
+        final OperationCall<Context> operationCall
+    ) {
+      final Context context = operationCall.getContext();
+      if (null != context) {
+        complete(flowProcess, context,
+            ((FunctionCall<Context>) operationCall).getOutputCollector());
+      }
+    }
+
+    @Override
+    public void cleanup(
+        final FlowProcess flowProcess,
+        final OperationCall<Context> operationCall
+    ) {
+      final Context context = operationCall.getContext();
+      if (null != context) {
+        mAggregator.cleanup(flowProcess, context.mCall);
+      }
+      operationCall.setContext(null);
+    }
+
+    /**
+     * Complete the aggregation of the current entity, if any, emitting its results prefixed by
+     * its entity ID.
+     *
+     * @param flowProcess current flow process.
+     * @param context context of this task.
+     * @param output collector to which to emit results.
+     */
+    private void complete(
+        final FlowProcess flowProcess,
+        final Context context,
+        final TupleEntryCollector output
+    ) {
+      if (null == context.mEntityId) {
+        return;
+      }
+      final Object entityId = context.mEntityId;
+      context.mCall.setOutputCollector(
+          new TupleEntryCollector(mAggregator.getFieldDeclaration()) {
+            @Override
+            protected void collect(final TupleEntry result) {
+              output.add(new Tuple(entityId).append(result.getTuple()));
+            }
+          });
+      mAggregator.complete(flowProcess, context.mCall);
+      context.mEntityId = null;
+    }
+  }
+}
@@ -0,0 +1,50 @@
+package org.kiji.express.flow;
+
+import cascading.property.ConfigDef;
+import cascading.tap.Tap;
+
+import org.kiji.annotations.ApiAudience;
+import org.kiji.annotations.ApiStability;
+
+/**
+ * Names of the job configuration properties set on Kiji taps by {@link TapBuilder}.
+ *
+ * <p>
+ *   Properties are added to the step configuration of each tap, so they apply only to the flow
+ *   steps which read from or write to that tap.
+ * </p>
+ */
+@ApiAudience.Public
+@ApiStability.Experimental
+public final class KijiTapProperties {
+  /**
+   * Set to "true" on taps with input columns. Each task reading such a tap sees each entity in
+   * exactly one tuple, in entity ID order. See {@link GroupByEntity}.
+   */
+  public static final String INPUT_SORTED_BY_ENTITY_ID = "kiji.express.input.sorted.by.entity.id";
+
+  /**
+   * Set to the KijiURI of the table read by taps with input columns, so that tasks can decode the
+   * entity IDs they read into row keys. See {@link GroupByEntity}.
+   */
+  public static final String INPUT_TABLE_URI = "kiji.express.input.table.uri";
+
+  /**
+   * Set a property in the step configuration of the given tap, replacing any existing value.
+   *
+   * @param tap tap whose step configuration to update.
+   * @param property name of the property to set.
+   * @param value value of the property.
+   */
+  static void set(
+      final Tap<?, ?, ?> tap,
+      final String property,
+      final String value
+  ) {
+    tap.getStepConfigDef().setProperty(ConfigDef.Mode.REPLACE, property, value);
+  }
+
+  /** Utility class may not be instantiated. */
+  private KijiTapProperties() {
+  }
+}
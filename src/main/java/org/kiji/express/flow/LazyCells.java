@@ -0,0 +1,151 @@
+package org.kiji.express.flow;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import scala.collection.JavaConversions;
+
+import org.kiji.annotations.ApiAudience;
+import org.kiji.annotations.ApiStability;
+import org.kiji.schema.KijiColumnName;
+import org.kiji.schema.KijiRowData;
+
+/**
+ * Cells of one input column of a row, decoded on first access. Fields of tailing taps built with
+ * {@link TapBuilder#withLazyDecoding()} hold a LazyCells in place of the Scala sequence of
+ * {@link FlowCell}s, so that rows rejected by a filter which looks at a cheap column never pay
+ * for decoding the other columns.
+ *
+ * <p>
+ *   The row keeps the raw cells read from the table until {@link #get()} first decodes them; the
+ *   decoded cells are kept and returned by later calls. Cells must be decoded before the tap
+ *   which read them is closed. A LazyCells is serialized as its decoded cells, so tuples crossing
+ *   a grouping or a checkpoint hold the same Scala sequence as eagerly decoded tuples.
+ * </p>
+ */
+@ApiAudience.Public
+@ApiStability.Experimental
+public final class LazyCells implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Get the cells held in a tuple field, decoding them if the field holds a LazyCells.
+   *
+   * @param field value of an input field, either a LazyCells or a Scala sequence of FlowCells.
+   * @return the cells held in the field, or null if the field is null.
+   */
+  @SuppressWarnings("unchecked")
+  public static scala.collection.Iterable<FlowCell<?>> decode(
+      final Object field
+  ) {
+    if (field instanceof LazyCells) {
+      return (scala.collection.Iterable<FlowCell<?>>) (Object) ((LazyCells) field).get();
+    }
+    return (scala.collection.Iterable<FlowCell<?>>) field;
+  }
+
+  private final transient KijiRowData mRow;
+  private final transient KijiColumnName mColumn;
+  private transient scala.collection.immutable.List<FlowCell<Object>> mCells = null;
+
+  /**
+   * Create a new LazyCells for one column of a row.
+   *
+   * @param row row read from the table, holding the raw cells of the column.
+   * @param column column whose cells to decode. May be a fully qualified column or a family.
+   */
+  LazyCells(
+      final KijiRowData row,
+      final KijiColumnName column
+  ) {
+    mRow = Preconditions.checkNotNull(row, "Row may not be null.");
+    mColumn = Preconditions.checkNotNull(column, "Column may not be null.");
+  }
+
+  /**
+   * Get the cells of the column, newest first per qualifier, decoding them on the first call.
+   *
+   * @return the cells of the column as a Scala list of FlowCells.
+   */
+  public scala.collection.immutable.List<FlowCell<Object>> get() {
+    if (null == mCells) {
+      mCells = decodeCells();
+    }
+    return mCells;
+  }
+
+  /**
+   * Whether the cells have been decoded.
+   *
+   * @return whether the cells have been decoded.
+   */
+  public boolean isDecoded() {
+    return null != mCells;
+  }
+
+  /**
+   * Decode every cell of the column.
+   *
+   * @return the cells of the column as a Scala list of FlowCells.
+   */
+  private scala.collection.immutable.List<FlowCell<Object>> decodeCells() {
+    final String family = mColumn.getFamily();
+    final List<FlowCell<Object>> cells = Lists.newArrayList();
+    if (mColumn.isFullyQualified()) {
+      if (mRow.containsColumn(family, mColumn.getQualifier())) {
+        addCells(cells, family, mColumn.getQualifier(),
+            mRow.<Object>getValues(family, mColumn.getQualifier()));
+      }
+    } else {
+      final NavigableMap<String, NavigableMap<Long, Object>> qualifiers = mRow.getValues(family);
+      for (Map.Entry<String, NavigableMap<Long, Object>> qualifier : qualifiers.entrySet()) {
+        addCells(cells, family, qualifier.getKey(), qualifier.getValue());
+      }
+    }
+    return JavaConversions.asScalaBuffer(cells).toList();
+  }
+
+  /**
+   * Append a FlowCell for each version of a Kiji cell.
+   *
+   * @param cells list to which to append.
+   * @param family family of the cell.
+   * @param qualifier qualifier of the cell.
+   * @param values versions of the cell keyed by timestamp.
+   */
+  static void addCells(
+      final List<FlowCell<Object>> cells,
+      final String family,
+      final String qualifier,
+      final NavigableMap<Long, Object> values
+  ) {
+    for (Map.Entry<Long, Object> version : values.entrySet()) {
+      cells.add(new FlowCell<Object>(family, qualifier, version.getKey(), version.getValue()));
+    }
+  }
+
+  /**
+   * Serialize as the decoded cells, since the row does not outlive the tap which read it.
+   *
+   * @return the decoded cells.
+   * @throws ObjectStreamException never.
+   */
+  private Object writeReplace() throws ObjectStreamException {
+    return get();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(LazyCells.class)
+        .add("column", mColumn)
+        .add("decoded", isDecoded())
+        .toString();
+  }
+}
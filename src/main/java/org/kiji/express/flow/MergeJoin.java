@@ -0,0 +1,157 @@
+package org.kiji.express.flow;
+
+import java.util.List;
+import java.util.Set;
+
+import cascading.pipe.Each;
+import cascading.pipe.Pipe;
+import cascading.tap.Tap;
+import cascading.tuple.Fields;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import org.kiji.annotations.ApiAudience;
+import org.kiji.annotations.ApiStability;
+
+/**
+ * Map-side merge join of Kiji tables which share a row key format.
+ *
+ * <p>
+ *   Kiji tables keyed by the same entity IDs are stored sorted by the same HBase row keys. One
+ *   table, the primary side, is read by the tap from {@link #build()}; each task of that tap reads
+ *   a contiguous range of rows in row key order. {@link #buildSourceAssembly(Pipe)} joins every
+ *   other side into the tuples of the primary side within the task: each side is read by a
+ *   scanner which starts at the first row of the task and only moves forward, so rows with equal
+ *   entity IDs are joined by streaming the tables side by side, without a shuffle.
+ * </p>
+ *
+ * <p>
+ *   Each side is described by a {@link TapBuilder}. The primary side may use any option of the
+ *   builder; its source assembly is applied before the join. Other sides are read from their
+ *   table URI, time range and input columns only, decoded with the default reader schemas of
+ *   their table, and may not configure any other option. The input fields of every side are
+ *   added to the tuples of the primary side and must not collide.
+ * </p>
+ */
+@ApiAudience.Public
+@ApiStability.Experimental
+public final class MergeJoin {
+
+  /** Which tuples a merge join emits. */
+  public static enum JoinType {
+    /** Emit only tuples of the primary side whose entity is present in every other side. */
+    INNER,
+    /**
+     * Emit every tuple of the primary side. Fields of sides without a row for the entity hold an
+     * empty sequence of cells.
+     */
+    LEFT
+  }
+
+  /**
+   * Create a new MergeJoin driven by the given primary side.
+   *
+   * @param primary builder of the tap which reads the primary side.
+   * @return a new MergeJoin with the given primary side.
+   */
+  public static MergeJoin create(
+      final TapBuilder primary
+  ) {
+    Preconditions.checkNotNull(primary, "Primary side may not be null.");
+    Preconditions.checkArgument(null != primary.getTableURI(),
+        "Primary side must have a table URI.");
+    Preconditions.checkArgument(
+        null != primary.getInputColumns() && !primary.getInputColumns().isEmpty(),
+        "Primary side must have input columns, so that its tasks read rows in row key order.");
+    Preconditions.checkArgument(!primary.isTailing(), "Primary side may not tail its table.");
+    return new MergeJoin(primary);
+  }
+
+  private final TapBuilder mPrimary;
+  private final List<TapSnapshot> mSides = Lists.newArrayList();
+  private final Set<String> mFields = Sets.newHashSet();
+  private JoinType mJoinType = null;
+
+  /**
+   * Private constructor, use {@link #create(TapBuilder)}.
+   *
+   * @param primary builder of the tap which reads the primary side.
+   */
+  private MergeJoin(
+      final TapBuilder primary
+  ) {
+    mPrimary = TapBuilder.copy(primary);
+    mFields.addAll(primary.getInputColumns().keySet());
+  }
+
+  /**
+   * Add a side to this join. The input fields of the side are appended to the joined tuples in
+   * the order in which sides were added.
+   *
+   * @param side builder whose table URI, time range and input columns describe the side.
+   * @return this.
+   */
+  public MergeJoin addSide(
+      final TapBuilder side
+  ) {
+    Preconditions.checkNotNull(side, "Side may not be null.");
+    Preconditions.checkArgument(null != side.getTableURI(), "Side must have a table URI.");
+    Preconditions.checkArgument(
+        null != side.getInputColumns() && !side.getInputColumns().isEmpty(),
+        "Side: %s must have input columns.", side.getTableURI());
+    for (String field : side.getInputColumns().keySet()) {
+      Preconditions.checkArgument(!mFields.contains(field),
+          "Field: %s of side: %s is already read by another side.", field, side.getTableURI());
+    }
+    // Rejects sides configured with options the join cannot apply.
+    mSides.add(side.snapshot());
+    mFields.addAll(side.getInputColumns().keySet());
+    return this;
+  }
+
+  /**
+   * Configure the type of this join. Defaults to {@link JoinType#INNER}.
+   *
+   * @param joinType type of this join.
+   * @return this.
+   */
+  public MergeJoin withJoinType(
+      final JoinType joinType
+  ) {
+    Preconditions.checkNotNull(joinType, "Join type may not be null.");
+    Preconditions.checkState(null == mJoinType, "Join type already set to: " + mJoinType);
+    mJoinType = joinType;
+    return this;
+  }
+
+  /**
+   * Build the tap which reads the primary side.
+   *
+   * @return the tap which reads the primary side.
+   */
+  public Tap<?, ?, ?> build() {
+    Preconditions.checkState(!mSides.isEmpty(), "A merge join requires at least one other side.");
+    return mPrimary.build();
+  }
+
+  /**
+   * Apply the source assembly of the primary side and the join to the given pipe. The given pipe
+   * should read directly from the tap from {@link #build()}, and downstream operations should be
+   * attached to the returned pipe, whose tuples hold the fields of every side.
+   *
+   * @param source pipe reading from the tap.
+   * @return the pipe to which downstream operations should be attached.
+   */
+  public Pipe buildSourceAssembly(
+      final Pipe source
+  ) {
+    Preconditions.checkState(!mSides.isEmpty(), "A merge join requires at least one other side.");
+    return new Each(
+        mPrimary.buildSourceAssembly(source),
+        new Fields(TapBuilder.ENTITY_ID_FIELD),
+        new MergeJoinSides(
+            mPrimary.getTableURI(), mSides, (null == mJoinType) ? JoinType.INNER : mJoinType),
+        Fields.ALL);
+  }
+}
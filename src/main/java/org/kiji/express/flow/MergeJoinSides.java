@@ -0,0 +1,292 @@
+package org.kiji.express.flow;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import cascading.flow.FlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Function;
+import cascading.operation.FunctionCall;
+import cascading.operation.OperationCall;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleException;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.apache.hadoop.hbase.util.Bytes;
+import scala.collection.immutable.Nil$;
+
+import org.kiji.annotations.ApiAudience;
+import org.kiji.express.flow.MergeJoin.JoinType;
+import org.kiji.schema.EntityIdFactory;
+import org.kiji.schema.Kiji;
+import org.kiji.schema.KijiRowData;
+import org.kiji.schema.KijiRowScanner;
+import org.kiji.schema.KijiTable;
+import org.kiji.schema.KijiTableReader;
+import org.kiji.schema.KijiURI;
+import org.kiji.schema.util.ResourceUtils;
+
+/**
+ * Cascading function which joins the rows of other Kiji tables into tuples read from a primary
+ * Kiji table, within the task reading the primary table. See {@link MergeJoin}.
+ *
+ * <p>
+ *   Expects a single argument containing the KijiExpress entity ID of a row of the primary table,
+ *   and arguments in increasing row key order. Each side keeps one scanner, opened at the first
+ *   row key probed and advanced only forward; a row key smaller than the previous one, as seen
+ *   when a task reads a second split, reopens the scanner at that key.
+ * </p>
+ */
+@ApiAudience.Private
+final class MergeJoinSides
+    extends BaseOperation<MergeJoinSides.Cursors>
+    implements Function<MergeJoinSides.Cursors> {
+  private static final long serialVersionUID = 1L;
+
+  private final String mPrimaryTableURI;
+  private final List<TapSnapshot> mSides;
+  private final JoinType mJoinType;
+
+  /**
+   * Create a new MergeJoinSides function.
+   *
+   * @param primaryTableURI KijiURI of the primary table.
+   * @param sides other sides of the join, in the order of their fields.
+   * @param joinType which tuples to emit.
+   */
+  MergeJoinSides(
+      final KijiURI primaryTableURI,
+      final List<TapSnapshot> sides,
+      final JoinType joinType
+  ) {
+    super(1, getDeclaredFields(sides));
+    mPrimaryTableURI = primaryTableURI.toString();
+    mSides = ImmutableList.copyOf(sides);
+    mJoinType = Preconditions.checkNotNull(joinType, "Join type may not be null.");
+  }
+
+  /**
+   * Get the input fields of every side, in the order of the sides.
+   *
+   * @param sides sides of the join.
+   * @return the input fields of every side.
+   */
+  private static Fields getDeclaredFields(
+      final List<TapSnapshot> sides
+  ) {
+    final List<String> fields = Lists.newArrayList();
+    for (TapSnapshot side : sides) {
+      fields.addAll(side.getInputColumns().keySet());
+    }
+    return new Fields(fields.toArray(new String[fields.size()]));
+  }
+
+  /** Forward-only scanner over the rows of one side. */
+  static final class Cursor {
+    private final TapSnapshot mSide;
+    private final Kiji mKiji;
+    private final KijiTable mTable;
+    private final KijiTableReader mReader;
+    private KijiRowScanner mScanner = null;
+    private Iterator<KijiRowData> mRows = null;
+    private KijiRowData mHead = null;
+    private byte[] mHeadKey = null;
+    private byte[] mLastProbe = null;
+
+    /**
+     * Open a cursor over the table of the given side. The scanner is opened on the first probe.
+     *
+     * @param side description of the side.
+     * @param kiji Kiji instance of the table, released by {@link #close()}.
+     * @param table table of the side, released by {@link #close()}.
+     * @throws IOException in case of an error opening a reader.
+     */
+    private Cursor(
+        final TapSnapshot side,
+        final Kiji kiji,
+        final KijiTable table
+    ) throws IOException {
+      mSide = side;
+      mKiji = kiji;
+      mTable = table;
+      mReader = table.openTableReader();
+    }
+
+    /**
+     * Move the cursor to the first row whose key is not smaller than the given key.
+     *
+     * @param rowKey HBase row key to probe.
+     * @return the row with the given key, or null if the side has no such row.
+     * @throws IOException in case of an error reading the side.
+     */
+    private KijiRowData seek(
+        final byte[] rowKey
+    ) throws IOException {
+      if (null == mScanner || Bytes.compareTo(rowKey, mLastProbe) < 0) {
+        ResourceUtils.closeOrLog(mScanner);
+        mScanner = mReader.getScanner(
+            ColumnRequests.build(mSide.getInputColumns(), mSide.getTimeRangeSpec()),
+            RowKeyRange.of(rowKey, new byte[0]).toScannerOptions());
+        mRows = mScanner.iterator();
+        advance();
+      }
+      mLastProbe = rowKey;
+      while (null != mHead && Bytes.compareTo(mHeadKey, rowKey) < 0) {
+        advance();
+      }
+      return (null != mHead && Bytes.equals(mHeadKey, rowKey)) ? mHead : null;
+    }
+
+    /** Move the cursor to the next row of the scanner. */
+    private void advance() {
+      mHead = mRows.hasNext() ? mRows.next() : null;
+      mHeadKey = (null == mHead) ? null : mHead.getEntityId().getHBaseRowKey();
+    }
+
+    /** Close the scanner, reader and table of this cursor. */
+    private void close() {
+      ResourceUtils.closeOrLog(mScanner);
+      ResourceUtils.closeOrLog(mReader);
+      ResourceUtils.releaseOrLog(mTable);
+      ResourceUtils.releaseOrLog(mKiji);
+    }
+  }
+
+  /** Cursors of every side and the entity ID factory of the primary table. */
+  static final class Cursors {
+    private final EntityIdFactory mEntityIdFactory;
+    private final List<Cursor> mCursors;
+
+    /**
+     * Create a new set of cursors.
+     *
+     * @param entityIdFactory entity ID factory of the primary table.
+     * @param cursors cursor of each side.
+     */
+    private Cursors(
+        final EntityIdFactory entityIdFactory,
+        final List<Cursor> cursors
+    ) {
+      mEntityIdFactory = entityIdFactory;
+      mCursors = cursors;
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void prepare(
+      final FlowProcess flowProcess,
+      final OperationCall<Cursors> operationCall
+  ) {
+    final KijiURI primaryURI = KijiURI.newBuilder(mPrimaryTableURI).build();
+    final EntityIdFactory entityIdFactory;
+    final Object keysFormat;
+    try {
+      final Kiji kiji = Kiji.Factory.open(primaryURI, TupleWriter.getConfiguration(flowProcess));
+      try {
+        final KijiTable table = kiji.openTable(primaryURI.getTable());
+        try {
+          entityIdFactory = EntityIdFactory.getFactory(table.getLayout());
+          keysFormat = table.getLayout().getDesc().getKeysFormat();
+        } finally {
+          ResourceUtils.releaseOrLog(table);
+        }
+      } finally {
+        ResourceUtils.releaseOrLog(kiji);
+      }
+    } catch (IOException ioe) {
+      throw new TupleException("Unable to read layout of table: " + mPrimaryTableURI, ioe);
+    }
+
+    final List<Cursor> cursors = Lists.newArrayListWithCapacity(mSides.size());
+    try {
+      for (TapSnapshot side : mSides) {
+        final KijiURI tableURI = side.getTableURI();
+        final Kiji kiji = Kiji.Factory.open(tableURI, TupleWriter.getConfiguration(flowProcess));
+        final KijiTable table;
+        try {
+          table = kiji.openTable(tableURI.getTable());
+        } catch (IOException ioe) {
+          ResourceUtils.releaseOrLog(kiji);
+          throw ioe;
+        }
+        final Object sideFormat = table.getLayout().getDesc().getKeysFormat();
+        if (!keysFormat.equals(sideFormat)) {
+          ResourceUtils.releaseOrLog(table);
+          ResourceUtils.releaseOrLog(kiji);
+          throw new IllegalStateException(String.format(
+              "Table: %s has row key format: %s which differs from: %s of table: %s",
+              tableURI, sideFormat, keysFormat, mPrimaryTableURI));
+        }
+        cursors.add(new Cursor(side, kiji, table));
+      }
+    } catch (IOException ioe) {
+      closeCursors(cursors);
+      throw new TupleException("Unable to open merge join sides: " + mSides, ioe);
+    } catch (RuntimeException re) {
+      closeCursors(cursors);
+      throw re;
+    }
+    operationCall.setContext(new Cursors(entityIdFactory, cursors));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void operate(
+      final FlowProcess flowProcess,
+      final FunctionCall<Cursors> functionCall
+  ) {
+    final Cursors cursors = functionCall.getContext();
+    final byte[] rowKey = ((EntityId) functionCall.getArguments().getObject(0))
+        .toJavaEntityId(cursors.mEntityIdFactory)
+        .getHBaseRowKey();
+    final Tuple joined = new Tuple();
+    try {
+      for (int index = 0; index < mSides.size(); index++) {
+        final KijiRowData row = cursors.mCursors.get(index).seek(rowKey);
+        if (null == row && JoinType.INNER == mJoinType) {
+          return;
+        }
+        for (Map.Entry<String, ColumnInputSpec> input
+            : mSides.get(index).getInputColumns().entrySet()) {
+          joined.add((null == row)
+              ? Nil$.MODULE$
+              : new LazyCells(row, input.getValue().columnName()).get());
+        }
+      }
+    } catch (IOException ioe) {
+      throw new TupleException("Unable to read merge join sides: " + mSides, ioe);
+    }
+    functionCall.getOutputCollector().add(joined);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void cleanup(
+      final FlowProcess flowProcess,
+      final OperationCall<Cursors> operationCall
+  ) {
+    final Cursors cursors = operationCall.getContext();
+    if (null != cursors) {
+      operationCall.setContext(null);
+      closeCursors(cursors.mCursors);
+    }
+  }
+
+  /**
+   * Close every cursor in the given list.
+   *
+   * @param cursors cursors to close.
+   */
+  private static void closeCursors(
+      final List<Cursor> cursors
+  ) {
+    for (Cursor cursor : cursors) {
+      cursor.close();
+    }
+  }
+}
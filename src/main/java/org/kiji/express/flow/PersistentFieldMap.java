@@ -0,0 +1,348 @@
+package org.kiji.express.flow;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.google.common.base.Preconditions;
+
+import org.kiji.annotations.ApiAudience;
+
+/**
+ * Immutable map from field name to value backed by a persistent AVL tree.
+ *
+ * <p>
+ *   Adding an entry copies only the O(log n) nodes on the path from the root to the new entry;
+ *   all other nodes are shared with the source map. Instances are immutable and therefore safe to
+ *   share between threads without synchronization.
+ * </p>
+ *
+ * @param <V> type of the values in this map.
+ */
+@ApiAudience.Private
+final class PersistentFieldMap<V> implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  /** Shared empty map. */
+  private static final PersistentFieldMap<Object> EMPTY = new PersistentFieldMap<Object>(null, 0);
+
+  /**
+   * Get an empty PersistentFieldMap.
+   *
+   * @param <V> type of the values in the map.
+   * @return an empty PersistentFieldMap.
+   */
+  @SuppressWarnings("unchecked")
+  public static <V> PersistentFieldMap<V> empty() {
+    return (PersistentFieldMap<V>) EMPTY;
+  }
+
+  /**
+   * Create a PersistentFieldMap containing the entries of the given map.
+   *
+   * @param entries map whose entries to include.
+   * @param <V> type of the values in the map.
+   * @return a PersistentFieldMap containing the entries of the given map.
+   */
+  public static <V> PersistentFieldMap<V> copyOf(
+      final Map<String, ? extends V> entries
+  ) {
+    PersistentFieldMap<V> map = empty();
+    if (null != entries) {
+      for (Map.Entry<String, ? extends V> entry : entries.entrySet()) {
+        map = map.plus(entry.getKey(), entry.getValue());
+      }
+    }
+    return map;
+  }
+
+  /** Immutable tree node. */
+  private static final class Node<V> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String mKey;
+    private final V mValue;
+    private final Node<V> mLeft;
+    private final Node<V> mRight;
+    private final int mHeight;
+
+    /**
+     * Create a new node.
+     *
+     * @param key field name of this node.
+     * @param value value of this node.
+     * @param left subtree of smaller keys, or null.
+     * @param right subtree of larger keys, or null.
+     */
+    private Node(
+        final String key,
+        final V value,
+        final Node<V> left,
+        final Node<V> right
+    ) {
+      mKey = key;
+      mValue = value;
+      mLeft = left;
+      mRight = right;
+      mHeight = Math.max(height(left), height(right)) + 1;
+    }
+  }
+
+  private final Node<V> mRoot;
+  private final int mSize;
+
+  /**
+   * Private constructor, use {@link #empty()} or {@link #copyOf(Map)}.
+   *
+   * @param root root node of the tree, or null for an empty map.
+   * @param size number of entries in the tree.
+   */
+  private PersistentFieldMap(
+      final Node<V> root,
+      final int size
+  ) {
+    mRoot = root;
+    mSize = size;
+  }
+
+  /**
+   * Get the number of entries in this map.
+   *
+   * @return the number of entries in this map.
+   */
+  public int size() {
+    return mSize;
+  }
+
+  /**
+   * Get the value mapped to the given field, or null if the field is not mapped.
+   *
+   * @param key field name to look up.
+   * @return the value mapped to the given field, or null if the field is not mapped.
+   */
+  public V get(
+      final String key
+  ) {
+    Node<V> node = mRoot;
+    while (null != node) {
+      final int cmp = key.compareTo(node.mKey);
+      if (cmp == 0) {
+        return node.mValue;
+      }
+      node = (cmp < 0) ? node.mLeft : node.mRight;
+    }
+    return null;
+  }
+
+  /**
+   * Whether the given field is mapped in this map.
+   *
+   * @param key field name to look up.
+   * @return whether the given field is mapped in this map.
+   */
+  public boolean containsKey(
+      final String key
+  ) {
+    return null != get(key);
+  }
+
+  /**
+   * Get a new map with the given field mapped to the given value. This map is unchanged.
+   *
+   * @param key field name to map.
+   * @param value value to map to the field.
+   * @return a new map with the given field mapped to the given value.
+   */
+  public PersistentFieldMap<V> plus(
+      final String key,
+      final V value
+  ) {
+    Preconditions.checkNotNull(key, "Field name may not be null.");
+    Preconditions.checkNotNull(value, "Value for field: %s may not be null.", key);
+    final int size = containsKey(key) ? mSize : mSize + 1;
+    return new PersistentFieldMap<V>(insert(mRoot, key, value), size);
+  }
+
+  /**
+   * Get an unmodifiable {@link Map} view of this map, iterating in field name order.
+   *
+   * @return an unmodifiable {@link Map} view of this map.
+   */
+  public Map<String, V> asMap() {
+    return new AbstractMap<String, V>() {
+      @Override
+      public Set<Map.Entry<String, V>> entrySet() {
+        return new AbstractSet<Map.Entry<String, V>>() {
+          @Override
+          public Iterator<Map.Entry<String, V>> iterator() {
+            return new EntryIterator<V>(mRoot);
+          }
+
+          @Override
+          public int size() {
+            return mSize;
+          }
+        };
+      }
+
+      @Override
+      public V get(final Object key) {
+        return (key instanceof String) ? PersistentFieldMap.this.get((String) key) : null;
+      }
+
+      @Override
+      public boolean containsKey(final Object key) {
+        return null != get(key);
+      }
+
+      @Override
+      public int size() {
+        return mSize;
+      }
+    };
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    return asMap().toString();
+  }
+
+  /** In-order iterator over the nodes of a tree. */
+  private static final class EntryIterator<V> implements Iterator<Map.Entry<String, V>> {
+    private final Deque<Node<V>> mStack = new ArrayDeque<Node<V>>();
+
+    /**
+     * Create an iterator over the tree rooted at the given node.
+     *
+     * @param root root of the tree to iterate, or null.
+     */
+    private EntryIterator(
+        final Node<V> root
+    ) {
+      pushLeft(root);
+    }
+
+    /**
+     * Push the given node and all of its left descendants onto the stack.
+     *
+     * @param node node from which to descend.
+     */
+    private void pushLeft(
+        final Node<V> node
+    ) {
+      Node<V> current = node;
+      while (null != current) {
+        mStack.push(current);
+        current = current.mLeft;
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return !mStack.isEmpty();
+    }
+
+    @Override
+    public Map.Entry<String, V> next() {
+      if (mStack.isEmpty()) {
+        throw new NoSuchElementException();
+      }
+      final Node<V> node = mStack.pop();
+      pushLeft(node.mRight);
+      return new AbstractMap.SimpleImmutableEntry<String, V>(node.mKey, node.mValue);
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException("PersistentFieldMap is immutable.");
+    }
+  }
+
+  /**
+   * Get the height of the given subtree.
+   *
+   * @param node root of the subtree, or null.
+   * @return the height of the given subtree.
+   */
+  private static int height(
+      final Node<?> node
+  ) {
+    return (null == node) ? 0 : node.mHeight;
+  }
+
+  /**
+   * Insert the given entry into the subtree rooted at the given node, copying the path to it.
+   *
+   * @param node root of the subtree, or null.
+   * @param key field name to insert.
+   * @param value value to insert.
+   * @param <V> type of the values in the tree.
+   * @return the root of the new, balanced subtree.
+   */
+  private static <V> Node<V> insert(
+      final Node<V> node,
+      final String key,
+      final V value
+  ) {
+    if (null == node) {
+      return new Node<V>(key, value, null, null);
+    }
+    final int cmp = key.compareTo(node.mKey);
+    if (cmp == 0) {
+      return new Node<V>(key, value, node.mLeft, node.mRight);
+    } else if (cmp < 0) {
+      return balance(node.mKey, node.mValue, insert(node.mLeft, key, value), node.mRight);
+    } else {
+      return balance(node.mKey, node.mValue, node.mLeft, insert(node.mRight, key, value));
+    }
+  }
+
+  /**
+   * Create a node from the given entry and subtrees, rotating as needed to restore balance.
+   *
+   * @param key field name of the new node.
+   * @param value value of the new node.
+   * @param left subtree of smaller keys, or null.
+   * @param right subtree of larger keys, or null.
+   * @param <V> type of the values in the tree.
+   * @return the root of the new, balanced subtree.
+   */
+  private static <V> Node<V> balance(
+      final String key,
+      final V value,
+      final Node<V> left,
+      final Node<V> right
+  ) {
+    final int skew = height(left) - height(right);
+    if (skew > 1) {
+      if (height(left.mLeft) >= height(left.mRight)) {
+        return new Node<V>(left.mKey, left.mValue,
+            left.mLeft, new Node<V>(key, value, left.mRight, right));
+      } else {
+        final Node<V> pivot = left.mRight;
+        return new Node<V>(pivot.mKey, pivot.mValue,
+            new Node<V>(left.mKey, left.mValue, left.mLeft, pivot.mLeft),
+            new Node<V>(key, value, pivot.mRight, right));
+      }
+    } else if (skew < -1) {
+      if (height(right.mRight) >= height(right.mLeft)) {
+        return new Node<V>(right.mKey, right.mValue,
+            new Node<V>(key, value, left, right.mLeft), right.mRight);
+      } else {
+        final Node<V> pivot = right.mLeft;
+        return new Node<V>(pivot.mKey, pivot.mValue,
+            new Node<V>(key, value, left, pivot.mLeft),
+            new Node<V>(right.mKey, right.mValue, pivot.mRight, right.mRight));
+      }
+    } else {
+      return new Node<V>(key, value, left, right);
+    }
+  }
+}
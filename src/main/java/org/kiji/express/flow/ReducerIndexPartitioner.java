@@ -0,0 +1,64 @@
+package org.kiji.express.flow;
+
+import cascading.tuple.Tuple;
+import cascading.tuple.io.IndexTuple;
+import cascading.tuple.io.TuplePair;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Partitioner;
+
+import org.kiji.annotations.ApiAudience;
+
+/**
+ * Hadoop partitioner which sends each grouping key to the reducer whose index is held by the key,
+ * as assigned by {@link AssignReducer}. Replaces Cascading's hashing partitioner on the step
+ * grouping by {@link AssignReducer#REDUCER_FIELD}, so that reducer ranges map one to one onto
+ * reducers regardless of how Cascading hashes tuples.
+ *
+ * <p>
+ *   The grouping key of the step must hold the reducer index as its first and only element. Keys
+ *   wrapped by Cascading for secondary sorting or merged groupings are unwrapped.
+ * </p>
+ */
+@ApiAudience.Private
+final class ReducerIndexPartitioner implements Partitioner<Object, Object> {
+
+  /** Job configuration property naming the partitioner of a MapReduce job. */
+  static final String PARTITIONER_PROPERTY = "mapred.partitioner.class";
+
+  /** {@inheritDoc} */
+  @Override
+  public void configure(
+      final JobConf conf
+  ) {
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public int getPartition(
+      final Object key,
+      final Object value,
+      final int numPartitions
+  ) {
+    final int reducer = getGroupingTuple(key).getInteger(0);
+    // Reducer indices are below the reducer count, unless the count was overridden downwards.
+    return reducer % numPartitions;
+  }
+
+  /**
+   * Get the grouping tuple of a map output key.
+   *
+   * @param key map output key written by Cascading.
+   * @return the grouping tuple of the key.
+   */
+  private static Tuple getGroupingTuple(
+      final Object key
+  ) {
+    if (key instanceof TuplePair) {
+      return ((TuplePair) key).getLhs();
+    } else if (key instanceof IndexTuple) {
+      return ((IndexTuple) key).getTuple();
+    } else {
+      return (Tuple) key;
+    }
+  }
+}
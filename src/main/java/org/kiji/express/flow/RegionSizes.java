@@ -0,0 +1,74 @@
+package org.kiji.express.flow;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.NavigableMap;
+
+import com.google.common.collect.Maps;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.ClusterStatus;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.RegionLoad;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import org.kiji.annotations.ApiAudience;
+import org.kiji.schema.KijiURI;
+import org.kiji.schema.hbase.KijiManagedHBaseTableName;
+
+/** Utilities for reading the sizes of the regions of a Kiji table from the HBase master. */
+@ApiAudience.Private
+final class RegionSizes {
+  private static final long BYTES_PER_MEGABYTE = 1024L * 1024L;
+
+  /**
+   * Get the name of the HBase table backing a Kiji table.
+   *
+   * @param tableURI KijiURI of the table.
+   * @return the name of the HBase table backing the given Kiji table.
+   */
+  static String getHBaseTableName(
+      final KijiURI tableURI
+  ) {
+    return KijiManagedHBaseTableName
+        .getKijiTableName(tableURI.getInstance(), tableURI.getTable()).toString();
+  }
+
+  /**
+   * Get the uncompressed store file size of each region of a Kiji table, as last reported by the
+   * region servers. Regions which are not currently reported are absent from the result.
+   *
+   * @param tableURI KijiURI of the table.
+   * @param conf Hadoop configuration used to reach the HBase master.
+   * @return mapping from region start key to uncompressed region size in bytes.
+   * @throws IOException in case of an error reading the cluster status.
+   */
+  static NavigableMap<byte[], Long> get(
+      final KijiURI tableURI,
+      final Configuration conf
+  ) throws IOException {
+    final byte[] regionNamePrefix = Bytes.toBytes(getHBaseTableName(tableURI) + ",");
+    final NavigableMap<byte[], Long> sizes = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+    final HBaseAdmin admin = new HBaseAdmin(conf);
+    try {
+      final ClusterStatus status = admin.getClusterStatus();
+      for (ServerName server : status.getServers()) {
+        for (Map.Entry<byte[], RegionLoad> regionEntry
+            : status.getLoad(server).getRegionsLoad().entrySet()) {
+          if (Bytes.startsWith(regionEntry.getKey(), regionNamePrefix)) {
+            sizes.put(HRegionInfo.getStartKey(regionEntry.getKey()),
+                regionEntry.getValue().getStoreUncompressedSizeMB() * BYTES_PER_MEGABYTE);
+          }
+        }
+      }
+    } finally {
+      admin.close();
+    }
+    return sizes;
+  }
+
+  /** Utility class may not be instantiated. */
+  private RegionSizes() {
+  }
+}
@@ -0,0 +1,218 @@
+package org.kiji.express.flow;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import org.kiji.annotations.ApiAudience;
+import org.kiji.annotations.ApiStability;
+import org.kiji.schema.EntityId;
+import org.kiji.schema.HBaseEntityId;
+import org.kiji.schema.KijiTableReader.KijiScannerOptions;
+
+/**
+ * Immutable range of HBase row keys, from an inclusive start key to an exclusive end key. An
+ * empty start key means the range is unbounded below and an empty end key means it is unbounded
+ * above, matching the convention of HBase region boundaries.
+ */
+@ApiAudience.Public
+@ApiStability.Experimental
+public final class RowKeyRange implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  /** Range containing every row key. */
+  public static final RowKeyRange ALL = new RowKeyRange(new byte[0], new byte[0]);
+
+  /** Length of the key standing in for an unbounded end key when splitting a range. */
+  private static final int UNBOUNDED_SPLIT_KEY_LENGTH = 8;
+
+  /**
+   * Create a new range of row keys.
+   *
+   * @param startKey inclusive start row key, or an empty array for no lower bound.
+   * @param endKey exclusive end row key, or an empty array for no upper bound.
+   * @return a new range of row keys.
+   */
+  public static RowKeyRange of(
+      final byte[] startKey,
+      final byte[] endKey
+  ) {
+    Preconditions.checkNotNull(startKey, "Start key may not be null.");
+    Preconditions.checkNotNull(endKey, "End key may not be null.");
+    Preconditions.checkArgument(endKey.length == 0 || Bytes.compareTo(startKey, endKey) < 0,
+        "Start key: %s must sort before end key: %s",
+        Bytes.toStringBinary(startKey), Bytes.toStringBinary(endKey));
+    return new RowKeyRange(startKey.clone(), endKey.clone());
+  }
+
+  private final byte[] mStartKey;
+  private final byte[] mEndKey;
+
+  /**
+   * Private constructor, use {@link #of(byte[], byte[])}.
+   *
+   * @param startKey inclusive start row key.
+   * @param endKey exclusive end row key.
+   */
+  private RowKeyRange(
+      final byte[] startKey,
+      final byte[] endKey
+  ) {
+    mStartKey = startKey;
+    mEndKey = endKey;
+  }
+
+  /**
+   * Get a copy of the inclusive start row key, empty if the range is unbounded below.
+   *
+   * @return a copy of the inclusive start row key.
+   */
+  public byte[] getStartKey() {
+    return mStartKey.clone();
+  }
+
+  /**
+   * Get a copy of the exclusive end row key, empty if the range is unbounded above.
+   *
+   * @return a copy of the exclusive end row key.
+   */
+  public byte[] getEndKey() {
+    return mEndKey.clone();
+  }
+
+  /**
+   * Whether the given row key falls within this range.
+   *
+   * @param rowKey HBase row key to test.
+   * @return whether the given row key falls within this range.
+   */
+  public boolean contains(
+      final byte[] rowKey
+  ) {
+    return Bytes.compareTo(mStartKey, rowKey) <= 0
+        && (mEndKey.length == 0 || Bytes.compareTo(rowKey, mEndKey) < 0);
+  }
+
+  /**
+   * Get the part of this range which starts at the given row key. The key must fall within this
+   * range.
+   *
+   * @param rowKey inclusive start row key of the remaining range.
+   * @return the part of this range which starts at the given row key.
+   */
+  public RowKeyRange startingAt(
+      final byte[] rowKey
+  ) {
+    Preconditions.checkArgument(contains(rowKey),
+        "Row key: %s is not within: %s", Bytes.toStringBinary(rowKey), this);
+    return new RowKeyRange(rowKey.clone(), mEndKey);
+  }
+
+  /**
+   * Divide this range into at most {@code count} contiguous ranges of roughly equal key space,
+   * which together cover exactly this range. Keys are interpolated numerically, so the ranges are
+   * balanced in data only if row keys are spread evenly within this range, as they are for hashed
+   * row keys. An unbounded end is treated as a run of 0xff bytes for the purpose of interpolation.
+   *
+   * @param count maximum number of ranges to return.
+   * @return contiguous ranges covering this range, in row key order.
+   */
+  public List<RowKeyRange> split(
+      final int count
+  ) {
+    Preconditions.checkArgument(count > 0, "Split count must be strictly positive, got: %d", count);
+    if (count == 1) {
+      return Lists.newArrayList(this);
+    }
+    final byte[] upper;
+    if (mEndKey.length > 0) {
+      upper = mEndKey;
+    } else {
+      upper = new byte[Math.max(mStartKey.length, UNBOUNDED_SPLIT_KEY_LENGTH)];
+      Arrays.fill(upper, (byte) 0xff);
+    }
+    // Bytes.split interpolates between keys padded with zeros to the same length.
+    final int length = Math.max(mStartKey.length, upper.length);
+    final byte[] paddedStart = Bytes.padTail(mStartKey, length - mStartKey.length);
+    final byte[] paddedUpper = Bytes.padTail(upper, length - upper.length);
+    final List<RowKeyRange> ranges = Lists.newArrayListWithCapacity(count);
+    final byte[][] keys = (Bytes.compareTo(paddedStart, paddedUpper) < 0)
+        ? Bytes.split(paddedStart, paddedUpper, count - 1)
+        : null;
+    if (null == keys) {
+      // The key space is too narrow to divide.
+      ranges.add(this);
+      return ranges;
+    }
+    byte[] start = mStartKey;
+    for (int index = 1; index < keys.length - 1; index++) {
+      // Interpolated keys are padded with zeros, so adjacent keys may collide after the start.
+      if (Bytes.compareTo(start, keys[index]) < 0) {
+        ranges.add(new RowKeyRange(start, keys[index]));
+        start = keys[index];
+      }
+    }
+    ranges.add(new RowKeyRange(start, mEndKey));
+    return ranges;
+  }
+
+  /**
+   * Create scanner options which restrict a Kiji scan to this range.
+   *
+   * @return scanner options which restrict a Kiji scan to this range.
+   */
+  public KijiScannerOptions toScannerOptions() {
+    final KijiScannerOptions options = new KijiScannerOptions();
+    if (mStartKey.length > 0) {
+      options.setStartRow(toEntityId(mStartKey));
+    }
+    if (mEndKey.length > 0) {
+      options.setStopRow(toEntityId(mEndKey));
+    }
+    return options;
+  }
+
+  /**
+   * Wrap a raw HBase row key as a Kiji entity ID.
+   *
+   * @param rowKey HBase row key.
+   * @return the row key wrapped as a Kiji entity ID.
+   */
+  private static EntityId toEntityId(
+      final byte[] rowKey
+  ) {
+    return HBaseEntityId.fromHBaseRowKey(rowKey);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean equals(
+      final Object other
+  ) {
+    if (!(other instanceof RowKeyRange)) {
+      return false;
+    }
+    final RowKeyRange that = (RowKeyRange) other;
+    return Arrays.equals(mStartKey, that.mStartKey) && Arrays.equals(mEndKey, that.mEndKey);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(Arrays.hashCode(mStartKey), Arrays.hashCode(mEndKey));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(RowKeyRange.class)
+        .add("start_key", Bytes.toStringBinary(mStartKey))
+        .add("end_key", Bytes.toStringBinary(mEndKey))
+        .toString();
+  }
+}
@@ -0,0 +1,934 @@
+package org.kiji.express.flow;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.kiji.annotations.ApiAudience;
+import org.kiji.annotations.ApiStability;
+import org.kiji.schema.Kiji;
+import org.kiji.schema.KijiDataRequest;
+import org.kiji.schema.KijiIOException;
+import org.kiji.schema.KijiRegion;
+import org.kiji.schema.KijiRowData;
+import org.kiji.schema.KijiRowScanner;
+import org.kiji.schema.KijiTable;
+import org.kiji.schema.KijiTableReader;
+import org.kiji.schema.KijiURI;
+import org.kiji.schema.avro.HashSpec;
+import org.kiji.schema.avro.RowKeyEncoding;
+import org.kiji.schema.avro.RowKeyFormat;
+import org.kiji.schema.avro.RowKeyFormat2;
+import org.kiji.schema.util.ResourceUtils;
+
+/**
+ * Scan of a logical key range or prefix of a table whose row keys start with a hash prefix, or
+ * salt.
+ *
+ * <p>
+ *   A salted table stores each row under its logical key preceded by a few bytes of its hash, so
+ *   rows adjacent in logical key order are spread across the whole table and a logical range
+ *   cannot be read with a single contiguous scan. Within each salt bucket, however, rows remain
+ *   sorted by logical key, and adjacent buckets are stored in the same region. {@link
+ *   #planScans(Configuration)} groups the buckets of each region into a single row key range,
+ *   spanning from the logical range of the first bucket of the region to that of its last.
+ *   {@link #open(Configuration, RowKeyRange)} reads one planned range with a single scanner, which
+ *   is reopened at the start of the logical range of the next bucket only when it runs past the end
+ *   of the logical range of a bucket, so a range with no upper bound is read without reopening.
+ *   Planned ranges may be read one after another with {@link #open(Configuration)}, or by
+ *   separate processes. {@link #publishScans(Path, int, Configuration)} divides each planned
+ *   range into chunks and publishes them to a {@link DynamicSplits} queue, from which scanners
+ *   opened with {@link #open(Configuration, DynamicSplits, String, long)} claim chunks until the
+ *   queue runs dry.
+ * </p>
+ *
+ * <p>
+ *   Logical keys are the bytes of the HBase row key after the salt, as returned by
+ *   {@link #getLogicalKey(byte[], int)}. Only salts of at most {@value #MAX_SALT_BYTES} bytes can
+ *   be enumerated; tables keyed by a longer hash prefix, or by a hash alone, cannot be range
+ *   scanned. SaltedScan reads the table directly and is not a Cascading tap.
+ * </p>
+ */
+@ApiAudience.Public
+@ApiStability.Experimental
+public final class SaltedScan {
+
+  /** Maximum number of salt bytes, so at most 65536 salt buckets are scanned. */
+  public static final int MAX_SALT_BYTES = 2;
+
+  /** Maximum number of rows read from one bucket by each scanner of a per range merge. */
+  private static final int MAX_MERGE_PAGE_ROWS = 256;
+
+  private static final Logger LOG = LoggerFactory.getLogger(SaltedScan.class);
+
+  /**
+   * Create a new SaltedScan of the table described by the given builder, covering every logical
+   * key until a range or prefix is configured.
+   *
+   * @param tap builder whose table URI, time range and input columns describe what is read.
+   * @return a new SaltedScan.
+   */
+  public static SaltedScan create(
+      final TapBuilder tap
+  ) {
+    Preconditions.checkNotNull(tap, "Tap builder may not be null.");
+    Preconditions.checkArgument(null != tap.getTableURI(), "Tap builder must have a table URI.");
+    return new SaltedScan(tap.snapshot());
+  }
+
+  /**
+   * Get the logical key of a row key, by removing its salt.
+   *
+   * @param rowKey HBase row key.
+   * @param saltBytes number of salt bytes of the table, from {@link #getSaltBytes(Configuration)}.
+   * @return the logical key of the given row key.
+   */
+  public static byte[] getLogicalKey(
+      final byte[] rowKey,
+      final int saltBytes
+  ) {
+    Preconditions.checkArgument(rowKey.length >= saltBytes,
+        "Row key: %s is shorter than its salt.", Bytes.toStringBinary(rowKey));
+    return Bytes.tail(rowKey, rowKey.length - saltBytes);
+  }
+
+  private final TapSnapshot mTap;
+  private byte[] mLogicalStart = new byte[0];
+  private byte[] mLogicalEnd = new byte[0];
+  private boolean mLogicalRangeSet = false;
+  private boolean mPerRangeOrder = false;
+
+  /**
+   * Private constructor, use {@link #create(TapBuilder)}.
+   *
+   * @param tap snapshot of the builder describing what is read.
+   */
+  private SaltedScan(
+      final TapSnapshot tap
+  ) {
+    mTap = tap;
+  }
+
+  /**
+   * Configure the scan to read the given range of logical keys.
+   *
+   * @param logicalStart inclusive start logical key, or an empty array for no lower bound.
+   * @param logicalEnd exclusive end logical key, or an empty array for no upper bound.
+   * @return this.
+   */
+  public SaltedScan withLogicalRange(
+      final byte[] logicalStart,
+      final byte[] logicalEnd
+  ) {
+    Preconditions.checkNotNull(logicalStart, "Logical start key may not be null.");
+    Preconditions.checkNotNull(logicalEnd, "Logical end key may not be null.");
+    Preconditions.checkArgument(
+        logicalEnd.length == 0 || Bytes.compareTo(logicalStart, logicalEnd) < 0,
+        "Logical start key: %s must sort before logical end key: %s",
+        Bytes.toStringBinary(logicalStart), Bytes.toStringBinary(logicalEnd));
+    Preconditions.checkState(!mLogicalRangeSet, "Logical range already set to: %s",
+        RowKeyRange.of(mLogicalStart, mLogicalEnd));
+    mLogicalStart = logicalStart.clone();
+    mLogicalEnd = logicalEnd.clone();
+    mLogicalRangeSet = true;
+    return this;
+  }
+
+  /**
+   * Configure the scan to read the logical keys starting with the given prefix.
+   *
+   * @param logicalPrefix prefix of the logical keys to read.
+   * @return this.
+   */
+  public SaltedScan withLogicalPrefix(
+      final byte[] logicalPrefix
+  ) {
+    Preconditions.checkNotNull(logicalPrefix, "Logical prefix may not be null.");
+    return withLogicalRange(logicalPrefix, getPrefixEnd(logicalPrefix));
+  }
+
+  /**
+   * Configure the scanners of this scan to return the rows of each planned range, or chunk, in
+   * logical key order, by merging the buckets of the range. The rows of the whole logical range are
+   * not globally ordered: a scanner returns the rows of each range it reads in turn, without
+   * merging them with those of other ranges, since that would require reading every bucket of the
+   * table at once. Use a grouping to order the rows of the whole logical range.
+   *
+   * <p>
+   *   The merge reads each bucket in pages, closing the scanner after each page, so at most one
+   *   scanner is open at a time. Pages start at a single row per bucket and double in size, up to
+   *   {@value #MAX_MERGE_PAGE_ROWS} rows, as a bucket keeps contributing rows, so memory is bounded
+   *   by the number of buckets in a region while scanners are reopened rarely for large buckets.
+   * </p>
+   *
+   * @return this.
+   */
+  public SaltedScan withPerRangeOrder() {
+    Preconditions.checkState(!mPerRangeOrder, "Per range order already enabled.");
+    mPerRangeOrder = true;
+    return this;
+  }
+
+  /**
+   * Get the number of salt bytes at the start of the row keys of the scanned table.
+   *
+   * @param conf Hadoop configuration used to open the table.
+   * @return the number of salt bytes, 0 if the row keys are not salted.
+   * @throws IOException in case of an error reading the table layout.
+   */
+  public int getSaltBytes(
+      final Configuration conf
+  ) throws IOException {
+    final KijiURI tableURI = mTap.getTableURI();
+    final Kiji kiji = Kiji.Factory.open(tableURI, conf);
+    try {
+      final KijiTable table = kiji.openTable(tableURI.getTable());
+      try {
+        return getSaltBytes(table);
+      } finally {
+        ResourceUtils.releaseOrLog(table);
+      }
+    } finally {
+      ResourceUtils.releaseOrLog(kiji);
+    }
+  }
+
+  /**
+   * Get the number of salt bytes at the start of the row keys of the given table.
+   *
+   * @param table scanned table.
+   * @return the number of salt bytes, 0 if the row keys are not salted.
+   */
+  private int getSaltBytes(
+      final KijiTable table
+  ) {
+    final KijiURI tableURI = mTap.getTableURI();
+    final Object keysFormat = table.getLayout().getDesc().getKeysFormat();
+    final int saltBytes;
+    if (keysFormat instanceof RowKeyFormat2) {
+      final RowKeyFormat2 format = (RowKeyFormat2) keysFormat;
+      final HashSpec salt = format.getSalt();
+      if (RowKeyEncoding.RAW == format.getEncoding() || null == salt) {
+        saltBytes = 0;
+      } else {
+        Preconditions.checkArgument(!salt.getSuppressKeyMaterialization(),
+            "Table: %s stores only the hash of its keys and cannot be range scanned.", tableURI);
+        saltBytes = salt.getHashSize();
+      }
+    } else {
+      final RowKeyFormat format = (RowKeyFormat) keysFormat;
+      Preconditions.checkArgument(RowKeyEncoding.HASH != format.getEncoding(),
+          "Table: %s stores only the hash of its keys and cannot be range scanned.", tableURI);
+      saltBytes = (RowKeyEncoding.HASH_PREFIX == format.getEncoding()) ? format.getHashSize() : 0;
+    }
+    Preconditions.checkArgument(saltBytes <= MAX_SALT_BYTES,
+        "Table: %s has a salt of %s bytes; at most %s bytes can be enumerated.",
+        tableURI, saltBytes, MAX_SALT_BYTES);
+    return saltBytes;
+  }
+
+  /**
+   * Plan one row key range per region of the table holding part of the configured logical range.
+   * Each range spans the logical ranges of the salt buckets stored in its region, and may contain
+   * rows between buckets which are outside the logical range; read it with
+   * {@link #open(Configuration, RowKeyRange)}, which skips them.
+   *
+   * @param conf Hadoop configuration used to open the table.
+   * @return one row key range per region holding part of the logical range, in row key order.
+   * @throws IOException in case of an error reading the table layout or regions.
+   */
+  public List<RowKeyRange> planScans(
+      final Configuration conf
+  ) throws IOException {
+    final KijiURI tableURI = mTap.getTableURI();
+    final Kiji kiji = Kiji.Factory.open(tableURI, conf);
+    try {
+      final KijiTable table = kiji.openTable(tableURI.getTable());
+      try {
+        final Buckets buckets = new Buckets(getSaltBytes(table), mLogicalStart, mLogicalEnd);
+        final List<RowKeyRange> ranges = Lists.newArrayList();
+        for (KijiRegion region : table.getRegions()) {
+          final RowKeyRange range = buckets.span(region.getStartKey(), region.getEndKey());
+          if (null != range) {
+            ranges.add(range);
+          }
+        }
+        return ranges;
+      } finally {
+        ResourceUtils.releaseOrLog(table);
+      }
+    } finally {
+      ResourceUtils.releaseOrLog(kiji);
+    }
+  }
+
+  /**
+   * Open a scanner over the rows of the configured logical range, reading each range planned by
+   * {@link #planScans(Configuration)} in turn.
+   *
+   * @param conf Hadoop configuration used to open the table.
+   * @return a scanner over the rows of the logical range, which must be closed by the caller.
+   * @throws IOException in case of an error reading the table layout or opening a scanner.
+   */
+  public Scanner open(
+      final Configuration conf
+  ) throws IOException {
+    return open(conf, planScans(conf), null, null, 0L);
+  }
+
+  /**
+   * Open a scanner over the rows of the configured logical range within one range planned by
+   * {@link #planScans(Configuration)}.
+   *
+   * @param conf Hadoop configuration used to open the table.
+   * @param plannedRange range planned by {@link #planScans(Configuration)}.
+   * @return a scanner over the rows of the logical range within the planned range, which must be
+   *     closed by the caller.
+   * @throws IOException in case of an error reading the table layout or opening a scanner.
+   */
+  public Scanner open(
+      final Configuration conf,
+      final RowKeyRange plannedRange
+  ) throws IOException {
+    Preconditions.checkNotNull(plannedRange, "Planned range may not be null.");
+    return open(conf, Lists.newArrayList(plannedRange), null, null, 0L);
+  }
+
+  /**
+   * Divide each range planned by {@link #planScans(Configuration)} into chunks and publish them
+   * to a new {@link DynamicSplits} queue, to be read by scanners opened with
+   * {@link #open(Configuration, DynamicSplits, String, long)}.
+   *
+   * @param directory directory in which to create the queue.
+   * @param chunksPerRange maximum number of chunks into which each planned range is divided.
+   * @param conf Hadoop configuration used to open the table and access the directory.
+   * @return the published queue.
+   * @throws IOException in case of an error reading the table or writing the queue.
+   */
+  public DynamicSplits publishScans(
+      final Path directory,
+      final int chunksPerRange,
+      final Configuration conf
+  ) throws IOException {
+    Preconditions.checkArgument(chunksPerRange > 0,
+        "Chunks per range must be strictly positive, got: %d", chunksPerRange);
+    final List<RowKeyRange> chunks = Lists.newArrayList();
+    for (RowKeyRange plannedRange : planScans(conf)) {
+      chunks.addAll(plannedRange.split(chunksPerRange));
+    }
+    return DynamicSplits.publish(directory, chunks, conf);
+  }
+
+  /**
+   * Open a scanner over the rows of the configured logical range within the chunks it claims
+   * from a queue published by {@link #publishScans(Path, int, Configuration)}. The scanner claims
+   * one chunk at a time, renews its lease while reading it, and completes it once every row of
+   * the chunk has been returned. It is exhausted once no chunk is pending; chunks still claimed by
+   * other attempts may be requeued afterwards, see {@link DynamicSplits#isExhausted()}.
+   *
+   * <p>
+   *   Leases are only renewed from {@link Scanner#hasNext()}, so the lease must be longer than the
+   *   time spent processing a row. If the lease of a chunk expires anyway, the scanner abandons the
+   *   chunk to whichever attempt claims it next, and the rows of the chunk already returned are
+   *   returned again by that attempt.
+   * </p>
+   *
+   * @param conf Hadoop configuration used to open the table.
+   * @param splits queue of chunks published by {@link #publishScans(Path, int, Configuration)}.
+   * @param attemptId ID of the task attempt claiming chunks.
+   * @param leaseMillis duration of the lease of each claim, in milliseconds.
+   * @return a scanner over the rows of the logical range within the claimed chunks, which must be
+   *     closed by the caller.
+   * @throws IOException in case of an error reading the table layout or opening the table.
+   */
+  public Scanner open(
+      final Configuration conf,
+      final DynamicSplits splits,
+      final String attemptId,
+      final long leaseMillis
+  ) throws IOException {
+    Preconditions.checkNotNull(splits, "Dynamic splits may not be null.");
+    Preconditions.checkNotNull(attemptId, "Attempt ID may not be null.");
+    Preconditions.checkArgument(leaseMillis > 0,
+        "Lease must be strictly positive, but got: %d", leaseMillis);
+    return open(conf, Lists.<RowKeyRange>newArrayList(), splits, attemptId, leaseMillis);
+  }
+
+  /**
+   * Open a scanner over the rows of the configured logical range within the given planned ranges,
+   * followed by the chunks claimed from the given queue, if any.
+   *
+   * @param conf Hadoop configuration used to open the table.
+   * @param plannedRanges ranges planned by {@link #planScans(Configuration)}, read in order.
+   * @param splits queue from which to claim chunks once the planned ranges are read, or null.
+   * @param attemptId ID of the task attempt claiming chunks, or null without a queue.
+   * @param leaseMillis duration of the lease of each claim, in milliseconds.
+   * @return a scanner over the rows, which must be closed by the caller.
+   * @throws IOException in case of an error reading the table layout or opening the table.
+   */
+  private Scanner open(
+      final Configuration conf,
+      final List<RowKeyRange> plannedRanges,
+      final DynamicSplits splits,
+      final String attemptId,
+      final long leaseMillis
+  ) throws IOException {
+    final KijiURI tableURI = mTap.getTableURI();
+    final Kiji kiji = Kiji.Factory.open(tableURI, conf);
+    try {
+      final KijiTable table = kiji.openTable(tableURI.getTable());
+      try {
+        final Buckets buckets = new Buckets(getSaltBytes(table), mLogicalStart, mLogicalEnd);
+        return new Scanner(kiji, table, mTap, buckets, plannedRanges, mPerRangeOrder,
+            splits, attemptId, leaseMillis);
+      } catch (IOException ioe) {
+        ResourceUtils.releaseOrLog(table);
+        throw ioe;
+      } catch (RuntimeException re) {
+        ResourceUtils.releaseOrLog(table);
+        throw re;
+      }
+    } catch (IOException ioe) {
+      ResourceUtils.releaseOrLog(kiji);
+      throw ioe;
+    } catch (RuntimeException re) {
+      ResourceUtils.releaseOrLog(kiji);
+      throw re;
+    }
+  }
+
+  /**
+   * Get the smallest key greater than every key starting with the given prefix.
+   *
+   * @param prefix key prefix.
+   * @return the end of the range of keys starting with the prefix, or an empty array if the range
+   *     is unbounded above.
+   */
+  private static byte[] getPrefixEnd(
+      final byte[] prefix
+  ) {
+    int length = prefix.length;
+    while (length > 0 && (byte) 0xff == prefix[length - 1]) {
+      length--;
+    }
+    if (0 == length) {
+      return new byte[0];
+    }
+    final byte[] end = Bytes.head(prefix, length);
+    end[length - 1]++;
+    return end;
+  }
+
+  /** Salt buckets of a table and the row keys of the logical range within each bucket. */
+  private static final class Buckets {
+    private final int mSaltBytes;
+    private final byte[] mLogicalStart;
+    private final byte[] mLogicalEnd;
+
+    /**
+     * Create a new description of the buckets of a table.
+     *
+     * @param saltBytes number of salt bytes of the table.
+     * @param logicalStart inclusive start logical key, or an empty array.
+     * @param logicalEnd exclusive end logical key, or an empty array.
+     */
+    private Buckets(
+        final int saltBytes,
+        final byte[] logicalStart,
+        final byte[] logicalEnd
+    ) {
+      mSaltBytes = saltBytes;
+      mLogicalStart = logicalStart;
+      mLogicalEnd = logicalEnd;
+    }
+
+    /**
+     * Get the number of buckets.
+     *
+     * @return the number of buckets, 1 if the table is not salted.
+     */
+    private int count() {
+      return 1 << (Byte.SIZE * mSaltBytes);
+    }
+
+    /**
+     * Get the salt of a bucket.
+     *
+     * @param bucket index of the bucket.
+     * @return the salt bytes of the bucket.
+     */
+    private byte[] salt(
+        final int bucket
+    ) {
+      return Bytes.tail(Bytes.toBytes(bucket), mSaltBytes);
+    }
+
+    /**
+     * Get the first row key of the logical range within a bucket.
+     *
+     * @param bucket index of the bucket.
+     * @return the inclusive start row key of the logical range within the bucket.
+     */
+    private byte[] start(
+        final int bucket
+    ) {
+      return Bytes.add(salt(bucket), mLogicalStart);
+    }
+
+    /**
+     * Get the end row key of the logical range within a bucket.
+     *
+     * @param bucket index of the bucket.
+     * @return the exclusive end row key of the logical range within the bucket, or an empty array
+     *     if unbounded.
+     */
+    private byte[] end(
+        final int bucket
+    ) {
+      if (mLogicalEnd.length > 0) {
+        return Bytes.add(salt(bucket), mLogicalEnd);
+      } else if (bucket + 1 < count()) {
+        return salt(bucket + 1);
+      } else {
+        return new byte[0];
+      }
+    }
+
+    /**
+     * Get the bucket whose salt is the first salt bytes of the given key, padded with zeros.
+     *
+     * @param key row key, possibly shorter than the salt.
+     * @return the index of the bucket.
+     */
+    private int bucketOf(
+        final byte[] key
+    ) {
+      int bucket = 0;
+      for (int index = 0; index < mSaltBytes; index++) {
+        bucket = (bucket << Byte.SIZE) | ((index < key.length) ? key[index] & 0xff : 0);
+      }
+      return bucket;
+    }
+
+    /**
+     * Get the last bucket holding keys below the given end key.
+     *
+     * @param endKey exclusive end row key, or an empty array if unbounded.
+     * @return the index of the last bucket holding keys below the end key.
+     */
+    private int lastBucketBefore(
+        final byte[] endKey
+    ) {
+      if (endKey.length == 0) {
+        return count() - 1;
+      }
+      // An end key no longer than the salt sorts at or before every key of its own bucket.
+      return (endKey.length <= mSaltBytes) ? bucketOf(endKey) - 1 : bucketOf(endKey);
+    }
+
+    /**
+     * Compare the logical key of a row key with the logical range.
+     *
+     * @param rowKey row key at least as long as the salt.
+     * @return a negative number if the logical key is below the range, a positive number if it is
+     *     at or above its end, or 0 if it is within the range.
+     */
+    private int compareToRange(
+        final byte[] rowKey
+    ) {
+      final int length = rowKey.length - mSaltBytes;
+      if (Bytes.compareTo(rowKey, mSaltBytes, length, mLogicalStart, 0, mLogicalStart.length) < 0) {
+        return -1;
+      }
+      if (mLogicalEnd.length > 0
+          && Bytes.compareTo(rowKey, mSaltBytes, length, mLogicalEnd, 0, mLogicalEnd.length) >= 0) {
+        return 1;
+      }
+      return 0;
+    }
+
+    /**
+     * Get the range spanning the logical range of every bucket within a key range.
+     *
+     * @param startKey inclusive start row key of the key range.
+     * @param endKey exclusive end row key of the key range, or an empty array if unbounded.
+     * @return the range spanning the logical range of every bucket within the key range, or null
+     *     if the key range holds no part of the logical range.
+     */
+    private RowKeyRange span(
+        final byte[] startKey,
+        final byte[] endKey
+    ) {
+      final int first = bucketOf(startKey);
+      final int last = lastBucketBefore(endKey);
+      if (first > last) {
+        return null;
+      }
+      final byte[] start = max(startKey, start(first));
+      final byte[] end = minEnd(endKey, end(last));
+      if (end.length > 0 && Bytes.compareTo(start, end) >= 0) {
+        return null;
+      }
+      return RowKeyRange.of(start, end);
+    }
+
+    /**
+     * Get the larger of two start keys.
+     *
+     * @param left first start key.
+     * @param right second start key.
+     * @return the larger of the given keys.
+     */
+    private static byte[] max(
+        final byte[] left,
+        final byte[] right
+    ) {
+      return (Bytes.compareTo(left, right) >= 0) ? left : right;
+    }
+
+    /**
+     * Get the smaller of two end keys, where an empty end key is unbounded.
+     *
+     * @param left first end key.
+     * @param right second end key.
+     * @return the smaller of the given end keys.
+     */
+    private static byte[] minEnd(
+        final byte[] left,
+        final byte[] right
+    ) {
+      if (left.length == 0) {
+        return right;
+      } else if (right.length == 0) {
+        return left;
+      } else {
+        return (Bytes.compareTo(left, right) <= 0) ? left : right;
+      }
+    }
+  }
+
+  /**
+   * Scanner over the rows of the logical range within a list of planned ranges, or within the
+   * chunks claimed from a queue of dynamic splits.
+   */
+  public static final class Scanner implements Closeable, Iterator<KijiRowData> {
+    private final Kiji mKiji;
+    private final KijiTable mTable;
+    private final KijiTableReader mReader;
+    private final KijiURI mTableURI;
+    private final KijiDataRequest mRequest;
+    private final Buckets mBuckets;
+    private final List<RowKeyRange> mRanges;
+    private final boolean mPerRangeOrder;
+    private final DynamicSplits mSplits;
+    private final String mAttemptId;
+    private final long mLeaseMillis;
+    private int mNextRange = 0;
+    private DynamicSplits.Claim mClaim = null;
+    private KijiRowScanner mScanner = null;
+    private Iterator<KijiRowData> mRows = null;
+    private byte[] mRangeEnd = null;
+    private PriorityQueue<BucketPage> mPages = null;
+    private KijiRowData mNext = null;
+
+    /** Next rows of one bucket, read in pages by a per range merge. */
+    private final class BucketPage {
+      private final Deque<KijiRowData> mBuffered = new ArrayDeque<KijiRowData>();
+      private final byte[] mEnd;
+      private byte[] mNextStart;
+      private int mPageRows = 1;
+      private boolean mExhausted = false;
+
+      /**
+       * Create the pages of a bucket. No rows are read until {@link #fill()}.
+       *
+       * @param start inclusive start row key of the bucket within the planned range.
+       * @param end exclusive end row key of the bucket within the planned range, or an empty array.
+       */
+      private BucketPage(
+          final byte[] start,
+          final byte[] end
+      ) {
+        mNextStart = start;
+        mEnd = end;
+      }
+
+      /**
+       * Read the next page of the bucket if no rows are buffered.
+       *
+       * @return whether any row is buffered.
+       * @throws IOException in case of an error scanning the bucket.
+       */
+      private boolean fill() throws IOException {
+        if (mBuffered.isEmpty() && !mExhausted) {
+          final Iterator<KijiRowData> rows = scan(mNextStart, mEnd);
+          while (mBuffered.size() < mPageRows && rows.hasNext()) {
+            mBuffered.add(rows.next());
+          }
+          mExhausted = !rows.hasNext();
+          closeScanner();
+          if (!mBuffered.isEmpty()) {
+            // The smallest row key after the last buffered row.
+            mNextStart = Bytes.add(mBuffered.getLast().getEntityId().getHBaseRowKey(), new byte[1]);
+            mExhausted |= mEnd.length > 0 && Bytes.compareTo(mNextStart, mEnd) >= 0;
+          }
+          mPageRows = Math.min(2 * mPageRows, MAX_MERGE_PAGE_ROWS);
+        }
+        return !mBuffered.isEmpty();
+      }
+    }
+
+    /**
+     * Create a scanner over the given table, taking ownership of the table and Kiji instance.
+     *
+     * @param kiji Kiji instance of the table.
+     * @param table scanned table.
+     * @param tap snapshot of the builder describing what is read.
+     * @param buckets salt buckets of the table and the logical range.
+     * @param ranges planned ranges to read, in order.
+     * @param perRangeOrder whether to merge the rows of each planned range in logical key order.
+     * @param splits queue from which to claim chunks once the planned ranges are read, or null.
+     * @param attemptId ID of the task attempt claiming chunks, or null without a queue.
+     * @param leaseMillis duration of the lease of each claim, in milliseconds.
+     * @throws IOException in case of an error opening a reader.
+     */
+    private Scanner(
+        final Kiji kiji,
+        final KijiTable table,
+        final TapSnapshot tap,
+        final Buckets buckets,
+        final List<RowKeyRange> ranges,
+        final boolean perRangeOrder,
+        final DynamicSplits splits,
+        final String attemptId,
+        final long leaseMillis
+    ) throws IOException {
+      mReader = table.openTableReader();
+      mKiji = kiji;
+      mTable = table;
+      mTableURI = tap.getTableURI();
+      mRequest = ColumnRequests.build(tap.getInputColumns(), tap.getTimeRangeSpec());
+      mBuckets = buckets;
+      mRanges = ranges;
+      mPerRangeOrder = perRangeOrder;
+      mSplits = splits;
+      mAttemptId = attemptId;
+      mLeaseMillis = leaseMillis;
+    }
+
+    /**
+     * Get the next range to read, completing the chunk just read and claiming the next one once
+     * the planned ranges are read.
+     *
+     * @return the next range to read, or null if there is none.
+     * @throws IOException in case of an error accessing the queue of dynamic splits.
+     */
+    private RowKeyRange nextRange() throws IOException {
+      if (mNextRange < mRanges.size()) {
+        return mRanges.get(mNextRange++);
+      }
+      if (null == mSplits) {
+        return null;
+      }
+      if (null != mClaim && !mSplits.complete(mClaim)) {
+        LOG.warn("Lease of chunk: {} expired before it was completed by attempt: {}.",
+            mClaim.getRange(), mAttemptId);
+      }
+      mClaim = mSplits.claim(mAttemptId, mLeaseMillis);
+      return (null == mClaim) ? null : mClaim.getRange();
+    }
+
+    /**
+     * Renew the lease of the claimed chunk once half of it has elapsed.
+     *
+     * @return whether the chunk is still claimed, or no chunk is claimed.
+     * @throws IOException in case of an error accessing the queue of dynamic splits.
+     */
+    private boolean renewClaim() throws IOException {
+      if (null == mClaim
+          || System.currentTimeMillis() < mClaim.getExpiryMillis() - mLeaseMillis / 2) {
+        return true;
+      }
+      final DynamicSplits.Claim renewed = mSplits.renew(mClaim, mLeaseMillis);
+      if (null == renewed) {
+        LOG.warn("Lease of chunk: {} expired; attempt: {} abandons it.",
+            mClaim.getRange(), mAttemptId);
+        mClaim = null;
+        return false;
+      }
+      mClaim = renewed;
+      return true;
+    }
+
+    /**
+     * Replace the open scanner by a scanner over the given keys.
+     *
+     * @param start inclusive start row key.
+     * @param end exclusive end row key, or an empty array if unbounded.
+     * @return an iterator over the rows of the new scanner.
+     * @throws IOException in case of an error opening the scanner.
+     */
+    private Iterator<KijiRowData> scan(
+        final byte[] start,
+        final byte[] end
+    ) throws IOException {
+      closeScanner();
+      mScanner = mReader.getScanner(mRequest, RowKeyRange.of(start, end).toScannerOptions());
+      return mScanner.iterator();
+    }
+
+    /** Close the open scanner, if any. */
+    private void closeScanner() {
+      ResourceUtils.closeOrLog(mScanner);
+      mScanner = null;
+    }
+
+    /**
+     * Start reading the given planned range.
+     *
+     * @param range planned range to read.
+     * @throws IOException in case of an error opening a scanner.
+     */
+    private void startRange(
+        final RowKeyRange range
+    ) throws IOException {
+      mRangeEnd = range.getEndKey();
+      if (!mPerRangeOrder) {
+        mRows = scan(range.getStartKey(), mRangeEnd);
+        return;
+      }
+      final int saltBytes = mBuckets.mSaltBytes;
+      mPages = new PriorityQueue<BucketPage>(11, new Comparator<BucketPage>() {
+        /** {@inheritDoc} */
+        @Override
+        public int compare(
+            final BucketPage left,
+            final BucketPage right
+        ) {
+          final byte[] leftKey = left.mBuffered.getFirst().getEntityId().getHBaseRowKey();
+          final byte[] rightKey = right.mBuffered.getFirst().getEntityId().getHBaseRowKey();
+          return Bytes.compareTo(
+              leftKey, saltBytes, leftKey.length - saltBytes,
+              rightKey, saltBytes, rightKey.length - saltBytes);
+        }
+      });
+      final int last = mBuckets.lastBucketBefore(mRangeEnd);
+      for (int bucket = mBuckets.bucketOf(range.getStartKey()); bucket <= last; bucket++) {
+        final byte[] start = Buckets.max(range.getStartKey(), mBuckets.start(bucket));
+        final byte[] end = Buckets.minEnd(mRangeEnd, mBuckets.end(bucket));
+        if (end.length == 0 || Bytes.compareTo(start, end) < 0) {
+          final BucketPage page = new BucketPage(start, end);
+          if (page.fill()) {
+            mPages.add(page);
+          }
+        }
+      }
+    }
+
+    /**
+     * Read the next row of the current planned range within the logical range.
+     *
+     * @return the next row, or null if the current planned range is exhausted.
+     * @throws IOException in case of an error scanning the table.
+     */
+    private KijiRowData readRow() throws IOException {
+      if (mPerRangeOrder) {
+        final BucketPage page = mPages.poll();
+        if (null == page) {
+          return null;
+        }
+        final KijiRowData row = page.mBuffered.removeFirst();
+        if (page.fill()) {
+          mPages.add(page);
+        }
+        return row;
+      }
+      while (mRows.hasNext()) {
+        final KijiRowData row = mRows.next();
+        final byte[] rowKey = row.getEntityId().getHBaseRowKey();
+        if (rowKey.length < mBuckets.mSaltBytes) {
+          continue;
+        }
+        final int comparison = mBuckets.compareToRange(rowKey);
+        if (0 == comparison) {
+          return row;
+        }
+        // Skip to the logical range of this bucket or the next one.
+        final int bucket = mBuckets.bucketOf(rowKey) + ((comparison < 0) ? 0 : 1);
+        if (bucket >= mBuckets.count()) {
+          return null;
+        }
+        final byte[] start = mBuckets.start(bucket);
+        if (mRangeEnd.length > 0 && Bytes.compareTo(start, mRangeEnd) >= 0) {
+          return null;
+        }
+        mRows = scan(start, mRangeEnd);
+      }
+      return null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean hasNext() {
+      try {
+        while (null == mNext) {
+          if (null != mRangeEnd && renewClaim()) {
+            mNext = readRow();
+          }
+          if (null == mNext) {
+            closeScanner();
+            final RowKeyRange range = nextRange();
+            if (null == range) {
+              mRangeEnd = null;
+              return false;
+            }
+            startRange(range);
+          }
+        }
+      } catch (IOException ioe) {
+        throw new KijiIOException("Unable to scan table: " + mTableURI, ioe);
+      }
+      return true;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public KijiRowData next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      final KijiRowData row = mNext;
+      mNext = null;
+      return row;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException("Salted scanners are read-only.");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void close() {
+      closeScanner();
+      ResourceUtils.closeOrLog(mReader);
+      ResourceUtils.releaseOrLog(mTable);
+      ResourceUtils.releaseOrLog(mKiji);
+    }
+  }
+}
@@ -0,0 +1,135 @@
+package org.kiji.express.flow;
+
+import java.io.IOException;
+
+import cascading.flow.FlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Filter;
+import cascading.operation.FilterCall;
+import cascading.operation.OperationCall;
+import cascading.tuple.TupleException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.kiji.annotations.ApiAudience;
+import org.kiji.schema.EntityIdFactory;
+import org.kiji.schema.Kiji;
+import org.kiji.schema.KijiTable;
+import org.kiji.schema.KijiURI;
+import org.kiji.schema.util.ResourceUtils;
+
+/**
+ * Cascading filter which removes rows at or before the checkpoint of the current split, so that a
+ * retried task does not process or write again the rows processed by a previous attempt. Expects
+ * a single argument containing a KijiExpress entity ID.
+ *
+ * <p>
+ *   The retried task still scans its split from the start: the filter only skips downstream
+ *   processing of the rows up to the checkpoint, which are read from the region servers and
+ *   decoded as before. Starting the scan at the checkpoint would require a per-split start key in
+ *   the KijiSource input format, which this module cannot provide.
+ * </p>
+ */
+@ApiAudience.Private
+final class SkipCheckpointedRows
+    extends BaseOperation<SkipCheckpointedRows.Context>
+    implements Filter<SkipCheckpointedRows.Context> {
+  private static final long serialVersionUID = 1L;
+  private static final Logger LOG = LoggerFactory.getLogger(SkipCheckpointedRows.class);
+
+  /** Checkpoint of the current split and the factory used to compute row keys. */
+  static final class Context {
+    private final EntityIdFactory mEntityIdFactory;
+    private byte[] mCheckpoint;
+
+    /**
+     * Create a new context.
+     *
+     * @param entityIdFactory factory for entity IDs of the table.
+     * @param checkpoint row key of the last processed row, or null.
+     */
+    private Context(
+        final EntityIdFactory entityIdFactory,
+        final byte[] checkpoint
+    ) {
+      mEntityIdFactory = entityIdFactory;
+      mCheckpoint = checkpoint;
+    }
+  }
+
+  private final String mTableURI;
+  private final String mCheckpointDirectory;
+
+  /**
+   * Create a new SkipCheckpointedRows filter.
+   *
+   * @param tableURI KijiURI of the table being read.
+   * @param checkpointDirectory directory containing the split checkpoints.
+   */
+  SkipCheckpointedRows(
+      final KijiURI tableURI,
+      final Path checkpointDirectory
+  ) {
+    super(1);
+    mTableURI = tableURI.toString();
+    mCheckpointDirectory = checkpointDirectory.toString();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void prepare(
+      final FlowProcess flowProcess,
+      final OperationCall<Context> operationCall
+  ) {
+    final Configuration conf = TupleWriter.getConfiguration(flowProcess);
+    final int slice = flowProcess.getCurrentSliceNum();
+    try {
+      final SplitCheckpoints checkpoints =
+          SplitCheckpoints.open(new Path(mCheckpointDirectory), conf);
+      final byte[] checkpoint = (null == checkpoints) ? null : checkpoints.read(slice);
+      if (null != checkpoint) {
+        LOG.info("Resuming slice {} after checkpointed row key: {}",
+            slice, Bytes.toStringBinary(checkpoint));
+      }
+      final KijiURI tableURI = KijiURI.newBuilder(mTableURI).build();
+      final Kiji kiji = Kiji.Factory.open(tableURI, conf);
+      try {
+        final KijiTable table = kiji.openTable(tableURI.getTable());
+        try {
+          operationCall.setContext(
+              new Context(EntityIdFactory.getFactory(table.getLayout()), checkpoint));
+        } finally {
+          ResourceUtils.releaseOrLog(table);
+        }
+      } finally {
+        ResourceUtils.releaseOrLog(kiji);
+      }
+    } catch (IOException ioe) {
+      throw new TupleException("Unable to read checkpoint of slice: " + slice, ioe);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean isRemove(
+      final FlowProcess flowProcess,
+      final FilterCall<Context> filterCall
+  ) {
+    final Context context = filterCall.getContext();
+    if (null == context.mCheckpoint) {
+      return false;
+    }
+    final byte[] rowKey = ((EntityId) filterCall.getArguments().getObject(0))
+        .toJavaEntityId(context.mEntityIdFactory)
+        .getHBaseRowKey();
+    if (Bytes.compareTo(rowKey, context.mCheckpoint) <= 0) {
+      return true;
+    }
+    // Rows arrive in row key order, so no later row can be at or before the checkpoint.
+    context.mCheckpoint = null;
+    return false;
+  }
+}
@@ -0,0 +1,147 @@
+package org.kiji.express.flow;
+
+import java.io.IOException;
+
+import com.google.common.base.Preconditions;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileContext;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Options;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.kiji.annotations.ApiAudience;
+
+/**
+ * Stores the row key of the last fully processed row of each input split in a directory on a
+ * Hadoop filesystem. Splits are identified by the slice number of the task reading them, which is
+ * the same for every attempt of a task.
+ *
+ * <p>
+ *   Checkpoints are kept in a subdirectory named after the MapReduce job, so that only attempts of
+ *   the same job resume from them; checkpoints left by earlier runs in the same directory are
+ *   ignored. Each attempt writes through its own temporary file, so concurrent attempts of a task,
+ *   such as speculative attempts, never write the same file.
+ * </p>
+ */
+@ApiAudience.Private
+final class SplitCheckpoints {
+  private static final Logger LOG = LoggerFactory.getLogger(SplitCheckpoints.class);
+
+  private final FileSystem mFs;
+  private final FileContext mContext;
+  private final Path mDirectory;
+  private final String mAttemptId;
+
+  /**
+   * Create a new checkpoint store.
+   *
+   * @param fs filesystem of the directory.
+   * @param context file context of the directory, used to replace checkpoints atomically.
+   * @param directory directory holding the checkpoints of the current job.
+   * @param attemptId ID of the current task attempt.
+   */
+  private SplitCheckpoints(
+      final FileSystem fs,
+      final FileContext context,
+      final Path directory,
+      final String attemptId
+  ) {
+    mFs = fs;
+    mContext = context;
+    mDirectory = directory;
+    mAttemptId = attemptId;
+  }
+
+  /**
+   * Open the checkpoint store of the current MapReduce job in the given directory.
+   *
+   * @param directory directory in which to store checkpoints. May be on HDFS or local.
+   * @param conf configuration of the current task.
+   * @return the checkpoint store of the current job, or null if the current task does not belong to
+   *     a MapReduce job, such as in Cascading local mode, where tasks are never retried.
+   * @throws IOException in case of an error accessing the filesystem.
+   */
+  static SplitCheckpoints open(
+      final Path directory,
+      final Configuration conf
+  ) throws IOException {
+    Preconditions.checkNotNull(directory, "Checkpoint directory may not be null.");
+    final String jobId = conf.get("mapreduce.job.id", conf.get("mapred.job.id"));
+    final String attemptId = conf.get("mapreduce.task.attempt.id", conf.get("mapred.task.id"));
+    if (null == jobId || null == attemptId) {
+      LOG.warn("Not running in a MapReduce task, checkpoints in: {} are disabled.", directory);
+      return null;
+    }
+    return new SplitCheckpoints(
+        directory.getFileSystem(conf),
+        FileContext.getFileContext(directory.toUri(), conf),
+        new Path(directory, jobId),
+        attemptId);
+  }
+
+  /**
+   * Read the checkpoint of the given split.
+   *
+   * @param slice slice number of the split.
+   * @return the row key of the last fully processed row, or null if there is no checkpoint.
+   * @throws IOException in case of an error reading the checkpoint.
+   */
+  byte[] read(
+      final int slice
+  ) throws IOException {
+    final Path path = getPath(slice);
+    if (!mFs.exists(path)) {
+      return null;
+    }
+    final FSDataInputStream input = mFs.open(path);
+    try {
+      final byte[] rowKey = new byte[input.readInt()];
+      input.readFully(rowKey);
+      return rowKey;
+    } finally {
+      input.close();
+    }
+  }
+
+  /**
+   * Replace the checkpoint of the given split. The new checkpoint is written to a temporary file
+   * of the current attempt and renamed over the previous checkpoint in a single rename, so a
+   * reader, or an attempt retried after a crash, sees either the old or the new checkpoint.
+   *
+   * @param slice slice number of the split.
+   * @param rowKey row key of the last fully processed row.
+   * @throws IOException in case of an error writing the checkpoint.
+   */
+  void write(
+      final int slice,
+      final byte[] rowKey
+  ) throws IOException {
+    final Path path = getPath(slice);
+    final Path temporary =
+        new Path(mDirectory, String.format("_slice-%05d-%s.tmp", slice, mAttemptId));
+    final FSDataOutputStream output = mFs.create(temporary, true);
+    try {
+      output.writeInt(rowKey.length);
+      output.write(rowKey);
+    } finally {
+      output.close();
+    }
+    mContext.rename(temporary, path, Options.Rename.OVERWRITE);
+  }
+
+  /**
+   * Get the path of the checkpoint of the given split.
+   *
+   * @param slice slice number of the split.
+   * @return the path of the checkpoint of the given split.
+   */
+  private Path getPath(
+      final int slice
+  ) {
+    return new Path(mDirectory, String.format("slice-%05d", slice));
+  }
+}
@@ -0,0 +1,372 @@
+package org.kiji.express.flow;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+import java.util.Queue;
+
+import cascading.flow.FlowProcess;
+import cascading.scheme.Scheme;
+import cascading.scheme.SinkCall;
+import cascading.scheme.SourceCall;
+import cascading.tap.Tap;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryCollector;
+import cascading.tuple.TupleEntryIterator;
+import cascading.tuple.TupleException;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import org.kiji.annotations.ApiAudience;
+import org.kiji.schema.Kiji;
+import org.kiji.schema.KijiRowData;
+import org.kiji.schema.KijiRowScanner;
+import org.kiji.schema.KijiTable;
+import org.kiji.schema.KijiTableReader;
+import org.kiji.schema.KijiURI;
+import org.kiji.schema.util.ResourceUtils;
+
+/**
+ * Unbounded Cascading local mode tap which tails a Kiji table, emitting the cells written since
+ * the previous scan.
+ *
+ * <p>
+ *   The tap scans the table in rounds. Each round reads the cells with timestamps between the
+ *   watermark left by the previous round, inclusive, and the time at which the round started minus
+ *   a safety lag, exclusive, so no cell is emitted twice. The lag leaves time for writes stamped
+ *   with the clock of another host, or still in flight when the round starts, to become visible
+ *   before the watermark passes their timestamp. A round starts at most once per poll interval.
+ *   Rows are read in micro-batches of bounded size and the scanner is closed between batches, so
+ *   that slow downstream operations do not hold a region server scanner open. Cells which become
+ *   visible only after the watermark has passed their timestamp, such as writes delayed by more
+ *   than the lag or with explicit timestamps further in the past, are not emitted.
+ * </p>
+ *
+ * <p>
+ *   Each tuple holds the entity ID of a row in {@link TapBuilder#ENTITY_ID_FIELD} and, in each
+ *   input field, the new cells of its column as a Scala sequence of {@link FlowCell}s, newest
+ *   first per qualifier, or as {@link LazyCells} if lazy decoding is enabled.
+ * </p>
+ */
+@ApiAudience.Private
+final class TailingTap extends Tap<Properties, Object, Object> {
+  private static final long serialVersionUID = 1L;
+
+  private final String mTableURI;
+  private final long mStartTime;
+  private final Map<String, ColumnInputSpec> mInputColumns;
+  private final long mPollIntervalMillis;
+  private final long mSafetyLagMillis;
+  private final int mMicroBatchRows;
+  private final boolean mLazyDecoding;
+
+  /**
+   * Create a new TailingTap.
+   *
+   * @param tableURI KijiURI of the table to tail.
+   * @param startTime timestamp of the oldest cells to emit.
+   * @param inputColumns mapping from field name to input spec.
+   * @param pollIntervalMillis minimum number of milliseconds between the starts of two rounds.
+   * @param safetyLagMillis number of milliseconds by which the end of each round trails its start.
+   * @param microBatchRows maximum number of rows read by one scanner.
+   * @param lazyDecoding whether input fields hold {@link LazyCells} rather than decoded cells.
+   */
+  TailingTap(
+      final KijiURI tableURI,
+      final long startTime,
+      final Map<String, ColumnInputSpec> inputColumns,
+      final long pollIntervalMillis,
+      final long safetyLagMillis,
+      final int microBatchRows,
+      final boolean lazyDecoding
+  ) {
+    super(new TailingScheme(getSourceFields(inputColumns)));
+    Preconditions.checkArgument(pollIntervalMillis > 0,
+        "Poll interval must be strictly positive, but got: %d", pollIntervalMillis);
+    Preconditions.checkArgument(safetyLagMillis >= 0,
+        "Safety lag may not be negative, but got: %d", safetyLagMillis);
+    Preconditions.checkArgument(microBatchRows > 0,
+        "Micro-batch size must be strictly positive, but got: %d", microBatchRows);
+    mTableURI = tableURI.toString();
+    mStartTime = startTime;
+    mInputColumns = ImmutableMap.copyOf(inputColumns);
+    mPollIntervalMillis = pollIntervalMillis;
+    mSafetyLagMillis = safetyLagMillis;
+    mMicroBatchRows = microBatchRows;
+    mLazyDecoding = lazyDecoding;
+  }
+
+  /**
+   * Get the fields of the tuples emitted for the given input columns.
+   *
+   * @param inputColumns mapping from field name to input spec.
+   * @return the entity ID field followed by each input field.
+   */
+  private static Fields getSourceFields(
+      final Map<String, ColumnInputSpec> inputColumns
+  ) {
+    Preconditions.checkArgument(null != inputColumns && !inputColumns.isEmpty(),
+        "Input columns may not be empty.");
+    final List<String> fields = Lists.newArrayList(TapBuilder.ENTITY_ID_FIELD);
+    fields.addAll(ImmutableMap.copyOf(inputColumns).keySet());
+    return new Fields(fields.toArray(new String[fields.size()]));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String getIdentifier() {
+    return "kiji-tail:" + mTableURI;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public TupleEntryIterator openForRead(
+      final FlowProcess<Properties> flowProcess,
+      final Object input
+  ) throws IOException {
+    return new TailingIterator(flowProcess);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public TupleEntryCollector openForWrite(
+      final FlowProcess<Properties> flowProcess,
+      final Object output
+  ) throws IOException {
+    throw new UnsupportedOperationException("Tailing taps are read-only.");
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean createResource(
+      final Properties conf
+  ) throws IOException {
+    return false;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean deleteResource(
+      final Properties conf
+  ) throws IOException {
+    return false;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean resourceExists(
+      final Properties conf
+  ) throws IOException {
+    return true;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public long getModifiedTime(
+      final Properties conf
+  ) throws IOException {
+    // The table is always considered changed, so the tap is never skipped as up to date.
+    return System.currentTimeMillis();
+  }
+
+  /**
+   * Scheme of a TailingTap. It only declares the source fields; tuples are produced directly by
+   * the iterator returned from {@link TailingTap#openForRead(FlowProcess, Object)}.
+   */
+  private static final class TailingScheme extends Scheme<Properties, Object, Object, Void, Void> {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Create a new TailingScheme.
+     *
+     * @param sourceFields fields of the emitted tuples.
+     */
+    private TailingScheme(
+        final Fields sourceFields
+    ) {
+      super(sourceFields);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void sourceConfInit(
+        final FlowProcess<Properties> flowProcess,
+        final Tap<Properties, Object, Object> tap,
+        final Properties conf
+    ) {
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void sinkConfInit(
+        final FlowProcess<Properties> flowProcess,
+        final Tap<Properties, Object, Object> tap,
+        final Properties conf
+    ) {
+      throw new UnsupportedOperationException("Tailing taps are read-only.");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean source(
+        final FlowProcess<Properties> flowProcess,
+        final SourceCall<Void, Object> sourceCall
+    ) throws IOException {
+      throw new UnsupportedOperationException("Tailing taps produce tuples from their iterator.");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void sink(
+        final FlowProcess<Properties> flowProcess,
+        final SinkCall<Void, Object> sinkCall
+    ) throws IOException {
+      throw new UnsupportedOperationException("Tailing taps are read-only.");
+    }
+  }
+
+  /** Iterator which scans the table in rounds, blocking between rounds, until interrupted. */
+  private final class TailingIterator extends TupleEntryIterator {
+    private final KijiTable mTable;
+    private final KijiTableReader mReader;
+    private final Queue<KijiRowData> mBatch = Lists.newLinkedList();
+    private long mWatermark = mStartTime;
+    private long mRoundEnd = 0;
+    private byte[] mResumeKey = null;
+    private long mNextRoundMillis = 0;
+
+    /**
+     * Open the tailed table.
+     *
+     * @param flowProcess current flow process.
+     * @throws IOException in case of an error opening the table.
+     */
+    private TailingIterator(
+        final FlowProcess<Properties> flowProcess
+    ) throws IOException {
+      super(TailingTap.this.getSourceFields());
+      final KijiURI tableURI = KijiURI.newBuilder(mTableURI).build();
+      final Kiji kiji = Kiji.Factory.open(tableURI, TupleWriter.getConfiguration(flowProcess));
+      try {
+        mTable = kiji.openTable(tableURI.getTable());
+      } finally {
+        ResourceUtils.releaseOrLog(kiji);
+      }
+      try {
+        mReader = mTable.openTableReader();
+      } catch (IOException ioe) {
+        ResourceUtils.releaseOrLog(mTable);
+        throw ioe;
+      }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean hasNext() {
+      try {
+        while (mBatch.isEmpty()) {
+          readBatch();
+        }
+        return true;
+      } catch (InterruptedException ie) {
+        // Interrupting the flow is the only way to end an unbounded source.
+        Thread.currentThread().interrupt();
+        return false;
+      } catch (IOException ioe) {
+        throw new TupleException("Unable to scan table: " + mTableURI, ioe);
+      }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public TupleEntry next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return new TupleEntry(getFields(), toTuple(mBatch.remove()));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException("Tailing taps are read-only.");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void close() {
+      ResourceUtils.closeOrLog(mReader);
+      ResourceUtils.releaseOrLog(mTable);
+    }
+
+    /**
+     * Read the next micro-batch of rows, starting a new round first if the previous one is
+     * complete. The batch may be empty if no cells were written since the previous round.
+     *
+     * @throws IOException in case of an error scanning the table.
+     * @throws InterruptedException if interrupted while waiting for the next round.
+     */
+    private void readBatch() throws IOException, InterruptedException {
+      if (null == mResumeKey) {
+        final long wait = mNextRoundMillis - System.currentTimeMillis();
+        if (wait > 0) {
+          Thread.sleep(wait);
+        }
+        final long now = System.currentTimeMillis();
+        mNextRoundMillis = now + mPollIntervalMillis;
+        mRoundEnd = now - mSafetyLagMillis;
+        if (mRoundEnd <= mWatermark) {
+          return;
+        }
+        mResumeKey = new byte[0];
+      }
+
+      final KijiRowScanner scanner = mReader.getScanner(
+          ColumnRequests.build(mInputColumns, new TimeRangeSpec.Between(mWatermark, mRoundEnd)),
+          RowKeyRange.of(mResumeKey, new byte[0]).toScannerOptions());
+      try {
+        final Iterator<KijiRowData> rows = scanner.iterator();
+        byte[] lastRowKey = null;
+        while (mBatch.size() < mMicroBatchRows && rows.hasNext()) {
+          final KijiRowData row = rows.next();
+          lastRowKey = row.getEntityId().getHBaseRowKey();
+          mBatch.add(row);
+        }
+        if (null != lastRowKey && rows.hasNext()) {
+          // Resume the round at the smallest row key after the last row read.
+          mResumeKey = Bytes.add(lastRowKey, new byte[1]);
+        } else {
+          mResumeKey = null;
+          mWatermark = mRoundEnd;
+        }
+      } finally {
+        ResourceUtils.closeOrLog(scanner);
+      }
+    }
+
+    /**
+     * Convert a row into a tuple of its entity ID and the cells of each input column.
+     *
+     * @param row row to convert.
+     * @return a tuple of the entity ID and the cells of each input column of the given row.
+     */
+    private Tuple toTuple(
+        final KijiRowData row
+    ) {
+      final Tuple tuple = new Tuple();
+      tuple.add(EntityId$.MODULE$.fromJavaEntityId(row.getEntityId()));
+      for (ColumnInputSpec spec : mInputColumns.values()) {
+        final LazyCells cells = new LazyCells(row, spec.columnName());
+        tuple.add(mLazyDecoding ? cells : cells.get());
+      }
+      return tuple;
+    }
+  }
+}
@@ -1,15 +1,30 @@
 package org.kiji.express.flow;
 
+import java.io.IOException;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import cascading.pipe.Each;
+import cascading.pipe.GroupBy;
+import cascading.pipe.Pipe;
+import cascading.pipe.assembly.Discard;
+import cascading.property.ConfigDef;
 import cascading.tap.Tap;
+import cascading.tuple.Fields;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseConfiguration;
 
 import org.kiji.annotations.ApiAudience;
 import org.kiji.annotations.ApiStability;
 import org.kiji.express.flow.ColumnInputSpecBuilders.ColumnInputSpecBuilder;
 import org.kiji.express.flow.ColumnOutputSpecBuilders.ColumnOutputSpecBuilder;
+import org.kiji.express.flow.ColumnOutputSpecBuilders.CounterOutputSpecBuilder;
 import org.kiji.schema.KijiURI;
 
 /** Builder for Cascading {@link cascading.tap.Tap}s using Kiji inputs and outputs. */
@@ -17,6 +32,18 @@ import org.kiji.schema.KijiURI;
 @ApiStability.Experimental
 public final class TapBuilder {
 
+  /** Name of the field holding the entity ID of each tuple read from or written to Kiji. */
+  public static final String ENTITY_ID_FIELD = "entityId";
+
+  /** Maximum number of regions sampled by {@link #estimate()}. */
+  private static final int ESTIMATE_SAMPLE_REGIONS = 16;
+
+  /** Number of slices of the key space of each region sampled by {@link #estimate()}. */
+  private static final int ESTIMATE_SLICES_PER_REGION = 10;
+
+  /** Maximum number of rows sampled from each slice of a region by {@link #estimate()}. */
+  private static final int ESTIMATE_ROWS_PER_SLICE = 50;
+
   /**
    * Create a new empty TapBuilder.
    *
@@ -27,7 +54,8 @@ public final class TapBuilder {
   }
 
   /**
-   * Create a copy of the given TapBuilder.
+   * Create a copy of the given TapBuilder. The copy owns its own column maps, so columns added to
+   * either builder are not visible in the other.
    *
    * @param toCopy other TapBuilder to copy.
    * @return a copy of the given TapBuilder.
@@ -43,6 +71,23 @@ public final class TapBuilder {
   private String mTimestampField = null;
   private Map<String, ColumnInputSpec> mInputColumns = Maps.newHashMap();
   private Map<String, ColumnOutputSpec> mOutputColumns = Maps.newHashMap();
+  private Set<String> mCounterFields = Sets.newHashSet();
+  private Map<KijiURI, Map<String, ColumnOutputSpec>> mFanOutTables = Maps.newLinkedHashMap();
+  private Integer mCoalescingBufferSize = null;
+  private WriteMerger mWriteMerger = null;
+  private Map<String, VersionAggregation> mVersionAggregations = Maps.newHashMap();
+  private Map<String, TimeRangeSpec> mColumnTimeRanges = Maps.newHashMap();
+  private EntityIdBloomFilter mEntityIdBloomFilter = null;
+  private boolean mRowTransform = false;
+  private Path mCheckpointDirectory = null;
+  private int mCheckpointInterval = 0;
+  private Long mTailPollIntervalMillis = null;
+  private long mTailSafetyLagMillis = 0;
+  private int mTailMicroBatchRows = 0;
+  private List<byte[]> mReducerBoundaries = null;
+  private boolean mLazyDecoding = false;
+  private Long mMaxCellsPerSecond = null;
+  private long mTargetFlushMillis = 0;
 
   /**
    * Private constructor, use {@link #create()} or {@link #copy(TapBuilder)}.
@@ -56,8 +101,27 @@ public final class TapBuilder {
       mTableURI = toCopy.mTableURI;
       mTimeRange = toCopy.mTimeRange;
       mTimestampField = toCopy.mTimestampField;
-      mInputColumns = toCopy.mInputColumns;
-      mOutputColumns = toCopy.mOutputColumns;
+      mInputColumns = (null == toCopy.mInputColumns)
+          ? null : Maps.newHashMap(toCopy.mInputColumns);
+      mOutputColumns = (null == toCopy.mOutputColumns)
+          ? null : Maps.newHashMap(toCopy.mOutputColumns);
+      mCounterFields = Sets.newHashSet(toCopy.mCounterFields);
+      mFanOutTables = Maps.newLinkedHashMap(toCopy.mFanOutTables);
+      mCoalescingBufferSize = toCopy.mCoalescingBufferSize;
+      mWriteMerger = toCopy.mWriteMerger;
+      mVersionAggregations = Maps.newHashMap(toCopy.mVersionAggregations);
+      mColumnTimeRanges = Maps.newHashMap(toCopy.mColumnTimeRanges);
+      mEntityIdBloomFilter = toCopy.mEntityIdBloomFilter;
+      mRowTransform = toCopy.mRowTransform;
+      mCheckpointDirectory = toCopy.mCheckpointDirectory;
+      mCheckpointInterval = toCopy.mCheckpointInterval;
+      mTailPollIntervalMillis = toCopy.mTailPollIntervalMillis;
+      mTailSafetyLagMillis = toCopy.mTailSafetyLagMillis;
+      mTailMicroBatchRows = toCopy.mTailMicroBatchRows;
+      mReducerBoundaries = toCopy.mReducerBoundaries;
+      mLazyDecoding = toCopy.mLazyDecoding;
+      mMaxCellsPerSecond = toCopy.mMaxCellsPerSecond;
+      mTargetFlushMillis = toCopy.mTargetFlushMillis;
     }
   }
 
@@ -87,6 +151,34 @@ public final class TapBuilder {
     return mTableURI;
   }
 
+  /**
+   * Configure the tap to drop rows whose entity ID is definitely not in the given Bloom filter.
+   * Rows are dropped by {@link #buildSourceAssembly(Pipe)} before any other operation sees them,
+   * which makes a semi-join against the keys of the filter much cheaper than a full CoGroup.
+   * Use {@link EntityIdBloomFilterAssembly} to build the filter from a pipe.
+   *
+   * @param bloomFilter Bloom filter of the entity IDs to read.
+   * @return this.
+   */
+  public TapBuilder withEntityIdBloomFilter(
+      final EntityIdBloomFilter bloomFilter
+  ) {
+    Preconditions.checkNotNull(bloomFilter, "Entity ID Bloom filter may not be null.");
+    Preconditions.checkState(null == mEntityIdBloomFilter,
+        "Entity ID Bloom filter already set.");
+    mEntityIdBloomFilter = bloomFilter;
+    return this;
+  }
+
+  /**
+   * Get the entity ID Bloom filter or null if none has been set.
+   *
+   * @return the entity ID Bloom filter or null if none has been set.
+   */
+  public EntityIdBloomFilter getEntityIdBloomFilter() {
+    return mEntityIdBloomFilter;
+  }
+
   /**
    * Configure the tap to read values from timestamps in the given TimeRange.
    *
@@ -265,7 +357,8 @@ public final class TapBuilder {
         "Input columns already set to: " + mInputColumns);
     final Map<String, ColumnInputSpec> inputColumns = Maps.newHashMap();
     for (Map.Entry<String, ColumnInputSpecBuilder> builderEntry : inputColumnBuilders.entrySet()) {
-      inputColumns.put(builderEntry.getKey(), builderEntry.getValue().build());
+      inputColumns.put(builderEntry.getKey(), builderEntry.getValue().buildForTap());
+      addBuilderOptions(builderEntry.getKey(), builderEntry.getValue());
     }
     mInputColumns = inputColumns;
     return this;
@@ -286,21 +379,183 @@ public final class TapBuilder {
       final Map<String, ColumnInputSpec> inputColumns = Maps.newHashMap();
       for (Map.Entry<String, ColumnInputSpecBuilder> builderEntry
           : inputColumnBuilders.entrySet()) {
-        inputColumns.put(builderEntry.getKey(), builderEntry.getValue().build());
+        inputColumns.put(builderEntry.getKey(), builderEntry.getValue().buildForTap());
+        addBuilderOptions(builderEntry.getKey(), builderEntry.getValue());
       }
       mInputColumns = inputColumns;
     } else {
       for (Map.Entry<String, ColumnInputSpecBuilder> inputEntry : inputColumnBuilders.entrySet()) {
         final String field = inputEntry.getKey();
-        final ColumnInputSpec spec = inputEntry.getValue().build();
+        final ColumnInputSpec spec = inputEntry.getValue().buildForTap();
         final ColumnInputSpec overwritten = mInputColumns.put(field, spec);
         Preconditions.checkState(overwritten == null,
             "Field: %s already mapped to input column: %s", field, overwritten);
+        addBuilderOptions(field, inputEntry.getValue());
       }
     }
     return this;
   }
 
+  /**
+   * Record the version aggregation and time range of the given input column builder, if it has
+   * them.
+   *
+   * @param field name of the field into which the column is read.
+   * @param builder input column builder which may specify a version aggregation and time range.
+   */
+  private void addBuilderOptions(
+      final String field,
+      final ColumnInputSpecBuilder builder
+  ) {
+    if (null != builder.getAggregation()) {
+      withVersionAggregation(field, builder.getAggregation());
+    }
+    if (null != builder.getTimeRange()) {
+      withColumnTimeRange(field, builder.getTimeRange());
+    }
+  }
+
+  /**
+   * Configure the tap to read the given input field from its own time range instead of the time
+   * range of the tap. The tap still reads every column in a single scan, over the union of the
+   * time ranges of its columns; cells outside the time range of their own column are dropped by
+   * {@link #buildSourceAssembly(Pipe)} in the map task, before any version aggregation. The
+   * maximum number of versions of the input spec is applied per qualifier after the cells outside
+   * the time range of the column have been dropped. A column whose time range ends with the
+   * scanned range keeps its maximum number of versions in the scan, since the newest versions of
+   * the scanned range include the newest versions of its own. A column whose time range ends
+   * earlier would have the versions within its range displaced by newer ones, so the scan reads
+   * every version of that column over the whole scanned range: a narrow range ending well before
+   * the end of a wide one ships every version of the wide range to the map task.
+   *
+   * @param field name of the input field whose time range to set.
+   * @param timeRange time range from which to read the field.
+   * @return this.
+   */
+  public TapBuilder withColumnTimeRange(
+      final String field,
+      final TimeRangeSpec timeRange
+  ) {
+    Preconditions.checkNotNull(field, "Field may not be null.");
+    Preconditions.checkNotNull(timeRange, "Time range may not be null.");
+    final TimeRangeSpec overwritten = mColumnTimeRanges.put(field, timeRange);
+    Preconditions.checkState(null == overwritten,
+        "Field: %s already has time range: %s", field, overwritten);
+    return this;
+  }
+
+  /**
+   * Get the per-column time ranges configured in this builder.
+   *
+   * @return mapping from input field name to the time range of that field.
+   */
+  public Map<String, TimeRangeSpec> getColumnTimeRanges() {
+    return mColumnTimeRanges;
+  }
+
+  /**
+   * Get the time range scanned by the tap: the union of the time ranges of every input column,
+   * using the time range of the tap for columns without their own.
+   *
+   * @return the time range scanned by the tap, or null to scan all time.
+   */
+  TimeRangeSpec getScanTimeRange() {
+    if (mColumnTimeRanges.isEmpty() || null == mInputColumns) {
+      return mTimeRange;
+    }
+    long begin = Long.MAX_VALUE;
+    long end = Long.MIN_VALUE;
+    for (String field : mInputColumns.keySet()) {
+      final TimeRangeSpec columnRange = mColumnTimeRanges.containsKey(field)
+          ? mColumnTimeRanges.get(field)
+          : mTimeRange;
+      if (null == columnRange) {
+        return null;
+      }
+      begin = Math.min(begin, columnRange.begin());
+      end = Math.max(end, columnRange.end());
+    }
+    return new TimeRangeSpec.Between(begin, end);
+  }
+
+  /**
+   * Get the time ranges of the input fields whose versions must be filtered after the scan: those
+   * whose own time range, or the time range of the tap, differs from the time range scanned.
+   *
+   * @return mapping from input field name to the time range of that field.
+   */
+  Map<String, TimeRangeSpec> getFilteredTimeRanges() {
+    final Map<String, TimeRangeSpec> ranges = Maps.newHashMap();
+    if (mColumnTimeRanges.isEmpty() || null == mInputColumns) {
+      return ranges;
+    }
+    final TimeRangeSpec scanRange = getScanTimeRange();
+    for (String field : mInputColumns.keySet()) {
+      final TimeRangeSpec range = mColumnTimeRanges.containsKey(field)
+          ? mColumnTimeRanges.get(field)
+          : mTimeRange;
+      if (null != range && (null == scanRange
+          || range.begin() != scanRange.begin()
+          || range.end() != scanRange.end())) {
+        ranges.put(field, range);
+      }
+    }
+    return ranges;
+  }
+
+  /**
+   * Get the input columns requested by the scan of the tap. Columns whose versions are filtered
+   * after the scan and whose time range ends before the scanned range are requested with every
+   * version, since newer versions outside their time range would otherwise count against their
+   * maximum number of versions.
+   *
+   * @return mapping from field name to the input spec requested by the scan.
+   */
+  Map<String, ColumnInputSpec> getScanInputColumns() {
+    final Map<String, TimeRangeSpec> filteredRanges = getFilteredTimeRanges();
+    if (filteredRanges.isEmpty()) {
+      return mInputColumns;
+    }
+    final TimeRangeSpec scanRange = getScanTimeRange();
+    final Map<String, ColumnInputSpec> scanColumns = Maps.newHashMap(mInputColumns);
+    for (Map.Entry<String, TimeRangeSpec> filteredEntry : filteredRanges.entrySet()) {
+      if (null == scanRange || filteredEntry.getValue().end() != scanRange.end()) {
+        final String field = filteredEntry.getKey();
+        scanColumns.put(field, ColumnRequests.withAllVersions(mInputColumns.get(field)));
+      }
+    }
+    return scanColumns;
+  }
+
+  /**
+   * Configure the tap to reduce all versions read into the given input field to a single
+   * aggregate value. Aggregations are applied by {@link #buildSourceAssembly(Pipe)}.
+   *
+   * @param field name of the input field whose versions to aggregate.
+   * @param aggregation aggregation to apply to the versions of the field.
+   * @return this.
+   */
+  public TapBuilder withVersionAggregation(
+      final String field,
+      final VersionAggregation aggregation
+  ) {
+    Preconditions.checkNotNull(field, "Field may not be null.");
+    Preconditions.checkNotNull(aggregation, "Version aggregation may not be null.");
+    final VersionAggregation overwritten = mVersionAggregations.put(field, aggregation);
+    Preconditions.checkState(overwritten == null,
+        "Field: %s already has version aggregation: %s", field, overwritten);
+    return this;
+  }
+
+  /**
+   * Get the version aggregations configured in this builder.
+   *
+   * @return mapping from input field name to version aggregation.
+   */
+  public Map<String, VersionAggregation> getVersionAggregations() {
+    return mVersionAggregations;
+  }
+
   /**
    * Get the input column specifications or null if none have been set.
    *
@@ -367,6 +622,7 @@ public final class TapBuilder {
     for (Map.Entry<String, ColumnOutputSpecBuilder> builderEntry
         : outputColumnBuilders.entrySet()) {
       outputColumns.put(builderEntry.getKey(), builderEntry.getValue().build());
+      addOutputBuilderOptions(builderEntry.getKey(), builderEntry.getValue());
     }
     mOutputColumns = outputColumns;
     return this;
@@ -388,6 +644,7 @@ public final class TapBuilder {
       for (Map.Entry<String, ColumnOutputSpecBuilder> builderEntry
           : outputColumnBuilders.entrySet()) {
         outputColumns.put(builderEntry.getKey(), builderEntry.getValue().build());
+        addOutputBuilderOptions(builderEntry.getKey(), builderEntry.getValue());
       }
       mOutputColumns = outputColumns;
     } else {
@@ -398,11 +655,91 @@ public final class TapBuilder {
         final ColumnOutputSpec overwritten = mOutputColumns.put(field, spec);
         Preconditions.checkState(overwritten == null,
             "Field: %s already mapped to output column: %s", field, overwritten);
+        addOutputBuilderOptions(field, outputEntry.getValue());
       }
     }
     return this;
   }
 
+  /**
+   * Record the given output field as a counter if its builder is a counter output spec builder.
+   *
+   * @param field name of the field written to the column.
+   * @param builder output column builder which may specify a counter column.
+   */
+  private void addOutputBuilderOptions(
+      final String field,
+      final ColumnOutputSpecBuilder builder
+  ) {
+    if (builder instanceof CounterOutputSpecBuilder) {
+      withCounterField(field);
+    }
+  }
+
+  /**
+   * Configure the sink to treat the given output field as an increment of its counter column
+   * rather than a value to write. Each task sums the increments of each counter cell in a bounded
+   * buffer and sends the sums as atomic increments, so that many tuples incrementing the same
+   * counter cost a single increment. Output fields built with
+   * {@link ColumnOutputSpecBuilders.CounterOutputSpecBuilder} are counters. Requires
+   * {@link #withRowTransform()}, since counters are written by {@link #buildSinkAssembly(Pipe)}.
+   *
+   * @param field name of the output field holding counter increments.
+   * @return this.
+   */
+  public TapBuilder withCounterField(
+      final String field
+  ) {
+    Preconditions.checkNotNull(field, "Counter field may not be null.");
+    Preconditions.checkState(mCounterFields.add(field), "Field: %s already a counter.", field);
+    return this;
+  }
+
+  /**
+   * Get the names of the output fields holding counter increments.
+   *
+   * @return the names of the output fields holding counter increments.
+   */
+  public Set<String> getCounterFields() {
+    return mCounterFields;
+  }
+
+  /**
+   * Configure the sink to also write each tuple to another table, with its own output column
+   * specs. {@link #buildSinkAssembly(Pipe)} writes to every such table from the task producing
+   * the tuples, through one buffered writer per table, and passes the tuples on to the sink of
+   * the configured table unchanged. The upstream branch is computed once, rather than once per
+   * sink. Fan-out tables use the timestamp field and write throttle of this builder.
+   *
+   * @param tableURI KijiURI of the additional table to which to write.
+   * @param outputColumns mapping from field name to output spec in the additional table.
+   * @return this.
+   */
+  public TapBuilder withFanOutTable(
+      final KijiURI tableURI,
+      final Map<String, ColumnOutputSpec> outputColumns
+  ) {
+    Preconditions.checkNotNull(tableURI, "Fan-out table URI may not be null.");
+    Preconditions.checkArgument(null != tableURI.getTable(),
+        "Fan-out table URI must include a table name, found: " + tableURI);
+    Preconditions.checkArgument(null != outputColumns && !outputColumns.isEmpty(),
+        "Fan-out output columns may not be empty.");
+    final Map<String, ColumnOutputSpec> overwritten =
+        mFanOutTables.put(tableURI, Maps.newHashMap(outputColumns));
+    Preconditions.checkState(null == overwritten,
+        "Fan-out table: %s already has output columns: %s", tableURI, overwritten);
+    return this;
+  }
+
+  /**
+   * Get the additional tables written by the sink.
+   *
+   * @return mapping from KijiURI of each additional table to its output column specs.
+   */
+  public Map<KijiURI, Map<String, ColumnOutputSpec>> getFanOutTables() {
+    return mFanOutTables;
+  }
+
   /**
    * Get the output column specifications from this builder, or null if none have been set.
    *
@@ -412,13 +749,568 @@ public final class TapBuilder {
     return mOutputColumns;
   }
 
+  /**
+   * Configure the sink to coalesce tuples which write to the same cells, keeping the last non-null
+   * value written to each cell. Tuples are keyed by entity ID, timestamp and qualifier selector
+   * values and buffered in the task until the given number of distinct keys has been seen.
+   * Requires a timestamp field. Coalescing is applied by {@link #buildSinkAssembly(Pipe)}.
+   *
+   * @param bufferSize number of distinct cell keys to buffer per task before writing.
+   * @return this.
+   */
+  public TapBuilder withWriteCoalescing(
+      final int bufferSize
+  ) {
+    Preconditions.checkArgument(bufferSize > 0,
+        "Coalescing buffer size must be strictly positive, but got: %d", bufferSize);
+    Preconditions.checkState(null == mCoalescingBufferSize,
+        "Write coalescing already set with buffer size: " + mCoalescingBufferSize);
+    mCoalescingBufferSize = bufferSize;
+    return this;
+  }
+
+  /**
+   * Configure the sink to coalesce tuples which write to the same cells, merging values written
+   * to each cell with the given merger. See {@link #withWriteCoalescing(int)}.
+   *
+   * @param bufferSize number of distinct cell keys to buffer per task before writing.
+   * @param merger merges values written to the same cell.
+   * @return this.
+   */
+  public TapBuilder withWriteCoalescing(
+      final int bufferSize,
+      final WriteMerger merger
+  ) {
+    Preconditions.checkNotNull(merger, "Write merger may not be null.");
+    withWriteCoalescing(bufferSize);
+    mWriteMerger = merger;
+    return this;
+  }
+
+  /**
+   * Get the write coalescing buffer size or null if write coalescing has not been configured.
+   *
+   * @return the write coalescing buffer size or null if write coalescing has not been configured.
+   */
+  public Integer getWriteCoalescingBufferSize() {
+    return mCoalescingBufferSize;
+  }
+
+  /**
+   * Get the configured write merger or null if none has been set.
+   *
+   * @return the configured write merger or null if none has been set.
+   */
+  public WriteMerger getWriteMerger() {
+    return mWriteMerger;
+  }
+
+  /**
+   * Configure the sink to adapt the rate at which each task writes to the latency of its writes.
+   * Each task starts well below the given maximum rate, raises its rate while flushes complete
+   * within the target latency and halves it whenever a flush takes longer, so that bulk writes
+   * settle at the throughput the region servers sustain. See {@link WriteThrottle}.
+   *
+   * <p>
+   *   Requires {@link #withRowTransform()}: the throttle is applied by the writers of the sink
+   *   assembly, including those of fan-out tables, while plain sinks are written by
+   *   {@code KijiSource}, which cannot be throttled. {@link #build()} rejects a throttle configured
+   *   without a row transform.
+   * </p>
+   *
+   * @param maxCellsPerSecond maximum number of cells written per second by each task.
+   * @param targetFlushMillis flush latency, in milliseconds, above which a task slows down.
+   * @return this.
+   */
+  public TapBuilder withWriteThrottle(
+      final long maxCellsPerSecond,
+      final long targetFlushMillis
+  ) {
+    Preconditions.checkArgument(maxCellsPerSecond > 0,
+        "Maximum cells per second must be strictly positive, but got: %d", maxCellsPerSecond);
+    Preconditions.checkArgument(targetFlushMillis > 0,
+        "Target flush latency must be strictly positive, but got: %d", targetFlushMillis);
+    Preconditions.checkState(null == mMaxCellsPerSecond,
+        "Write throttle already set with maximum cells per second: " + mMaxCellsPerSecond);
+    mMaxCellsPerSecond = maxCellsPerSecond;
+    mTargetFlushMillis = targetFlushMillis;
+    return this;
+  }
+
+  /**
+   * Get the maximum number of cells written per second by each task or null if no write throttle
+   * has been configured.
+   *
+   * @return the maximum number of cells written per second by each task or null if no write
+   *     throttle has been configured.
+   */
+  public Long getMaxCellsPerSecond() {
+    return mMaxCellsPerSecond;
+  }
+
+  /**
+   * Configure the tap as a map-only row transform of the configured table. The tap from
+   * {@link #build()} only reads the input columns. {@link #buildSinkAssembly(Pipe)} writes each
+   * result straight back to the output columns of its row from the task that read the row.
+   * No shuffle is needed, and because each task reads a contiguous range of rows, its buffered
+   * writes target the same region sequentially. The pipe between the source and sink assemblies
+   * must only apply {@link Each} operations. The pipe returned by the sink assembly emits no
+   * tuples and may be bound to any sink.
+   *
+   * @return this.
+   */
+  public TapBuilder withRowTransform() {
+    Preconditions.checkState(!mRowTransform, "Row transform already configured.");
+    mRowTransform = true;
+    return this;
+  }
+
+  /**
+   * Whether this builder is configured as a map-only row transform.
+   *
+   * @return whether this builder is configured as a map-only row transform.
+   */
+  public boolean isRowTransform() {
+    return mRowTransform;
+  }
+
+  /**
+   * Configure a row transform to checkpoint its progress through each input split, so that a
+   * retried task skips the processing and writes of the rows already handled by the failed
+   * attempt. Every {@code rowInterval} rows, each task flushes its writes and records the
+   * row key of the last row whose writes were all flushed in a file for its split under the given
+   * directory. Requires {@link #withRowTransform()}, since only rows whose results have been
+   * written to the table may be skipped on retry.
+   *
+   * <p>
+   *   Checkpoints are namespaced by MapReduce job, so a new run of the flow never resumes from the
+   *   checkpoints of an earlier run, and are disabled in local mode. The retried task still scans
+   *   its split from the start: the source scan is planned by {@code KijiSource}, which has no
+   *   per-split start key, so the rows up to the checkpoint are read from the region servers again
+   *   and only dropped by the first operation of {@link #buildSourceAssembly(Pipe)}, before any
+   *   user operation sees them. Checkpoints save the processing and writes of those rows, not the
+   *   time spent scanning them.
+   * </p>
+   *
+   * @param directory directory in which to store checkpoints, on HDFS or the local filesystem.
+   * @param rowInterval number of rows between checkpoints.
+   * @return this.
+   */
+  public TapBuilder withCheckpoints(
+      final Path directory,
+      final int rowInterval
+  ) {
+    Preconditions.checkNotNull(directory, "Checkpoint directory may not be null.");
+    Preconditions.checkArgument(rowInterval > 0,
+        "Checkpoint interval must be strictly positive, but got: %d", rowInterval);
+    Preconditions.checkState(null == mCheckpointDirectory,
+        "Checkpoint directory already set to: " + mCheckpointDirectory);
+    mCheckpointDirectory = directory;
+    mCheckpointInterval = rowInterval;
+    return this;
+  }
+
+  /**
+   * Get the checkpoint directory or null if checkpoints have not been configured.
+   *
+   * @return the checkpoint directory or null if checkpoints have not been configured.
+   */
+  public Path getCheckpointDirectory() {
+    return mCheckpointDirectory;
+  }
+
+  /**
+   * Configure the tap to tail its table continuously in Cascading local mode, rather than read a
+   * bounded time range once. The built tap scans the table repeatedly, each scan emitting only the
+   * cells written since the previous one, and never ends unless the flow is interrupted. Tailing
+   * starts at the beginning of the configured time range, which must not have an upper bound; use
+   * {@link #withTimeFrom(long)} to skip older cells.
+   *
+   * <p>
+   *   Each scan reads cells up to its start time minus {@code safetyLagMillis}, and the next scan
+   *   starts from there. Cells are emitted only once, so a cell whose timestamp is already behind
+   *   the last scan when it becomes visible is never emitted. The lag should exceed the clock skew
+   *   between the writers and this host plus the time a write takes to become visible.
+   * </p>
+   *
+   * @param pollIntervalMillis minimum number of milliseconds between the starts of two scans.
+   * @param safetyLagMillis number of milliseconds by which the cells read by each scan trail the
+   *     start of the scan.
+   * @param microBatchRows maximum number of rows read by a scanner before it is closed and
+   *     reopened, so that slow downstream operations do not hold a scanner open.
+   * @return this.
+   */
+  public TapBuilder withTailing(
+      final long pollIntervalMillis,
+      final long safetyLagMillis,
+      final int microBatchRows
+  ) {
+    Preconditions.checkArgument(pollIntervalMillis > 0,
+        "Poll interval must be strictly positive, but got: %d", pollIntervalMillis);
+    Preconditions.checkArgument(safetyLagMillis >= 0,
+        "Safety lag may not be negative, but got: %d", safetyLagMillis);
+    Preconditions.checkArgument(microBatchRows > 0,
+        "Micro-batch size must be strictly positive, but got: %d", microBatchRows);
+    Preconditions.checkState(null == mTailPollIntervalMillis,
+        "Tailing poll interval already set to: " + mTailPollIntervalMillis);
+    mTailPollIntervalMillis = pollIntervalMillis;
+    mTailSafetyLagMillis = safetyLagMillis;
+    mTailMicroBatchRows = microBatchRows;
+    return this;
+  }
+
+  /**
+   * Whether the tap tails its table continuously.
+   *
+   * @return whether the tap tails its table continuously.
+   */
+  public boolean isTailing() {
+    return null != mTailPollIntervalMillis;
+  }
+
+  /**
+   * Configure the sink to write through reducers aligned with the regions of the output table.
+   * The regions of the configured table are divided into at most {@code maxReducers} contiguous
+   * key ranges of roughly equal size, using the region sizes last reported to the HBase master.
+   * {@link #buildSinkAssembly(Pipe)} groups tuples by the range containing their row, with a
+   * partitioner sending the tuples of the i-th range to the i-th reducer, and {@link #build()}
+   * sets the reducer count of the step writing the tap to the number of ranges, so each reducer
+   * writes to its own few regions. The region layout is read when this method is called.
+   *
+   * @param conf Hadoop configuration used to access the table and cluster.
+   * @param maxReducers maximum number of reducers.
+   * @return this.
+   * @throws IOException in case of an error reading the regions of the table.
+   */
+  public TapBuilder withRegionAlignedReducers(
+      final Configuration conf,
+      final int maxReducers
+  ) throws IOException {
+    Preconditions.checkState(null != mTableURI,
+        "Table URI must be set before aligning reducers with its regions.");
+    Preconditions.checkState(null == mReducerBoundaries,
+        "Region-aligned reducers already configured with: %s reducers", getReducerCount());
+    mReducerBoundaries = AssignReducer.planBoundaries(mTableURI, conf, maxReducers);
+    return this;
+  }
+
+  /**
+   * Get the number of region-aligned reducers or null if they have not been configured.
+   *
+   * @return the number of region-aligned reducers or null if they have not been configured.
+   */
+  public Integer getReducerCount() {
+    return (null == mReducerBoundaries) ? null : mReducerBoundaries.size() + 1;
+  }
+
+  /**
+   * Configure a tailing tap to emit each input column as {@link LazyCells}, which keep the raw
+   * cells of the row and decode them on first access. Columns which no downstream operation reads,
+   * such as those of rows rejected by a filter on another column, are never decoded. Only taps
+   * configured with {@link #withTailing(long, long, int)} support lazy decoding; {@link #build()}
+   * rejects other taps, whose cells are decoded by {@code KijiSource}.
+   *
+   * <p>
+   *   Lazy decoding changes the type of the input fields: they hold a {@link LazyCells} instead of
+   *   a Scala sequence of {@link FlowCell}s. Operations reading input fields should use
+   *   {@link LazyCells#decode(Object)}, which accepts both; the source-side operations of
+   *   {@link #buildSourceAssembly(Pipe)} already do.
+   * </p>
+   *
+   * @return this.
+   */
+  public TapBuilder withLazyDecoding() {
+    Preconditions.checkState(!mLazyDecoding, "Lazy decoding already enabled.");
+    mLazyDecoding = true;
+    return this;
+  }
+
+  /**
+   * Whether input columns are emitted as {@link LazyCells}.
+   *
+   * @return whether input columns are emitted as {@link LazyCells}.
+   */
+  public boolean isLazyDecoding() {
+    return mLazyDecoding;
+  }
+
+  /**
+   * Apply the source-side operations configured in this builder to the given pipe. The given
+   * pipe should read directly from the tap from {@link #build()}, and downstream operations
+   * should be attached to the returned pipe. If no source-side operations are configured the given
+   * pipe is returned unchanged.
+   *
+   * @param source pipe reading from the tap.
+   * @return the pipe to which downstream operations should be attached.
+   */
+  public Pipe buildSourceAssembly(
+      final Pipe source
+  ) {
+    Preconditions.checkNotNull(source, "Source pipe may not be null.");
+    Pipe pipe = source;
+    if (null != mCheckpointDirectory) {
+      Preconditions.checkState(mRowTransform, "Checkpoints require a row transform.");
+      pipe = new Each(pipe, new Fields(ENTITY_ID_FIELD),
+          new SkipCheckpointedRows(mTableURI, mCheckpointDirectory));
+    }
+    if (null != mEntityIdBloomFilter) {
+      pipe = new Each(pipe, new Fields(ENTITY_ID_FIELD),
+          new FilterByEntityIdBloom(mEntityIdBloomFilter));
+    }
+    if (!mColumnTimeRanges.isEmpty()) {
+      for (String field : mColumnTimeRanges.keySet()) {
+        Preconditions.checkState(mInputColumns.containsKey(field),
+            "Time range configured for unknown input field: %s", field);
+      }
+      final Map<String, TimeRangeSpec> filteredRanges = getFilteredTimeRanges();
+      if (!filteredRanges.isEmpty()) {
+        final Map<String, Integer> maxVersions = Maps.newHashMap();
+        for (String field : filteredRanges.keySet()) {
+          maxVersions.put(field, mInputColumns.get(field).maxVersions());
+        }
+        pipe = new Each(pipe,
+            new Fields(filteredRanges.keySet().toArray(new String[0])),
+            new FilterVersionsByTime(filteredRanges, maxVersions),
+            Fields.REPLACE);
+      }
+    }
+    if (!mVersionAggregations.isEmpty()) {
+      for (String field : mVersionAggregations.keySet()) {
+        Preconditions.checkState(mInputColumns.containsKey(field),
+            "Version aggregation configured for unknown input field: %s", field);
+      }
+      pipe = new Each(pipe,
+          new Fields(mVersionAggregations.keySet().toArray(new String[0])),
+          new AggregateVersions(mVersionAggregations),
+          Fields.REPLACE);
+    }
+    return pipe;
+  }
+
+  /**
+   * Apply the sink-side operations configured in this builder to the given pipe. The returned
+   * pipe should be bound to the tap from {@link #build()} in place of the given pipe. If no
+   * sink-side operations are configured the given pipe is returned unchanged.
+   *
+   * @param upstream pipe whose tuples will be written to the tap.
+   * @return the pipe to bind to the tap.
+   */
+  public Pipe buildSinkAssembly(
+      final Pipe upstream
+  ) {
+    Preconditions.checkNotNull(upstream, "Upstream pipe may not be null.");
+    Pipe pipe = upstream;
+    if (null != mCoalescingBufferSize) {
+      Preconditions.checkState(null != mTimestampField,
+          "Write coalescing requires a timestamp field.");
+      Preconditions.checkState(mCounterFields.isEmpty(),
+          "Write coalescing may not be combined with counter fields: %s", mCounterFields);
+      pipe = new Each(pipe, Fields.ALL,
+          new CoalesceWrites(
+              mTimestampField,
+              getQualifierSelectorFields(mOutputColumns),
+              Lists.newArrayList(mOutputColumns.keySet()),
+              mCoalescingBufferSize,
+              mWriteMerger),
+          Fields.RESULTS);
+    }
+    if (!mFanOutTables.isEmpty()) {
+      // Fan-out writes are not covered by the checkpoints of a row transform.
+      Preconditions.checkState(null == mCheckpointDirectory,
+          "Fan-out tables may not be combined with checkpoints.");
+      pipe = new Each(pipe, Fields.ALL,
+          new WriteFanOut(mFanOutTables, mTimestampField,
+              (null == mMaxCellsPerSecond) ? 0 : mMaxCellsPerSecond, mTargetFlushMillis));
+    }
+    if (null != mReducerBoundaries) {
+      Preconditions.checkState(!mRowTransform,
+          "Region-aligned reducers may not be combined with a row transform.");
+      pipe = new Each(pipe, new Fields(ENTITY_ID_FIELD),
+          new AssignReducer(mTableURI, mReducerBoundaries), Fields.ALL);
+      pipe = new GroupBy(pipe, new Fields(AssignReducer.REDUCER_FIELD));
+      pipe.getStepConfigDef().setProperty(ConfigDef.Mode.REPLACE,
+          ReducerIndexPartitioner.PARTITIONER_PROPERTY, ReducerIndexPartitioner.class.getName());
+      pipe = new Discard(pipe, new Fields(AssignReducer.REDUCER_FIELD));
+    }
+    if (mRowTransform) {
+      Preconditions.checkState(null != mTableURI, "Table URI must be set for a row transform.");
+      Preconditions.checkState(null != mOutputColumns && !mOutputColumns.isEmpty(),
+          "Row transform requires output columns.");
+      pipe = new Each(pipe, Fields.ALL,
+          new WriteRows(mTableURI, mOutputColumns, mTimestampField, mCounterFields,
+              mCheckpointDirectory, mCheckpointInterval,
+              (null == mMaxCellsPerSecond) ? 0 : mMaxCellsPerSecond, mTargetFlushMillis),
+          Fields.RESULTS);
+    }
+    return pipe;
+  }
+
+  /**
+   * Get the names of the qualifier selector fields of the column family output specs in the
+   * given output column map.
+   *
+   * @param outputColumns mapping from field name to output spec.
+   * @return the names of the qualifier selector fields of the column family output specs.
+   */
+  private static List<String> getQualifierSelectorFields(
+      final Map<String, ColumnOutputSpec> outputColumns
+  ) {
+    final List<String> selectors = Lists.newArrayList();
+    for (ColumnOutputSpec spec : outputColumns.values()) {
+      if (spec instanceof ColumnFamilyOutputSpec) {
+        selectors.add(((ColumnFamilyOutputSpec) spec).qualifierSelector().name());
+      }
+    }
+    return selectors;
+  }
+
   /**
    * Build a Cascading {@link cascading.tap.Tap} from the values stored in this builder.
    *
    * @return a Cascading {@link cascading.tap.Tap} from the values stored in this builder.
    */
   public Tap<?, ?, ?> build() {
-    return KijiSource$.MODULE$.makeTap(
-        mTableURI.toString(), mTimeRange, mTimestampField, mInputColumns, mOutputColumns);
+    if (isTailing()) {
+      return buildTailingTap();
+    }
+    final Map<String, ColumnOutputSpec> tapOutputColumns = mRowTransform
+        ? Maps.<String, ColumnOutputSpec>newHashMap()
+        : mOutputColumns;
+    Preconditions.checkState(mRowTransform || mCounterFields.isEmpty(),
+        "Counter fields require a row transform, found: %s", mCounterFields);
+    Preconditions.checkState(!mLazyDecoding, "Lazy decoding is only supported by tailing taps.");
+    Preconditions.checkState(mRowTransform || null == mMaxCellsPerSecond,
+        "Write throttle requires a row transform.");
+    final Tap<?, ?, ?> tap = KijiSource$.MODULE$.makeTap(mTableURI.toString(),
+        getScanTimeRange(), mTimestampField, getScanInputColumns(), tapOutputColumns);
+    if (null != mInputColumns && !mInputColumns.isEmpty()) {
+      KijiTapProperties.set(tap, KijiTapProperties.INPUT_SORTED_BY_ENTITY_ID, "true");
+      KijiTapProperties.set(tap, KijiTapProperties.INPUT_TABLE_URI, mTableURI.toString());
+    }
+    if (null != mReducerBoundaries) {
+      KijiTapProperties.set(tap, "mapred.reduce.tasks", Integer.toString(getReducerCount()));
+    }
+    return tap;
+  }
+
+  /**
+   * Build the local mode tap of a tailing builder.
+   *
+   * @return a local mode tap which tails the configured table.
+   */
+  private Tap<?, ?, ?> buildTailingTap() {
+    Preconditions.checkState(null != mTableURI, "Table URI must be set before building.");
+    Preconditions.checkState(null == mOutputColumns || mOutputColumns.isEmpty(),
+        "Tailing taps are read-only, found output columns: %s", mOutputColumns);
+    Preconditions.checkState(mColumnTimeRanges.isEmpty(),
+        "Tailing taps may not have per-column time ranges.");
+    Preconditions.checkState(null == mCheckpointDirectory,
+        "Tailing taps may not use checkpoints.");
+    final long startTime = (null == mTimeRange) ? 0L : mTimeRange.begin();
+    Preconditions.checkState(null == mTimeRange || Long.MAX_VALUE == mTimeRange.end(),
+        "Tailing taps require a time range without an upper bound, found: %s", mTimeRange);
+    return new TailingTap(
+        mTableURI,
+        startTime,
+        mInputColumns,
+        mTailPollIntervalMillis,
+        mTailSafetyLagMillis,
+        mTailMicroBatchRows,
+        mLazyDecoding);
+  }
+
+  /**
+   * Estimate the number of rows, cells and bytes the tap will read, from the region sizes of the
+   * configured table and a sample of up to {@value #ESTIMATE_ROWS_PER_SLICE} rows from each of
+   * {@value #ESTIMATE_SLICES_PER_REGION} slices of up to {@value #ESTIMATE_SAMPLE_REGIONS}
+   * regions. The estimate accounts for every input option of this builder: per-column time
+   * ranges, version aggregations and the entity ID Bloom filter. See {@link TapEstimate}.
+   *
+   * @return an estimate of the input of the tap.
+   * @throws IOException in case of an error reading region sizes or sampling the table.
+   */
+  public TapEstimate estimate() throws IOException {
+    return estimate(HBaseConfiguration.create());
+  }
+
+  /**
+   * Estimate the number of rows, cells and bytes the tap will read, using the given configuration
+   * to access the cluster. See {@link #estimate()}.
+   *
+   * @param conf Hadoop configuration used to access the table and cluster.
+   * @return an estimate of the input of the tap.
+   * @throws IOException in case of an error reading region sizes or sampling the table.
+   */
+  public TapEstimate estimate(
+      final Configuration conf
+  ) throws IOException {
+    return TapEstimate.estimate(TapBuilder.copy(this), conf,
+        ESTIMATE_SAMPLE_REGIONS, ESTIMATE_SLICES_PER_REGION, ESTIMATE_ROWS_PER_SLICE);
+  }
+
+  /**
+   * Get an immutable snapshot of the values stored in this builder. Later changes to this builder
+   * are not visible in the snapshot. A snapshot holds only the table URI, time range, timestamp
+   * field and columns, so builders configured with any other option may not be snapshotted.
+   *
+   * @return an immutable snapshot of the values stored in this builder.
+   */
+  public TapSnapshot snapshot() {
+    final List<String> options = getOptionsOutsideSnapshot();
+    Preconditions.checkState(options.isEmpty(),
+        "Tap snapshots may not represent builder options: %s", options);
+    return new TapSnapshot(
+        mTableURI,
+        mTimeRange,
+        mTimestampField,
+        PersistentFieldMap.<ColumnInputSpec>copyOf(mInputColumns),
+        PersistentFieldMap.<ColumnOutputSpec>copyOf(mOutputColumns));
+  }
+
+  /**
+   * Get the names of the options configured in this builder which a {@link TapSnapshot} does not
+   * represent.
+   *
+   * @return the names of the configured options which a snapshot does not represent.
+   */
+  private List<String> getOptionsOutsideSnapshot() {
+    final List<String> options = Lists.newArrayList();
+    if (null != mEntityIdBloomFilter) {
+      options.add("entity ID Bloom filter");
+    }
+    if (!mColumnTimeRanges.isEmpty()) {
+      options.add("column time ranges");
+    }
+    if (!mVersionAggregations.isEmpty()) {
+      options.add("version aggregations");
+    }
+    if (!mCounterFields.isEmpty()) {
+      options.add("counter fields");
+    }
+    if (!mFanOutTables.isEmpty()) {
+      options.add("fan-out tables");
+    }
+    if (null != mCoalescingBufferSize) {
+      options.add("write coalescing");
+    }
+    if (null != mMaxCellsPerSecond) {
+      options.add("write throttle");
+    }
+    if (mRowTransform) {
+      options.add("row transform");
+    }
+    if (null != mCheckpointDirectory) {
+      options.add("checkpoints");
+    }
+    if (isTailing()) {
+      options.add("tailing");
+    }
+    if (null != mReducerBoundaries) {
+      options.add("region-aligned reducers");
+    }
+    if (mLazyDecoding) {
+      options.add("lazy decoding");
+    }
+    return options;
   }
 }
@@ -0,0 +1,364 @@
+package org.kiji.express.flow;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.kiji.annotations.ApiAudience;
+import org.kiji.annotations.ApiStability;
+import org.kiji.schema.Kiji;
+import org.kiji.schema.KijiRegion;
+import org.kiji.schema.KijiRowData;
+import org.kiji.schema.KijiRowScanner;
+import org.kiji.schema.KijiTable;
+import org.kiji.schema.KijiTableReader;
+import org.kiji.schema.KijiURI;
+import org.kiji.schema.util.ResourceUtils;
+
+/**
+ * Estimated number of rows, cells and bytes read by a tap. See {@link TapBuilder#estimate()}.
+ *
+ * <p>
+ *   The uncompressed size of the table is taken from the region loads reported by the HBase
+ *   master. Rows are then sampled from regions spread across the table, a few rows from each of
+ *   several slices spread across the key space of each sampled region, so that the sample is not
+ *   biased towards the start of regions. Each sampled row is read once as raw HBase cells, to
+ *   measure the size of a row, and once through the scan of the tap. The tuples of the tap are then
+ *   measured as emitted by its source assembly: rows rejected by its entity ID Bloom filter are
+ *   dropped, cells outside per-column time ranges are dropped before applying the maximum number of
+ *   versions of their column, and aggregated fields count as a single cell. Estimates assume the
+ *   sampled rows are representative of the table.
+ * </p>
+ */
+@ApiAudience.Public
+@ApiStability.Experimental
+public final class TapEstimate {
+  private static final Logger LOG = LoggerFactory.getLogger(TapEstimate.class);
+
+  /**
+   * Estimate the size of the input of a tap.
+   *
+   * @param tap builder of the tap.
+   * @param conf Hadoop configuration used to access the table and cluster.
+   * @param sampleRegions maximum number of regions from which to sample rows.
+   * @param slicesPerRegion number of slices of the key space of each region to sample from.
+   * @param rowsPerSlice maximum number of rows to sample from each slice.
+   * @return an estimate of the input of the tap.
+   * @throws IOException in case of an error reading region loads or sampling the table.
+   */
+  static TapEstimate estimate(
+      final TapBuilder tap,
+      final Configuration conf,
+      final int sampleRegions,
+      final int slicesPerRegion,
+      final int rowsPerSlice
+  ) throws IOException {
+    final KijiURI tableURI = tap.getTableURI();
+    Preconditions.checkState(null != tableURI, "Table URI must be set before estimating.");
+    Preconditions.checkState(null != tap.getInputColumns() && !tap.getInputColumns().isEmpty(),
+        "Input columns must be set before estimating.");
+    Preconditions.checkState(!tap.isTailing(), "Tailing taps may not be estimated.");
+    long tableBytes = 0;
+    for (long regionBytes : RegionSizes.get(tableURI, conf).values()) {
+      tableBytes += regionBytes;
+    }
+
+    final Sample sample = new Sample(tap);
+    final Kiji kiji = Kiji.Factory.open(tableURI, conf);
+    try {
+      final KijiTable table = kiji.openTable(tableURI.getTable());
+      try {
+        final List<KijiRegion> regions = table.getRegions();
+        final HTable htable = new HTable(conf, RegionSizes.getHBaseTableName(tableURI));
+        try {
+          final KijiTableReader reader = table.openTableReader();
+          try {
+            final int sampled = Math.min(sampleRegions, regions.size());
+            for (int index = 0; index < sampled; index++) {
+              // Spread the sampled regions evenly across the table.
+              final KijiRegion region = regions.get(index * regions.size() / sampled);
+              final RowKeyRange regionRange =
+                  RowKeyRange.of(region.getStartKey(), region.getEndKey());
+              for (RowKeyRange slice : regionRange.split(slicesPerRegion)) {
+                sampleSlice(sample, htable, reader, slice, rowsPerSlice);
+              }
+            }
+          } finally {
+            ResourceUtils.closeOrLog(reader);
+          }
+        } finally {
+          htable.close();
+        }
+      } finally {
+        ResourceUtils.releaseOrLog(table);
+      }
+    } finally {
+      ResourceUtils.releaseOrLog(kiji);
+    }
+
+    if (0 == sample.mRawRows || 0 == sample.mRawCells) {
+      LOG.info("Sampled no rows from table: {}, estimating an empty input.", tableURI);
+      return new TapEstimate(0, 0, 0, tableBytes, 0);
+    }
+    final double tableRows = (double) tableBytes * sample.mRawRows / sample.mRawBytes;
+    final double bytesPerCell = (double) sample.mRawBytes / sample.mRawCells;
+    return new TapEstimate(
+        Math.round(tableRows * sample.mSelectedRows / sample.mRawRows),
+        Math.round(tableRows * sample.mSelectedCells / sample.mRawRows),
+        Math.round(tableRows * sample.mScannedCells / sample.mRawRows * bytesPerCell),
+        tableBytes,
+        sample.mRawRows);
+  }
+
+  /** Configuration of the sampled tap and counters accumulated while sampling. */
+  private static final class Sample {
+    private final Map<String, ColumnInputSpec> mInputColumns;
+    private final Map<String, ColumnInputSpec> mScanColumns;
+    private final TimeRangeSpec mScanTimeRange;
+    private final Map<String, TimeRangeSpec> mFilteredTimeRanges;
+    private final Map<String, VersionAggregation> mAggregations;
+    private final EntityIdBloomFilter mBloomFilter;
+    private long mRawRows = 0;
+    private long mRawCells = 0;
+    private long mRawBytes = 0;
+    private long mScannedCells = 0;
+    private long mSelectedRows = 0;
+    private long mSelectedCells = 0;
+
+    /**
+     * Create a new sample of the given tap.
+     *
+     * @param tap builder of the sampled tap.
+     */
+    private Sample(
+        final TapBuilder tap
+    ) {
+      mInputColumns = tap.getInputColumns();
+      mScanColumns = tap.getScanInputColumns();
+      mScanTimeRange = tap.getScanTimeRange();
+      mFilteredTimeRanges = tap.getFilteredTimeRanges();
+      mAggregations = tap.getVersionAggregations();
+      mBloomFilter = tap.getEntityIdBloomFilter();
+    }
+  }
+
+  /**
+   * Sample the first rows of a slice of a region, raw and through the scan of the tap.
+   *
+   * @param sample configuration of the tap and counters to update.
+   * @param htable HBase table backing the Kiji table.
+   * @param reader reader of the Kiji table.
+   * @param slice key range to sample.
+   * @param rowsPerSlice maximum number of rows to sample.
+   * @throws IOException in case of an error scanning the slice.
+   */
+  private static void sampleSlice(
+      final Sample sample,
+      final HTable htable,
+      final KijiTableReader reader,
+      final RowKeyRange slice,
+      final int rowsPerSlice
+  ) throws IOException {
+    final Scan scan = new Scan(slice.getStartKey(), slice.getEndKey());
+    scan.setCaching(rowsPerSlice);
+    scan.setMaxVersions();
+    byte[] lastRowKey = null;
+    final ResultScanner rawScanner = htable.getScanner(scan);
+    try {
+      for (Result result : rawScanner.next(rowsPerSlice)) {
+        sample.mRawRows++;
+        for (KeyValue keyValue : result.raw()) {
+          sample.mRawCells++;
+          sample.mRawBytes += keyValue.getLength();
+        }
+        lastRowKey = result.getRow();
+      }
+    } finally {
+      rawScanner.close();
+    }
+    if (null == lastRowKey) {
+      return;
+    }
+
+    // Read the same rows through the scan of the tap.
+    final RowKeyRange sampledRange =
+        RowKeyRange.of(slice.getStartKey(), Bytes.add(lastRowKey, new byte[1]));
+    final KijiRowScanner scanner = reader.getScanner(
+        ColumnRequests.build(sample.mScanColumns, sample.mScanTimeRange),
+        sampledRange.toScannerOptions());
+    try {
+      for (KijiRowData row : scanner) {
+        long scanned = 0;
+        long selected = 0;
+        for (Map.Entry<String, ColumnInputSpec> entry : sample.mInputColumns.entrySet()) {
+          final String field = entry.getKey();
+          scanned += countCells(row, entry.getValue(), null);
+          final long cells =
+              countCells(row, entry.getValue(), sample.mFilteredTimeRanges.get(field));
+          selected += (sample.mAggregations.containsKey(field)) ? Math.min(cells, 1) : cells;
+        }
+        sample.mScannedCells += scanned;
+        if (selected > 0 && (null == sample.mBloomFilter
+            || sample.mBloomFilter.mightContain(row.getEntityId().getComponents()))) {
+          sample.mSelectedRows++;
+          sample.mSelectedCells += selected;
+        }
+      }
+    } finally {
+      ResourceUtils.closeOrLog(scanner);
+    }
+  }
+
+  /**
+   * Count the cells of one input column in a row.
+   *
+   * @param row row read with the data request of the tap.
+   * @param spec input spec of the column.
+   * @param timeRange time range of the cells to count, within which at most the maximum number of
+   *     versions of the spec are counted per qualifier, or null to count every cell read.
+   * @return the number of cells of the column in the row.
+   */
+  private static long countCells(
+      final KijiRowData row,
+      final ColumnInputSpec spec,
+      final TimeRangeSpec timeRange
+  ) {
+    final String family = spec.columnName().getFamily();
+    if (spec.columnName().isFullyQualified()) {
+      final String qualifier = spec.columnName().getQualifier();
+      return row.containsColumn(family, qualifier)
+          ? countVersions(row.getTimestamps(family, qualifier), spec, timeRange)
+          : 0;
+    }
+    long cells = 0;
+    for (String qualifier : row.getQualifiers(family)) {
+      cells += countVersions(row.getTimestamps(family, qualifier), spec, timeRange);
+    }
+    return cells;
+  }
+
+  /**
+   * Count the versions of one qualifier.
+   *
+   * @param timestamps timestamps of the versions read.
+   * @param spec input spec of the column.
+   * @param timeRange time range of the versions to count, or null to count every version read.
+   * @return the number of versions counted.
+   */
+  private static long countVersions(
+      final Collection<Long> timestamps,
+      final ColumnInputSpec spec,
+      final TimeRangeSpec timeRange
+  ) {
+    if (null == timeRange) {
+      return timestamps.size();
+    }
+    long versions = 0;
+    for (long timestamp : timestamps) {
+      if (timeRange.begin() <= timestamp && timestamp < timeRange.end()) {
+        versions++;
+      }
+    }
+    return Math.min(versions, spec.maxVersions());
+  }
+
+  private final long mRows;
+  private final long mCells;
+  private final long mBytes;
+  private final long mTableBytes;
+  private final long mSampledRows;
+
+  /**
+   * Private constructor, use {@link TapBuilder#estimate()}.
+   *
+   * @param rows estimated number of rows emitted by the tap.
+   * @param cells estimated number of cells emitted by the tap.
+   * @param bytes estimated number of uncompressed bytes read by the scan of the tap.
+   * @param tableBytes uncompressed size of the whole table.
+   * @param sampledRows number of rows sampled.
+   */
+  private TapEstimate(
+      final long rows,
+      final long cells,
+      final long bytes,
+      final long tableBytes,
+      final long sampledRows
+  ) {
+    mRows = rows;
+    mCells = cells;
+    mBytes = bytes;
+    mTableBytes = tableBytes;
+    mSampledRows = sampledRows;
+  }
+
+  /**
+   * Get the estimated number of rows emitted by the source assembly of the tap.
+   *
+   * @return the estimated number of rows emitted by the source assembly of the tap.
+   */
+  public long getRows() {
+    return mRows;
+  }
+
+  /**
+   * Get the estimated number of cells emitted by the source assembly of the tap, counting each
+   * aggregated field of a row as one cell.
+   *
+   * @return the estimated number of cells emitted by the source assembly of the tap.
+   */
+  public long getCells() {
+    return mCells;
+  }
+
+  /**
+   * Get the estimated number of uncompressed bytes of the cells read by the scan of the tap.
+   *
+   * @return the estimated number of uncompressed bytes read by the scan of the tap.
+   */
+  public long getBytes() {
+    return mBytes;
+  }
+
+  /**
+   * Get the uncompressed size of the whole table, in bytes.
+   *
+   * @return the uncompressed size of the whole table, in bytes.
+   */
+  public long getTableBytes() {
+    return mTableBytes;
+  }
+
+  /**
+   * Get the number of rows sampled to compute this estimate.
+   *
+   * @return the number of rows sampled to compute this estimate.
+   */
+  public long getSampledRows() {
+    return mSampledRows;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(TapEstimate.class)
+        .add("rows", mRows)
+        .add("cells", mCells)
+        .add("bytes", mBytes)
+        .add("table_bytes", mTableBytes)
+        .add("sampled_rows", mSampledRows)
+        .toString();
+  }
+}
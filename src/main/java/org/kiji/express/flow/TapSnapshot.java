@@ -0,0 +1,242 @@
+package org.kiji.express.flow;
+
+import java.io.Serializable;
+import java.util.Map;
+
+import cascading.tap.Tap;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+import org.kiji.annotations.ApiAudience;
+import org.kiji.annotations.ApiStability;
+import org.kiji.schema.KijiURI;
+
+/**
+ * Immutable snapshot of the values stored in a {@link TapBuilder}.
+ *
+ * <p>
+ *   Snapshots hold their column specifications in persistent maps, so deriving a variant with one
+ *   additional column copies O(log n) nodes and shares the rest with the source snapshot. Every
+ *   method which changes a value returns a new snapshot and leaves this one untouched, which makes
+ *   snapshots safe to share between planner threads without locks or defensive copies.
+ * </p>
+ *
+ * <p>
+ *   A snapshot holds only the table URI, time range, timestamp field and column specifications
+ *   of a builder. {@link TapBuilder#snapshot()} rejects builders configured with any other option,
+ *   rather than silently dropping it.
+ * </p>
+ */
+@ApiAudience.Public
+@ApiStability.Experimental
+public final class TapSnapshot implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Create a new empty TapSnapshot.
+   *
+   * @return a new empty TapSnapshot.
+   */
+  public static TapSnapshot create() {
+    return new TapSnapshot(null, null, null,
+        PersistentFieldMap.<ColumnInputSpec>empty(),
+        PersistentFieldMap.<ColumnOutputSpec>empty());
+  }
+
+  private final String mTableURI;
+  private final TimeRangeSpec mTimeRange;
+  private final String mTimestampField;
+  private final PersistentFieldMap<ColumnInputSpec> mInputColumns;
+  private final PersistentFieldMap<ColumnOutputSpec> mOutputColumns;
+
+  /**
+   * Package private constructor, use {@link #create()} or {@link TapBuilder#snapshot()}.
+   *
+   * @param tableURI KijiURI of the table from which to read and write, or null.
+   * @param timeRange time range from which to read values, or null.
+   * @param timestampField field from which to read write timestamps, or null.
+   * @param inputColumns mapping from field name to input spec.
+   * @param outputColumns mapping from field name to output spec.
+   */
+  TapSnapshot(
+      final KijiURI tableURI,
+      final TimeRangeSpec timeRange,
+      final String timestampField,
+      final PersistentFieldMap<ColumnInputSpec> inputColumns,
+      final PersistentFieldMap<ColumnOutputSpec> outputColumns
+  ) {
+    mTableURI = (null == tableURI) ? null : tableURI.toString();
+    mTimeRange = timeRange;
+    mTimestampField = timestampField;
+    mInputColumns = inputColumns;
+    mOutputColumns = outputColumns;
+  }
+
+  /**
+   * Get a snapshot which reads from and writes to the Kiji table with the given KijiURI.
+   *
+   * @param tableURI KijiURI of the table from which to read and write.
+   * @return a new snapshot with the given table URI.
+   */
+  public TapSnapshot withTableURI(
+      final KijiURI tableURI
+  ) {
+    Preconditions.checkNotNull(tableURI, "Table URI may not be null.");
+    Preconditions.checkArgument(null != tableURI.getTable(),
+        "Table URI must include a table name, found: " + tableURI);
+    return new TapSnapshot(tableURI, mTimeRange, mTimestampField, mInputColumns, mOutputColumns);
+  }
+
+  /**
+   * Get the configured TableURI from this snapshot or null if none has been set.
+   *
+   * @return the configured TableURI from this snapshot or null if none has been set.
+   */
+  public KijiURI getTableURI() {
+    return (null == mTableURI) ? null : KijiURI.newBuilder(mTableURI).build();
+  }
+
+  /**
+   * Get a snapshot which reads values from timestamps in the given TimeRange.
+   *
+   * @param timeRange TimeRange from which to read values.
+   * @return a new snapshot with the given time range.
+   */
+  public TapSnapshot withTimeRange(
+      final TimeRangeSpec timeRange
+  ) {
+    Preconditions.checkNotNull(timeRange, "Time range may not be null.");
+    return new TapSnapshot(
+        getTableURI(), timeRange, mTimestampField, mInputColumns, mOutputColumns);
+  }
+
+  /**
+   * Get the time range from which input values may be read.
+   *
+   * @return the time range from which input values may be read.
+   */
+  public TimeRangeSpec getTimeRangeSpec() {
+    return mTimeRange;
+  }
+
+  /**
+   * Get a snapshot which writes values to the timestamp found in the given field.
+   *
+   * @param timestampField name of the field from which to read the timestamp.
+   * @return a new snapshot with the given timestamp field.
+   */
+  public TapSnapshot withTimestampField(
+      final String timestampField
+  ) {
+    Preconditions.checkNotNull(timestampField, "Timestamp field may not be null.");
+    return new TapSnapshot(
+        getTableURI(), mTimeRange, timestampField, mInputColumns, mOutputColumns);
+  }
+
+  /**
+   * Get the timestamp field configured in this snapshot or null if none has been set.
+   *
+   * @return the timestamp field configured in this snapshot or null if none has been set.
+   */
+  public String getTimestampField() {
+    return mTimestampField;
+  }
+
+  /**
+   * Get a snapshot which additionally includes the given input column. The field name must not
+   * have been set previously.
+   *
+   * @param field name of the field into which the column is read.
+   * @param spec input spec of the column.
+   * @return a new snapshot including the given input column.
+   */
+  public TapSnapshot withInputColumn(
+      final String field,
+      final ColumnInputSpec spec
+  ) {
+    Preconditions.checkState(!mInputColumns.containsKey(field),
+        "Field: %s already mapped to input column: %s", field, mInputColumns.get(field));
+    return new TapSnapshot(getTableURI(), mTimeRange, mTimestampField,
+        mInputColumns.plus(field, spec), mOutputColumns);
+  }
+
+  /**
+   * Get a snapshot which additionally includes the given output column. The field name must not
+   * have been set previously.
+   *
+   * @param field name of the field from which the column is written.
+   * @param spec output spec of the column.
+   * @return a new snapshot including the given output column.
+   */
+  public TapSnapshot withOutputColumn(
+      final String field,
+      final ColumnOutputSpec spec
+  ) {
+    Preconditions.checkState(!mOutputColumns.containsKey(field),
+        "Field: %s already mapped to output column: %s", field, mOutputColumns.get(field));
+    return new TapSnapshot(getTableURI(), mTimeRange, mTimestampField,
+        mInputColumns, mOutputColumns.plus(field, spec));
+  }
+
+  /**
+   * Get an unmodifiable view of the input column specifications of this snapshot.
+   *
+   * @return an unmodifiable view of the input column specifications of this snapshot.
+   */
+  public Map<String, ColumnInputSpec> getInputColumns() {
+    return mInputColumns.asMap();
+  }
+
+  /**
+   * Get an unmodifiable view of the output column specifications of this snapshot.
+   *
+   * @return an unmodifiable view of the output column specifications of this snapshot.
+   */
+  public Map<String, ColumnOutputSpec> getOutputColumns() {
+    return mOutputColumns.asMap();
+  }
+
+  /**
+   * Create a new mutable TapBuilder initialized with the values stored in this snapshot.
+   *
+   * @return a new mutable TapBuilder initialized with the values stored in this snapshot.
+   */
+  public TapBuilder toBuilder() {
+    final TapBuilder builder = TapBuilder.create()
+        .addInputColumns(getInputColumns())
+        .addOutputColumns(getOutputColumns());
+    if (null != mTableURI) {
+      builder.withTableURI(getTableURI());
+    }
+    if (null != mTimeRange) {
+      builder.withTimeRange(mTimeRange);
+    }
+    if (null != mTimestampField) {
+      builder.withTimestampField(mTimestampField);
+    }
+    return builder;
+  }
+
+  /**
+   * Build a Cascading {@link cascading.tap.Tap} from the values stored in this snapshot.
+   *
+   * @return a Cascading {@link cascading.tap.Tap} from the values stored in this snapshot.
+   */
+  public Tap<?, ?, ?> build() {
+    Preconditions.checkState(null != mTableURI, "Table URI must be set before building.");
+    return KijiSource$.MODULE$.makeTap(
+        mTableURI, mTimeRange, mTimestampField, getInputColumns(), getOutputColumns());
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(TapSnapshot.class)
+        .add("table_uri", mTableURI)
+        .add("time_range", mTimeRange)
+        .add("timestamp_field", mTimestampField)
+        .add("input_columns", mInputColumns)
+        .add("output_columns", mOutputColumns)
+        .toString();
+  }
+}
@@ -0,0 +1,366 @@
+package org.kiji.express.flow;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import cascading.flow.FlowProcess;
+import cascading.flow.hadoop.HadoopFlowProcess;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import com.google.common.base.Preconditions;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+
+import org.kiji.annotations.ApiAudience;
+import org.kiji.schema.EntityIdFactory;
+import org.kiji.schema.Kiji;
+import org.kiji.schema.KijiBufferedWriter;
+import org.kiji.schema.KijiTable;
+import org.kiji.schema.KijiTableWriter;
+import org.kiji.schema.KijiURI;
+import org.kiji.schema.util.ResourceUtils;
+
+/**
+ * Writes tuples to a Kiji table according to a map of output column specs, using a buffered
+ * writer so that puts are sent in batches.
+ *
+ * <p>
+ *   Each tuple must contain the entity ID in {@link TapBuilder#ENTITY_ID_FIELD}. Each output field
+ *   with a non-null value is written to its column, at the timestamp found in the timestamp field
+ *   if one is configured and at the current time otherwise.
+ * </p>
+ *
+ * <p>
+ *   Output fields configured as counters hold numeric increments rather than values. Increments
+ *   of the same cell are summed in a {@link CounterBuffer} of at most
+ *   {@link #MAX_BUFFERED_COUNTERS} cells, and sent as atomic increments when the buffer is full
+ *   and when the writer is flushed. Increments are applied at the time of the region server, so
+ *   the timestamp field does not apply to them.
+ * </p>
+ */
+@ApiAudience.Private
+final class TupleWriter implements Closeable {
+
+  /** Maximum number of distinct counter cells whose increments are buffered before sending. */
+  static final int MAX_BUFFERED_COUNTERS = 100000;
+
+  /**
+   * Open a new TupleWriter for the given table.
+   *
+   * @param tableURI KijiURI of the table to which to write.
+   * @param outputColumns mapping from field name to output spec.
+   * @param timestampField name of the field containing the write timestamp, or null.
+   * @param conf Hadoop configuration used to open the table.
+   * @return a new TupleWriter which must be closed by the caller.
+   * @throws IOException in case of an error opening the table.
+   */
+  static TupleWriter open(
+      final KijiURI tableURI,
+      final Map<String, ColumnOutputSpec> outputColumns,
+      final String timestampField,
+      final Configuration conf
+  ) throws IOException {
+    return open(
+        tableURI, outputColumns, timestampField, conf, null, Collections.<String>emptySet());
+  }
+
+  /**
+   * Open a new TupleWriter for the given table, which limits its write rate with the given
+   * throttle. A throttled writer flushes every {@link WriteThrottle#FLUSH_CELLS} cells and reports
+   * the latency of each flush to the throttle.
+   *
+   * @param tableURI KijiURI of the table to which to write.
+   * @param outputColumns mapping from field name to output spec.
+   * @param timestampField name of the field containing the write timestamp, or null.
+   * @param conf Hadoop configuration used to open the table.
+   * @param throttle throttle of this writer, or null to write as fast as possible.
+   * @param counterFields names of the output fields holding increments of counter columns.
+   * @return a new TupleWriter which must be closed by the caller.
+   * @throws IOException in case of an error opening the table.
+   */
+  static TupleWriter open(
+      final KijiURI tableURI,
+      final Map<String, ColumnOutputSpec> outputColumns,
+      final String timestampField,
+      final Configuration conf,
+      final WriteThrottle throttle,
+      final Set<String> counterFields
+  ) throws IOException {
+    Preconditions.checkNotNull(tableURI, "Table URI may not be null.");
+    Preconditions.checkArgument(null != outputColumns && !outputColumns.isEmpty(),
+        "Output columns may not be empty.");
+    final Kiji kiji = Kiji.Factory.open(tableURI, conf);
+    try {
+      final KijiTable table = kiji.openTable(tableURI.getTable());
+      try {
+        return new TupleWriter(table, outputColumns, timestampField, throttle, counterFields);
+      } finally {
+        ResourceUtils.releaseOrLog(table);
+      }
+    } finally {
+      ResourceUtils.releaseOrLog(kiji);
+    }
+  }
+
+  /**
+   * Get the Hadoop configuration of the given flow process, or the default HBase configuration if
+   * the flow is not running on Hadoop.
+   *
+   * @param flowProcess current flow process.
+   * @return the Hadoop configuration of the given flow process.
+   */
+  static Configuration getConfiguration(
+      final FlowProcess<?> flowProcess
+  ) {
+    if (flowProcess instanceof HadoopFlowProcess) {
+      return ((HadoopFlowProcess) flowProcess).getJobConf();
+    } else {
+      return HBaseConfiguration.create();
+    }
+  }
+
+  private final KijiTable mTable;
+  private final KijiBufferedWriter mWriter;
+  private final EntityIdFactory mEntityIdFactory;
+  private final String mTimestampField;
+  private final String[] mOutputFields;
+  private final String[] mFamilies;
+  private final String[] mQualifiers;
+  private final String[] mQualifierSelectors;
+  private final boolean[] mCounters;
+  private final KijiTableWriter mCounterWriter;
+  private final CounterBuffer mCounterBuffer;
+  private final WriteThrottle mThrottle;
+  private WritePlan mPlan = null;
+  private int mCellsSinceFlush = 0;
+
+  /**
+   * Private constructor, use
+   * {@link #open(KijiURI, Map, String, Configuration, WriteThrottle, Set)}.
+   *
+   * @param table table to which to write. This writer retains its own reference.
+   * @param outputColumns mapping from field name to output spec.
+   * @param timestampField name of the field containing the write timestamp, or null.
+   * @param throttle throttle of this writer, or null.
+   * @param counterFields names of the output fields holding increments of counter columns.
+   * @throws IOException in case of an error opening the writer.
+   */
+  private TupleWriter(
+      final KijiTable table,
+      final Map<String, ColumnOutputSpec> outputColumns,
+      final String timestampField,
+      final WriteThrottle throttle,
+      final Set<String> counterFields
+  ) throws IOException {
+    Preconditions.checkArgument(outputColumns.keySet().containsAll(counterFields),
+        "Counter fields: %s must be output fields: %s", counterFields, outputColumns.keySet());
+    mTable = table.retain();
+    mWriter = table.getWriterFactory().openBufferedWriter();
+    if (counterFields.isEmpty()) {
+      mCounterWriter = null;
+      mCounterBuffer = null;
+    } else {
+      mCounterWriter = table.openTableWriter();
+      mCounterBuffer = new CounterBuffer(MAX_BUFFERED_COUNTERS);
+    }
+    mEntityIdFactory = EntityIdFactory.getFactory(table.getLayout());
+    mTimestampField = timestampField;
+    mThrottle = throttle;
+    // Resolve column names once, so writing a tuple does no map lookups or string building.
+    final int size = outputColumns.size();
+    mOutputFields = new String[size];
+    mFamilies = new String[size];
+    mQualifiers = new String[size];
+    mQualifierSelectors = new String[size];
+    mCounters = new boolean[size];
+    int index = 0;
+    for (Map.Entry<String, ColumnOutputSpec> outputEntry : outputColumns.entrySet()) {
+      final ColumnOutputSpec spec = outputEntry.getValue();
+      mOutputFields[index] = outputEntry.getKey();
+      mFamilies[index] = spec.columnName().getFamily();
+      mCounters[index] = counterFields.contains(outputEntry.getKey());
+      if (spec instanceof ColumnFamilyOutputSpec) {
+        mQualifierSelectors[index] = ((ColumnFamilyOutputSpec) spec).qualifierSelector().name();
+      } else {
+        mQualifiers[index] = spec.columnName().getQualifier();
+      }
+      index++;
+    }
+  }
+
+  /**
+   * Positions of the fields read by this writer within one tuple layout. Cascading passes every
+   * tuple of a stream with the same fields, so a task compiles its plan once.
+   */
+  private static final class WritePlan {
+    private final Fields mFields;
+    private final int mEntityIdPos;
+    private final int mTimestampPos;
+    private final int[] mValuePos;
+    private final int[] mQualifierPos;
+
+    /**
+     * Compile the write plan of a tuple layout.
+     *
+     * @param fields fields of the tuples to write.
+     * @param writer writer whose output columns to resolve.
+     */
+    private WritePlan(
+        final Fields fields,
+        final TupleWriter writer
+    ) {
+      mFields = fields;
+      mEntityIdPos = getPos(fields, TapBuilder.ENTITY_ID_FIELD);
+      mTimestampPos = (null == writer.mTimestampField)
+          ? -1
+          : getPos(fields, writer.mTimestampField);
+      mValuePos = new int[writer.mOutputFields.length];
+      mQualifierPos = new int[writer.mOutputFields.length];
+      for (int index = 0; index < mValuePos.length; index++) {
+        mValuePos[index] = getPos(fields, writer.mOutputFields[index]);
+        mQualifierPos[index] = (null == writer.mQualifierSelectors[index])
+            ? -1
+            : getPos(fields, writer.mQualifierSelectors[index]);
+      }
+    }
+
+    /**
+     * Get the position of a field which must be present.
+     *
+     * @param fields fields of the tuples to write.
+     * @param field name of the field.
+     * @return the position of the field.
+     */
+    private static int getPos(
+        final Fields fields,
+        final String field
+    ) {
+      Preconditions.checkArgument(fields.contains(new Fields(field)),
+          "Tuples with fields: %s are missing field: %s", fields, field);
+      return fields.getPos(field);
+    }
+  }
+
+  /**
+   * Get the write plan of the given tuple, compiling it if the tuple has different fields than
+   * the previous one.
+   *
+   * @param tuple tuple to write.
+   * @return the write plan of the given tuple.
+   */
+  private WritePlan getPlan(
+      final TupleEntry tuple
+  ) {
+    final Fields fields = tuple.getFields();
+    if (null == mPlan || (mPlan.mFields != fields && !mPlan.mFields.equals(fields))) {
+      mPlan = new WritePlan(fields, this);
+    }
+    return mPlan;
+  }
+
+  /**
+   * Get the Kiji entity ID of the row to which the given tuple is written.
+   *
+   * @param tuple tuple containing a KijiExpress entity ID.
+   * @return the Kiji entity ID of the row to which the given tuple is written.
+   */
+  org.kiji.schema.EntityId getEntityId(
+      final TupleEntry tuple
+  ) {
+    return ((EntityId) tuple.getTuple().getObject(getPlan(tuple).mEntityIdPos))
+        .toJavaEntityId(mEntityIdFactory);
+  }
+
+  /**
+   * Buffer the writes of the given tuple.
+   *
+   * @param tuple tuple to write.
+   * @throws IOException in case of an error sending buffered writes.
+   */
+  void write(
+      final TupleEntry tuple
+  ) throws IOException {
+    final WritePlan plan = getPlan(tuple);
+    final Tuple values = tuple.getTuple();
+    final org.kiji.schema.EntityId entityId =
+        ((EntityId) values.getObject(plan.mEntityIdPos)).toJavaEntityId(mEntityIdFactory);
+    final Number timestamp = (plan.mTimestampPos < 0)
+        ? null
+        : (Number) values.getObject(plan.mTimestampPos);
+    int cells = 0;
+    for (int index = 0; index < plan.mValuePos.length; index++) {
+      final Object value = values.getObject(plan.mValuePos[index]);
+      if (null == value) {
+        continue;
+      }
+      final String qualifier = (plan.mQualifierPos[index] < 0)
+          ? mQualifiers[index]
+          : values.getObject(plan.mQualifierPos[index]).toString();
+      if (mCounters[index]) {
+        final long amount = ((Number) value).longValue();
+        if (mCounterBuffer.add(entityId, mFamilies[index], qualifier, amount)) {
+          mCounterBuffer.flush(mCounterWriter);
+        }
+      } else {
+        if (null == timestamp) {
+          mWriter.put(entityId, mFamilies[index], qualifier, value);
+        } else {
+          mWriter.put(entityId, mFamilies[index], qualifier, timestamp.longValue(), value);
+        }
+        cells++;
+      }
+    }
+    if (null != mThrottle && cells > 0) {
+      mThrottle.acquire(cells);
+      mCellsSinceFlush += cells;
+      if (mCellsSinceFlush >= WriteThrottle.FLUSH_CELLS) {
+        flush();
+      }
+    }
+  }
+
+  /**
+   * Send all buffered writes.
+   *
+   * @throws IOException in case of an error sending buffered writes.
+   */
+  void flush() throws IOException {
+    if (null != mCounterBuffer) {
+      mCounterBuffer.flush(mCounterWriter);
+    }
+    if (null == mThrottle) {
+      mWriter.flush();
+    } else {
+      final long start = System.nanoTime();
+      mWriter.flush();
+      mThrottle.onFlush(System.nanoTime() - start);
+      mCellsSinceFlush = 0;
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void close() throws IOException {
+    try {
+      try {
+        try {
+          if (null != mCounterBuffer) {
+            mCounterBuffer.flush(mCounterWriter);
+          }
+        } finally {
+          if (null != mCounterWriter) {
+            mCounterWriter.close();
+          }
+        }
+      } finally {
+        mWriter.close();
+      }
+    } finally {
+      mTable.release();
+    }
+  }
+}
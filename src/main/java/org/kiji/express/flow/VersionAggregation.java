@@ -0,0 +1,251 @@
+package org.kiji.express.flow;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import scala.collection.JavaConversions;
+
+import org.kiji.annotations.ApiAudience;
+import org.kiji.annotations.ApiStability;
+
+/**
+ * Reduction of all versions of a Kiji column read into a single field.
+ *
+ * <p>
+ *   Aggregations are configured on the input column builders with
+ *   {@code withAggregation(VersionAggregation)} or on a {@link TapBuilder} with
+ *   {@link TapBuilder#withVersionAggregation(String, VersionAggregation)}, and are evaluated by
+ *   the source assembly returned from
+ *   {@link TapBuilder#buildSourceAssembly(cascading.pipe.Pipe)} as each row is read, so the
+ *   individual versions never leave the map task.
+ * </p>
+ *
+ * <p>
+ *   Aggregations are not evaluated on the region servers. That would require an HBase
+ *   coprocessor or filter deployed with the cluster and a way to attach it to the scan issued by
+ *   KijiSource, and this module has neither. Every version is therefore still scanned and sent
+ *   from the region servers to the map task before it is aggregated, so aggregations save
+ *   shuffle and downstream work but not scan or network cost.
+ * </p>
+ */
+@ApiAudience.Public
+@ApiStability.Experimental
+public final class VersionAggregation implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  /** Kinds of version aggregation. */
+  public static enum Type {
+    /** Number of versions, as a Long. */
+    COUNT,
+    /**
+     * Sum of numeric values, as a Long if every value is a Long, Integer, Short or Byte,
+     * otherwise as a Double.
+     */
+    SUM,
+    /** Smallest non-null value. Values must be mutually Comparable. */
+    MIN,
+    /** Largest non-null value. Values must be mutually Comparable. */
+    MAX,
+    /** Scala list of the most recent cell in each time bucket, most recent bucket first. */
+    LATEST_PER_BUCKET
+  }
+
+  /**
+   * Create an aggregation which counts versions.
+   *
+   * @return an aggregation which counts versions.
+   */
+  public static VersionAggregation count() {
+    return new VersionAggregation(Type.COUNT, 0L);
+  }
+
+  /**
+   * Create an aggregation which sums numeric values.
+   *
+   * @return an aggregation which sums numeric values.
+   */
+  public static VersionAggregation sum() {
+    return new VersionAggregation(Type.SUM, 0L);
+  }
+
+  /**
+   * Create an aggregation which finds the smallest value.
+   *
+   * @return an aggregation which finds the smallest value.
+   */
+  public static VersionAggregation min() {
+    return new VersionAggregation(Type.MIN, 0L);
+  }
+
+  /**
+   * Create an aggregation which finds the largest value.
+   *
+   * @return an aggregation which finds the largest value.
+   */
+  public static VersionAggregation max() {
+    return new VersionAggregation(Type.MAX, 0L);
+  }
+
+  /**
+   * Create an aggregation which keeps the most recent cell in each time bucket of the given size.
+   *
+   * @param bucketMillis size in milliseconds of each time bucket.
+   * @return an aggregation which keeps the most recent cell in each time bucket.
+   */
+  public static VersionAggregation latestPerBucket(
+      final long bucketMillis
+  ) {
+    Preconditions.checkArgument(bucketMillis > 0,
+        "Bucket size must be strictly positive, but got: %d", bucketMillis);
+    return new VersionAggregation(Type.LATEST_PER_BUCKET, bucketMillis);
+  }
+
+  private final Type mType;
+  private final long mBucketMillis;
+
+  /**
+   * Private constructor, use one of the static factory methods.
+   *
+   * @param type kind of aggregation.
+   * @param bucketMillis size of time buckets for {@link Type#LATEST_PER_BUCKET}, otherwise 0.
+   */
+  private VersionAggregation(
+      final Type type,
+      final long bucketMillis
+  ) {
+    mType = type;
+    mBucketMillis = bucketMillis;
+  }
+
+  /**
+   * Get the kind of this aggregation.
+   *
+   * @return the kind of this aggregation.
+   */
+  public Type getType() {
+    return mType;
+  }
+
+  /**
+   * Get the size of the time buckets of a {@link Type#LATEST_PER_BUCKET} aggregation.
+   *
+   * @return the size in milliseconds of the time buckets, or 0 for other aggregations.
+   */
+  public long getBucketMillis() {
+    return mBucketMillis;
+  }
+
+  /**
+   * Aggregate the given cells. Cells are consumed in a single pass.
+   *
+   * @param cells versions of a column to aggregate.
+   * @return the aggregate value, or null for MIN, MAX and SUM over no non-null values. Null
+   *     values are skipped by every aggregation except COUNT and LATEST_PER_BUCKET.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public Object aggregate(
+      final Iterable<? extends FlowCell<?>> cells
+  ) {
+    switch (mType) {
+      case COUNT: {
+        long count = 0;
+        for (FlowCell<?> ignored : cells) {
+          count++;
+        }
+        return count;
+      }
+      case SUM: {
+        boolean integral = true;
+        boolean empty = true;
+        long longSum = 0;
+        double doubleSum = 0;
+        for (FlowCell<?> cell : cells) {
+          final Number value = (Number) cell.datum();
+          if (null == value) {
+            continue;
+          }
+          empty = false;
+          if (value instanceof Long || value instanceof Integer
+              || value instanceof Short || value instanceof Byte) {
+            longSum += value.longValue();
+          } else {
+            integral = false;
+          }
+          doubleSum += value.doubleValue();
+        }
+        if (empty) {
+          return null;
+        }
+        return integral ? (Object) longSum : (Object) doubleSum;
+      }
+      case MIN:
+      case MAX: {
+        final int sign = (Type.MIN == mType) ? -1 : 1;
+        Comparable best = null;
+        for (FlowCell<?> cell : cells) {
+          final Comparable value = (Comparable) cell.datum();
+          if (null == value) {
+            continue;
+          }
+          if (null == best || Integer.signum(value.compareTo(best)) == sign) {
+            best = value;
+          }
+        }
+        return best;
+      }
+      case LATEST_PER_BUCKET: {
+        final NavigableMap<Long, FlowCell<?>> latest =
+            Maps.newTreeMap(Collections.reverseOrder());
+        for (FlowCell<?> cell : cells) {
+          final long bucket = cell.version() - (((cell.version() % mBucketMillis) + mBucketMillis)
+              % mBucketMillis);
+          final FlowCell<?> existing = latest.get(bucket);
+          if (null == existing || existing.version() < cell.version()) {
+            latest.put(bucket, cell);
+          }
+        }
+        final List<FlowCell<?>> result = Lists.newArrayListWithCapacity(latest.size());
+        for (Map.Entry<Long, FlowCell<?>> entry : latest.entrySet()) {
+          result.add(entry.getValue());
+        }
+        return JavaConversions.asScalaBuffer(result).toList();
+      }
+      default:
+        throw new IllegalStateException("Unknown version aggregation type: " + mType);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean equals(
+      final Object other
+  ) {
+    if (!(other instanceof VersionAggregation)) {
+      return false;
+    }
+    final VersionAggregation that = (VersionAggregation) other;
+    return mType == that.mType && mBucketMillis == that.mBucketMillis;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(mType, mBucketMillis);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(VersionAggregation.class)
+        .add("type", mType)
+        .add("bucket_millis", mBucketMillis)
+        .toString();
+  }
+}
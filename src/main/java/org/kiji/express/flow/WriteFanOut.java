@@ -0,0 +1,171 @@
+package org.kiji.express.flow;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import cascading.flow.FlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Filter;
+import cascading.operation.FilterCall;
+import cascading.operation.OperationCall;
+import cascading.tuple.TupleException;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.apache.hadoop.conf.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.kiji.annotations.ApiAudience;
+import org.kiji.schema.KijiURI;
+
+/**
+ * Cascading filter which writes each tuple to every configured Kiji table from the task in which
+ * it was produced, and passes every tuple through unchanged. Each table has its own output
+ * column specs and its own buffered writer, so writes are batched per table; any remaining
+ * writes are sent when the task is flushed.
+ *
+ * <p>
+ *   Placed before the sink of another table, the filter lets one branch of a flow write the same
+ *   tuples to several tables without duplicating the upstream work of the branch.
+ * </p>
+ */
+@ApiAudience.Private
+final class WriteFanOut
+    extends BaseOperation<List<TupleWriter>>
+    implements Filter<List<TupleWriter>> {
+  private static final long serialVersionUID = 1L;
+  private static final Logger LOG = LoggerFactory.getLogger(WriteFanOut.class);
+
+  private final Map<String, Map<String, ColumnOutputSpec>> mTables;
+  private final String mTimestampField;
+  private final long mMaxCellsPerSecond;
+  private final long mTargetFlushMillis;
+
+  /**
+   * Create a new WriteFanOut filter.
+   *
+   * @param tables mapping from KijiURI of each table to the output specs of that table.
+   * @param timestampField name of the field containing the write timestamp, or null.
+   * @param maxCellsPerSecond maximum number of cells written per second to each table by each
+   *     task, or 0 to write without a {@link WriteThrottle}.
+   * @param targetFlushMillis flush latency above which the throttle decreases the write rate.
+   */
+  WriteFanOut(
+      final Map<KijiURI, Map<String, ColumnOutputSpec>> tables,
+      final String timestampField,
+      final long maxCellsPerSecond,
+      final long targetFlushMillis
+  ) {
+    final ImmutableMap.Builder<String, Map<String, ColumnOutputSpec>> builder =
+        ImmutableMap.builder();
+    for (Map.Entry<KijiURI, Map<String, ColumnOutputSpec>> table : tables.entrySet()) {
+      builder.put(table.getKey().toString(), ImmutableMap.copyOf(table.getValue()));
+    }
+    mTables = builder.build();
+    mTimestampField = timestampField;
+    mMaxCellsPerSecond = maxCellsPerSecond;
+    mTargetFlushMillis = targetFlushMillis;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void prepare(
+      final FlowProcess flowProcess,
+      final OperationCall<List<TupleWriter>> operationCall
+  ) {
+    final Configuration conf = TupleWriter.getConfiguration(flowProcess);
+    final List<TupleWriter> writers = Lists.newArrayListWithCapacity(mTables.size());
+    String tableURI = null;
+    try {
+      for (Map.Entry<String, Map<String, ColumnOutputSpec>> table : mTables.entrySet()) {
+        tableURI = table.getKey();
+        final WriteThrottle throttle = (0 == mMaxCellsPerSecond)
+            ? null
+            : new WriteThrottle(mMaxCellsPerSecond, mTargetFlushMillis);
+        writers.add(TupleWriter.open(KijiURI.newBuilder(tableURI).build(),
+            table.getValue(), mTimestampField, conf, throttle, Collections.<String>emptySet()));
+      }
+    } catch (IOException ioe) {
+      closeWriters(writers);
+      throw new TupleException("Unable to open writer for table: " + tableURI, ioe);
+    }
+    operationCall.setContext(writers);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean isRemove(
+      final FlowProcess flowProcess,
+      final FilterCall<List<TupleWriter>> filterCall
+  ) {
+    try {
+      for (TupleWriter writer : filterCall.getContext()) {
+        writer.write(filterCall.getArguments());
+      }
+    } catch (IOException ioe) {
+      throw new TupleException("Unable to write to tables: " + mTables.keySet(), ioe);
+    }
+    return false;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void flush(
+      final FlowProcess flowProcess,
+      final OperationCall<List<TupleWriter>> operationCall
+  ) {
+    final List<TupleWriter> writers = operationCall.getContext();
+    if (null != writers) {
+      try {
+        for (TupleWriter writer : writers) {
+          writer.flush();
+        }
+      } catch (IOException ioe) {
+        throw new TupleException("Unable to flush writes to tables: " + mTables.keySet(), ioe);
+      }
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void cleanup(
+      final FlowProcess flowProcess,
+      final OperationCall<List<TupleWriter>> operationCall
+  ) {
+    final List<TupleWriter> writers = operationCall.getContext();
+    if (null != writers) {
+      operationCall.setContext(null);
+      IOException error = null;
+      for (TupleWriter writer : writers) {
+        try {
+          writer.close();
+        } catch (IOException ioe) {
+          // Close the remaining writers before reporting the first error.
+          error = (null == error) ? ioe : error;
+        }
+      }
+      if (null != error) {
+        throw new TupleException("Unable to close writers for tables: " + mTables.keySet(), error);
+      }
+    }
+  }
+
+  /**
+   * Close every writer in the given list, logging any errors.
+   *
+   * @param writers writers to close.
+   */
+  private static void closeWriters(
+      final List<TupleWriter> writers
+  ) {
+    for (TupleWriter writer : writers) {
+      try {
+        writer.close();
+      } catch (IOException ioe) {
+        LOG.warn("Unable to close writer: {}", ioe.getMessage());
+      }
+    }
+  }
+}
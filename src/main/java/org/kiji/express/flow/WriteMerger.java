@@ -0,0 +1,28 @@
+package org.kiji.express.flow;
+
+import java.io.Serializable;
+
+import org.kiji.annotations.ApiAudience;
+import org.kiji.annotations.ApiStability;
+
+/**
+ * Merges two values written to the same Kiji cell within a single output task.
+ *
+ * <p>
+ *   Used by the write coalescing option of {@link TapBuilder#withWriteCoalescing(int,
+ *   WriteMerger)}. Implementations are serialized with the flow and must be stateless.
+ * </p>
+ */
+@ApiAudience.Public
+@ApiStability.Experimental
+public interface WriteMerger extends Serializable {
+  /**
+   * Merge two values written to the same cell from the given output field.
+   *
+   * @param field name of the output field whose values are being merged.
+   * @param previous value already buffered for the cell. May be null.
+   * @param next value newly written to the cell. May be null.
+   * @return the value to write to the cell.
+   */
+  Object merge(String field, Object previous, Object next);
+}
@@ -0,0 +1,234 @@
+package org.kiji.express.flow;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import cascading.flow.FlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Function;
+import cascading.operation.FunctionCall;
+import cascading.operation.OperationCall;
+import cascading.tuple.Fields;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleException;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+
+import org.kiji.annotations.ApiAudience;
+import org.kiji.schema.KijiURI;
+
+/**
+ * Cascading function which writes each tuple directly to a Kiji table from the task in which it
+ * was produced, and emits nothing. Writes are buffered and sent in batches; any remaining writes
+ * are sent when the task is flushed.
+ *
+ * <p>
+ *   If a checkpoint directory is configured, the function flushes its writes every
+ *   {@code checkpointInterval} rows and records the row key of the last row whose writes were all
+ *   flushed as the checkpoint of the current split. See {@link SkipCheckpointedRows}.
+ * </p>
+ *
+ * <p>
+ *   If a maximum write rate is configured, each task adapts its write rate to the latency of its
+ *   flushes. See {@link WriteThrottle}.
+ * </p>
+ */
+@ApiAudience.Private
+final class WriteRows
+    extends BaseOperation<WriteRows.Context>
+    implements Function<WriteRows.Context> {
+  private static final long serialVersionUID = 1L;
+
+  /** Writer and checkpoint state of one task. */
+  static final class Context {
+    private final TupleWriter mWriter;
+    private final SplitCheckpoints mCheckpoints;
+    private final int mSlice;
+    private byte[] mLastRowKey = null;
+    private long mRowsSinceCheckpoint = 0;
+
+    /**
+     * Create a new context.
+     *
+     * @param writer writer to the output table.
+     * @param checkpoints checkpoint store, or null if checkpointing is disabled.
+     * @param slice slice number of the current task.
+     */
+    private Context(
+        final TupleWriter writer,
+        final SplitCheckpoints checkpoints,
+        final int slice
+    ) {
+      mWriter = writer;
+      mCheckpoints = checkpoints;
+      mSlice = slice;
+    }
+  }
+
+  private final String mTableURI;
+  private final Map<String, ColumnOutputSpec> mOutputColumns;
+  private final String mTimestampField;
+  private final Set<String> mCounterFields;
+  private final String mCheckpointDirectory;
+  private final int mCheckpointInterval;
+  private final long mMaxCellsPerSecond;
+  private final long mTargetFlushMillis;
+
+  /**
+   * Create a new WriteRows function without checkpoints.
+   *
+   * @param tableURI KijiURI of the table to which to write.
+   * @param outputColumns mapping from field name to output spec.
+   * @param timestampField name of the field containing the write timestamp, or null.
+   */
+  WriteRows(
+      final KijiURI tableURI,
+      final Map<String, ColumnOutputSpec> outputColumns,
+      final String timestampField
+  ) {
+    this(tableURI, outputColumns, timestampField, Collections.<String>emptySet(), null, 0, 0, 0);
+  }
+
+  /**
+   * Create a new WriteRows function.
+   *
+   * @param tableURI KijiURI of the table to which to write.
+   * @param outputColumns mapping from field name to output spec.
+   * @param timestampField name of the field containing the write timestamp, or null.
+   * @param counterFields names of the output fields holding increments of counter columns.
+   * @param checkpointDirectory directory in which to record split checkpoints, or null.
+   * @param checkpointInterval number of rows between checkpoints.
+   * @param maxCellsPerSecond maximum number of cells written per second by each task, or 0 to
+   *     write without a {@link WriteThrottle}.
+   * @param targetFlushMillis flush latency above which the throttle decreases the write rate.
+   */
+  WriteRows(
+      final KijiURI tableURI,
+      final Map<String, ColumnOutputSpec> outputColumns,
+      final String timestampField,
+      final Set<String> counterFields,
+      final Path checkpointDirectory,
+      final int checkpointInterval,
+      final long maxCellsPerSecond,
+      final long targetFlushMillis
+  ) {
+    super(Fields.NONE);
+    Preconditions.checkArgument(null == checkpointDirectory || checkpointInterval > 0,
+        "Checkpoint interval must be strictly positive, but got: %d", checkpointInterval);
+    mTableURI = tableURI.toString();
+    mOutputColumns = ImmutableMap.copyOf(outputColumns);
+    mTimestampField = timestampField;
+    mCounterFields = ImmutableSet.copyOf(counterFields);
+    mCheckpointDirectory = (null == checkpointDirectory) ? null : checkpointDirectory.toString();
+    mCheckpointInterval = checkpointInterval;
+    mMaxCellsPerSecond = maxCellsPerSecond;
+    mTargetFlushMillis = targetFlushMillis;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void prepare(
+      final FlowProcess flowProcess,
+      final OperationCall<Context> operationCall
+  ) {
+    final Configuration conf = TupleWriter.getConfiguration(flowProcess);
+    try {
+      final SplitCheckpoints checkpoints = (null == mCheckpointDirectory)
+          ? null
+          : SplitCheckpoints.open(new Path(mCheckpointDirectory), conf);
+      final WriteThrottle throttle = (0 == mMaxCellsPerSecond)
+          ? null
+          : new WriteThrottle(mMaxCellsPerSecond, mTargetFlushMillis);
+      operationCall.setContext(new Context(
+          TupleWriter.open(KijiURI.newBuilder(mTableURI).build(),
+              mOutputColumns, mTimestampField, conf, throttle, mCounterFields),
+          checkpoints,
+          flowProcess.getCurrentSliceNum()));
+    } catch (IOException ioe) {
+      throw new TupleException("Unable to open writer for table: " + mTableURI, ioe);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void operate(
+      final FlowProcess flowProcess,
+      final FunctionCall<Context> functionCall
+  ) {
+    final Context context = functionCall.getContext();
+    final TupleEntry arguments = functionCall.getArguments();
+    try {
+      if (null != context.mCheckpoints) {
+        final byte[] rowKey = context.mWriter.getEntityId(arguments).getHBaseRowKey();
+        if (!Arrays.equals(rowKey, context.mLastRowKey)) {
+          // Every tuple of the previous row has been written, so it may be checkpointed.
+          if (null != context.mLastRowKey
+              && ++context.mRowsSinceCheckpoint >= mCheckpointInterval) {
+            checkpoint(context);
+          }
+          context.mLastRowKey = rowKey;
+        }
+      }
+      context.mWriter.write(arguments);
+    } catch (IOException ioe) {
+      throw new TupleException("Unable to write to table: " + mTableURI, ioe);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void flush(
+      final FlowProcess flowProcess,
+      final OperationCall<Context> operationCall
+  ) {
+    final Context context = operationCall.getContext();
+    if (null != context) {
+      try {
+        if (null != context.mCheckpoints && null != context.mLastRowKey) {
+          checkpoint(context);
+        } else {
+          context.mWriter.flush();
+        }
+      } catch (IOException ioe) {
+        throw new TupleException("Unable to flush writes to table: " + mTableURI, ioe);
+      }
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void cleanup(
+      final FlowProcess flowProcess,
+      final OperationCall<Context> operationCall
+  ) {
+    final Context context = operationCall.getContext();
+    if (null != context) {
+      try {
+        context.mWriter.close();
+      } catch (IOException ioe) {
+        throw new TupleException("Unable to close writer for table: " + mTableURI, ioe);
+      }
+      operationCall.setContext(null);
+    }
+  }
+
+  /**
+   * Flush all buffered writes and record the last written row as the checkpoint of this split.
+   *
+   * @param context context of this task.
+   * @throws IOException in case of an error flushing writes or writing the checkpoint.
+   */
+  private static void checkpoint(
+      final Context context
+  ) throws IOException {
+    context.mWriter.flush();
+    context.mCheckpoints.write(context.mSlice, context.mLastRowKey);
+    context.mRowsSinceCheckpoint = 0;
+  }
+}
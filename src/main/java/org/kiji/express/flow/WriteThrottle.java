@@ -0,0 +1,117 @@
+package org.kiji.express.flow;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.kiji.annotations.ApiAudience;
+
+/**
+ * Adaptive limit on the rate at which one task writes cells, adjusted by additive increase and
+ * multiplicative decrease on the latency of flushes.
+ *
+ * <p>
+ *   The rate starts at a fraction of the maximum. Each flush of {@link #FLUSH_CELLS} cells which
+ *   completes within the target latency raises the rate by a fixed step, up to the maximum; each
+ *   slower flush halves it. The HBase client retries puts rejected by busy region servers
+ *   internally, with increasing pauses, so both slow servers and retries show up as flush latency.
+ *   Writers therefore settle near the throughput the cluster sustains rather than alternating
+ *   between full speed and timeouts.
+ * </p>
+ */
+@ApiAudience.Private
+final class WriteThrottle {
+  private static final Logger LOG = LoggerFactory.getLogger(WriteThrottle.class);
+
+  /** Number of cells a throttled writer buffers between timed flushes. */
+  static final int FLUSH_CELLS = 1000;
+
+  /** Fraction of the maximum rate at which writing starts. */
+  private static final double INITIAL_RATE_FRACTION = 0.1;
+
+  /** Fraction of the maximum rate added after each flush within the target latency. */
+  private static final double INCREASE_FRACTION = 0.05;
+
+  /** Factor applied to the rate after each flush exceeding the target latency. */
+  private static final double DECREASE_FACTOR = 0.5;
+
+  /** Fraction of the maximum rate below which the rate is never decreased. */
+  private static final double MIN_RATE_FRACTION = 0.001;
+
+  private final double mMaxRate;
+  private final double mMinRate;
+  private final long mTargetFlushNanos;
+  private double mRate;
+  private long mNextWriteNanos = System.nanoTime();
+
+  /**
+   * Create a new WriteThrottle.
+   *
+   * @param maxCellsPerSecond maximum number of cells written per second.
+   * @param targetFlushMillis flush latency, in milliseconds, above which the rate is decreased.
+   */
+  WriteThrottle(
+      final long maxCellsPerSecond,
+      final long targetFlushMillis
+  ) {
+    Preconditions.checkArgument(maxCellsPerSecond > 0,
+        "Maximum cells per second must be strictly positive, but got: %d", maxCellsPerSecond);
+    Preconditions.checkArgument(targetFlushMillis > 0,
+        "Target flush latency must be strictly positive, but got: %d", targetFlushMillis);
+    mMaxRate = maxCellsPerSecond;
+    mMinRate = Math.max(1.0, mMaxRate * MIN_RATE_FRACTION);
+    mTargetFlushNanos = TimeUnit.MILLISECONDS.toNanos(targetFlushMillis);
+    mRate = Math.max(mMinRate, mMaxRate * INITIAL_RATE_FRACTION);
+  }
+
+  /**
+   * Wait until the given number of cells may be written at the current rate.
+   *
+   * @param cells number of cells about to be written.
+   * @throws InterruptedIOException if interrupted while waiting.
+   */
+  void acquire(
+      final int cells
+  ) throws InterruptedIOException {
+    final long now = System.nanoTime();
+    final long wait = mNextWriteNanos - now;
+    if (wait > 0) {
+      try {
+        TimeUnit.NANOSECONDS.sleep(wait);
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while throttling writes.");
+      }
+    }
+    mNextWriteNanos = Math.max(now, mNextWriteNanos) + (long) (cells * 1e9 / mRate);
+  }
+
+  /**
+   * Adjust the rate after a flush.
+   *
+   * @param elapsedNanos time taken by the flush, in nanoseconds.
+   */
+  void onFlush(
+      final long elapsedNanos
+  ) {
+    if (elapsedNanos > mTargetFlushNanos) {
+      mRate = Math.max(mMinRate, mRate * DECREASE_FACTOR);
+      LOG.debug("Flush took {} ms, decreasing write rate to {} cells/s.",
+          TimeUnit.NANOSECONDS.toMillis(elapsedNanos), (long) mRate);
+    } else {
+      mRate = Math.min(mMaxRate, mRate + mMaxRate * INCREASE_FRACTION);
+    }
+  }
+
+  /**
+   * Get the current rate limit in cells per second.
+   *
+   * @return the current rate limit in cells per second.
+   */
+  double getRate() {
+    return mRate;
+  }
+}
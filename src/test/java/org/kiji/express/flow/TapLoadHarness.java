@@ -0,0 +1,528 @@
+package org.kiji.express.flow;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+import cascading.flow.Flow;
+import cascading.flow.FlowConnector;
+import cascading.flow.FlowProcess;
+import cascading.flow.hadoop.HadoopFlowConnector;
+import cascading.operation.BaseOperation;
+import cascading.operation.Function;
+import cascading.operation.FunctionCall;
+import cascading.operation.OperationCall;
+import cascading.pipe.Each;
+import cascading.pipe.Pipe;
+import cascading.property.AppProps;
+import cascading.scheme.hadoop.TextLine;
+import cascading.tap.SinkMode;
+import cascading.tap.Tap;
+import cascading.tap.hadoop.Hfs;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleException;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import scala.collection.JavaConversions;
+
+import org.kiji.annotations.ApiAudience;
+import org.kiji.express.flow.ColumnInputSpecBuilders.ColumnFamilyInputSpecBuilder;
+import org.kiji.express.flow.ColumnInputSpecBuilders.ColumnInputSpecBuilder;
+import org.kiji.express.flow.ColumnInputSpecBuilders.QualifiedColumnInputSpecBuilder;
+import org.kiji.express.flow.ColumnOutputSpecBuilders.ColumnFamilyOutputSpecBuilder;
+import org.kiji.express.flow.ColumnOutputSpecBuilders.ColumnOutputSpecBuilder;
+import org.kiji.express.flow.ColumnOutputSpecBuilders.QualifiedColumnOutputSpecBuilder;
+import org.kiji.schema.EntityIdFactory;
+import org.kiji.schema.Kiji;
+import org.kiji.schema.KijiInstaller;
+import org.kiji.schema.KijiTable;
+import org.kiji.schema.KijiURI;
+import org.kiji.schema.avro.TableLayoutDesc;
+import org.kiji.schema.util.FromJson;
+import org.kiji.schema.util.ResourceUtils;
+
+/**
+ * Command line harness which measures the end-to-end throughput of taps built by
+ * {@link TapBuilder} against synthetic data, without copying production data or running any
+ * external service.
+ *
+ * <p>
+ *   The harness installs an in-process fake Kiji instance, creates a table with a salted row key,
+ *   a qualified {@code info:count} column and a map family {@code wide} of Avro records holding a
+ *   byte array, then runs three Cascading flows on the Hadoop local job runner:
+ * </p>
+ * <ul>
+ *   <li>write: generates every row and writes it through an output tap,</li>
+ *   <li>read: reads every cell through an input tap and its source assembly,</li>
+ *   <li>round-trip: a row transform which reads and rewrites {@code info:count} of every row.</li>
+ * </ul>
+ * <p>
+ *   For each flow the harness reports rows, cells and bytes per second and the peak heap usage of
+ *   the JVM. The harness is not part of the released artifact; run it from the test classpath:
+ * </p>
+ * <pre>
+ *   TapLoadHarness [--rows=N] [--family-width=N] [--versions=N] [--record-bytes=N]
+ * </pre>
+ */
+@ApiAudience.Private
+public final class TapLoadHarness {
+  private static final String COUNTER_GROUP = "kiji.express.loadtest";
+  private static final String ROWS_COUNTER = "rows";
+  private static final String CELLS_COUNTER = "cells";
+  private static final String BYTES_COUNTER = "bytes";
+
+  private static final String COUNT_FIELD = "count";
+  private static final String PAYLOAD_FIELD = "payload";
+  private static final String QUALIFIER_FIELD = "qualifier";
+  private static final String TIMESTAMP_FIELD = "timestamp";
+
+  /** Schema of the records stored in the map family. */
+  private static final String PAYLOAD_SCHEMA = "{\"type\":\"record\",\"name\":\"Payload\","
+      + "\"namespace\":\"org.kiji.express.loadtest\","
+      + "\"fields\":[{\"name\":\"data\",\"type\":\"bytes\"}]}";
+
+  /** Size in bytes of a value of {@code info:count}. */
+  private static final int COUNT_BYTES = 8;
+
+  /**
+   * Run the harness.
+   *
+   * @param args command line flags.
+   * @throws Exception in case of an error setting up the table or running a flow.
+   */
+  public static void main(
+      final String[] args
+  ) throws Exception {
+    final Map<String, Integer> flags = Maps.newHashMap();
+    flags.put("rows", 100000);
+    flags.put("family-width", 10);
+    flags.put("versions", 1);
+    flags.put("record-bytes", 256);
+    for (String arg : args) {
+      final String[] flag = arg.replaceFirst("^--", "").split("=", 2);
+      Preconditions.checkArgument(flag.length == 2 && flags.containsKey(flag[0]),
+          "Unknown flag: %s, expected one of: %s", arg, flags.keySet());
+      flags.put(flag[0], Integer.parseInt(flag[1]));
+    }
+    new TapLoadHarness(
+        flags.get("rows"),
+        flags.get("family-width"),
+        flags.get("versions"),
+        flags.get("record-bytes")).run();
+  }
+
+  private final int mRows;
+  private final int mFamilyWidth;
+  private final int mVersions;
+  private final int mRecordBytes;
+  private final Configuration mConf = HBaseConfiguration.create();
+  private final File mWorkDirectory = Files.createTempDir();
+
+  /**
+   * Create a new harness.
+   *
+   * @param rows number of rows in the table.
+   * @param familyWidth number of qualifiers of the map family in each row.
+   * @param versions number of versions of each cell of the map family.
+   * @param recordBytes size of the byte array of each record in the map family.
+   */
+  private TapLoadHarness(
+      final int rows,
+      final int familyWidth,
+      final int versions,
+      final int recordBytes
+  ) {
+    Preconditions.checkArgument(rows > 0 && familyWidth > 0 && versions > 0 && recordBytes >= 0,
+        "Rows, family width and versions must be strictly positive and record bytes may not be "
+        + "negative, but got: %s, %s, %s, %s", rows, familyWidth, versions, recordBytes);
+    mRows = rows;
+    mFamilyWidth = familyWidth;
+    mVersions = versions;
+    mRecordBytes = recordBytes;
+  }
+
+  /**
+   * Create the table and run every flow, printing the throughput of each, then delete the work
+   * directory holding the inputs and outputs of the flows.
+   *
+   * @throws IOException in case of an error setting up the table or its input.
+   */
+  private void run() throws IOException {
+    try {
+      runFlows();
+    } finally {
+      if (!FileUtil.fullyDelete(mWorkDirectory)) {
+        System.err.printf("Unable to delete work directory: %s%n", mWorkDirectory);
+      }
+    }
+  }
+
+  /**
+   * Create the table and run every flow, printing the throughput of each.
+   *
+   * @throws IOException in case of an error setting up the table or its input.
+   */
+  private void runFlows() throws IOException {
+    final KijiURI instanceURI = KijiURI.newBuilder(
+        String.format("kiji://.fake.%d/loadtest", System.currentTimeMillis())).build();
+    KijiInstaller.get().install(instanceURI, mConf);
+    final String tableName = "synthetic";
+    final Kiji kiji = Kiji.Factory.open(instanceURI, mConf);
+    try {
+      kiji.createTable((TableLayoutDesc) FromJson.fromJsonString(
+          getLayoutJson(tableName), TableLayoutDesc.SCHEMA$));
+    } finally {
+      ResourceUtils.releaseOrLog(kiji);
+    }
+    final KijiURI tableURI = KijiURI.newBuilder(instanceURI).withTableName(tableName).build();
+
+    System.out.printf("%-12s %10s %12s %12s %14s %14s%n",
+        "flow", "rows", "rows/s", "cells/s", "bytes/s", "peak heap MB");
+    runFlow("write", writeFlow(tableURI));
+    runFlow("read", readFlow(tableURI));
+    runFlow("round-trip", roundTripFlow(tableURI));
+  }
+
+  /**
+   * Run a flow and print its throughput and the peak heap usage while it ran.
+   *
+   * @param name name of the flow.
+   * @param flow flow to run.
+   */
+  private static void runFlow(
+      final String name,
+      final Flow<?> flow
+  ) {
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      pool.resetPeakUsage();
+    }
+    final long start = System.nanoTime();
+    flow.complete();
+    final double seconds = (System.nanoTime() - start) / 1e9;
+    long peakHeapBytes = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (MemoryType.HEAP == pool.getType()) {
+        peakHeapBytes += pool.getPeakUsage().getUsed();
+      }
+    }
+    final long rows = flow.getFlowStats().getCounterValue(COUNTER_GROUP, ROWS_COUNTER);
+    final long cells = flow.getFlowStats().getCounterValue(COUNTER_GROUP, CELLS_COUNTER);
+    final long bytes = flow.getFlowStats().getCounterValue(COUNTER_GROUP, BYTES_COUNTER);
+    System.out.printf("%-12s %10d %12.0f %12.0f %14.0f %14d%n",
+        name, rows, rows / seconds, cells / seconds, bytes / seconds, peakHeapBytes >> 20);
+  }
+
+  /**
+   * Build the flow which generates every row of the table and writes it through an output tap.
+   *
+   * @param tableURI KijiURI of the table.
+   * @return the write flow.
+   * @throws IOException in case of an error writing the row IDs from which rows are generated.
+   */
+  private Flow<?> writeFlow(
+      final KijiURI tableURI
+  ) throws IOException {
+    final File rowIds = new File(mWorkDirectory, "row-ids.txt");
+    final PrintWriter writer = new PrintWriter(Files.newWriter(rowIds, Charsets.UTF_8));
+    try {
+      for (int row = 0; row < mRows; row++) {
+        writer.println(String.format("row-%010d", row));
+      }
+    } finally {
+      writer.close();
+    }
+
+    final Map<String, ColumnOutputSpecBuilder> outputs = Maps.newHashMap();
+    outputs.put(COUNT_FIELD, QualifiedColumnOutputSpecBuilder.create()
+        .withQualifiedColumn("info", "count")
+        .withAvroWriterSchemaGeneric());
+    outputs.put(PAYLOAD_FIELD, ColumnFamilyOutputSpecBuilder.create()
+        .withColumnFamily("wide")
+        .withQualifierSelector(QUALIFIER_FIELD)
+        .withAvroSchemaGeneric(new Schema.Parser().parse(PAYLOAD_SCHEMA)));
+    final Tap<?, ?, ?> sink = TapBuilder.create()
+        .withTableURI(tableURI)
+        .withTimestampField(TIMESTAMP_FIELD)
+        .addOutputColumnBuilders(outputs)
+        .build();
+
+    final Pipe pipe = new Each(new Pipe("write"), new Fields("line"),
+        new GenerateCells(tableURI, mFamilyWidth, mVersions, mRecordBytes), Fields.RESULTS);
+    final Tap<?, ?, ?> source = new Hfs(new TextLine(new Fields("line")), rowIds.getPath());
+    return getFlowConnector().connect("write", source, sink, pipe);
+  }
+
+  /**
+   * Build the flow which reads every cell of the table through an input tap.
+   *
+   * @param tableURI KijiURI of the table.
+   * @return the read flow.
+   */
+  private Flow<?> readFlow(
+      final KijiURI tableURI
+  ) {
+    final Map<String, ColumnInputSpecBuilder> inputs = Maps.newHashMap();
+    inputs.put(COUNT_FIELD, QualifiedColumnInputSpecBuilder.create()
+        .withQualifiedColumn("info", "count")
+        .withAvroWriterSchemaGeneric());
+    inputs.put(PAYLOAD_FIELD, ColumnFamilyInputSpecBuilder.create()
+        .withColumnFamily("wide")
+        .withMaxVersions(mVersions)
+        .withAvroWriterSchemaGeneric());
+    final TapBuilder builder = TapBuilder.create()
+        .withTableURI(tableURI)
+        .addInputColumnBuilders(inputs);
+
+    final Pipe pipe = new Each(builder.buildSourceAssembly(new Pipe("read")),
+        new Fields(COUNT_FIELD, PAYLOAD_FIELD), new MeasureCells(), Fields.RESULTS);
+    return getFlowConnector().connect("read", builder.build(), getNullSink("read"), pipe);
+  }
+
+  /**
+   * Build the row transform flow which reads and rewrites {@code info:count} of every row.
+   *
+   * @param tableURI KijiURI of the table.
+   * @return the round-trip flow.
+   */
+  private Flow<?> roundTripFlow(
+      final KijiURI tableURI
+  ) {
+    final Map<String, ColumnInputSpecBuilder> inputs = Maps.newHashMap();
+    inputs.put(COUNT_FIELD, QualifiedColumnInputSpecBuilder.create()
+        .withQualifiedColumn("info", "count")
+        .withAvroWriterSchemaGeneric());
+    final Map<String, ColumnOutputSpecBuilder> outputs = Maps.newHashMap();
+    outputs.put(IncrementCount.NEW_COUNT_FIELD, QualifiedColumnOutputSpecBuilder.create()
+        .withQualifiedColumn("info", "count")
+        .withAvroWriterSchemaGeneric());
+    final TapBuilder builder = TapBuilder.create()
+        .withTableURI(tableURI)
+        .addInputColumnBuilders(inputs)
+        .addOutputColumnBuilders(outputs)
+        .withRowTransform();
+
+    Pipe pipe = builder.buildSourceAssembly(new Pipe("round-trip"));
+    pipe = new Each(pipe, new Fields(COUNT_FIELD), new IncrementCount(), Fields.ALL);
+    pipe = builder.buildSinkAssembly(pipe);
+    return getFlowConnector().connect(
+        "round-trip", builder.build(), getNullSink("round-trip"), pipe);
+  }
+
+  /**
+   * Get a connector which plans flows for the in-process Hadoop local job runner.
+   *
+   * @return a connector for the local job runner.
+   */
+  private static FlowConnector getFlowConnector() {
+    final Properties properties = new Properties();
+    properties.setProperty("mapred.job.tracker", "local");
+    properties.setProperty("fs.default.name", "file:///");
+    AppProps.setApplicationJarClass(properties, TapLoadHarness.class);
+    return new HadoopFlowConnector(properties);
+  }
+
+  /**
+   * Get a local sink for flows whose tuples are discarded.
+   *
+   * @param name name of the flow.
+   * @return a local sink replacing any output of a previous run.
+   */
+  private Tap<?, ?, ?> getNullSink(
+      final String name
+  ) {
+    return new Hfs(new TextLine(), new File(mWorkDirectory, name).getPath(), SinkMode.REPLACE);
+  }
+
+  /**
+   * Get the layout of the synthetic table.
+   *
+   * @param tableName name of the table.
+   * @return the layout of the synthetic table as JSON.
+   */
+  private static String getLayoutJson(
+      final String tableName
+  ) {
+    return "{\"name\":\"" + tableName + "\","
+        + "\"keys_format\":{\"encoding\":\"FORMATTED\",\"salt\":{\"hash_size\":2},"
+        + "\"components\":[{\"name\":\"id\",\"type\":\"STRING\"}]},"
+        + "\"locality_groups\":[{\"name\":\"default\",\"in_memory\":false,"
+        + "\"max_versions\":2147483647,\"ttl_seconds\":2147483647,\"compression_type\":\"NONE\","
+        + "\"families\":["
+        + "{\"name\":\"info\",\"columns\":[{\"name\":\"count\","
+        + "\"column_schema\":{\"type\":\"INLINE\",\"value\":\"\\\"long\\\"\"}}]},"
+        + "{\"name\":\"wide\",\"map_schema\":{\"type\":\"INLINE\",\"value\":\""
+        + PAYLOAD_SCHEMA.replace("\"", "\\\"") + "\"}}]}],"
+        + "\"version\":\"layout-1.2\"}";
+  }
+
+  /**
+   * Generates the tuples of one row from its row ID: one tuple per qualifier of the map family
+   * and version, each also carrying the count of the row.
+   */
+  private static final class GenerateCells
+      extends BaseOperation<EntityIdFactory>
+      implements Function<EntityIdFactory> {
+    private static final long serialVersionUID = 1L;
+
+    private final String mTableURI;
+    private final int mFamilyWidth;
+    private final int mVersions;
+    private final int mRecordBytes;
+    private transient Schema mSchema;
+    private transient byte[] mData;
+
+    /**
+     * Create a new GenerateCells function.
+     *
+     * @param tableURI KijiURI of the table, whose layout determines entity IDs.
+     * @param familyWidth number of qualifiers of the map family in each row.
+     * @param versions number of versions of each cell of the map family.
+     * @param recordBytes size of the byte array of each record in the map family.
+     */
+    private GenerateCells(
+        final KijiURI tableURI,
+        final int familyWidth,
+        final int versions,
+        final int recordBytes
+    ) {
+      super(1, new Fields(TapBuilder.ENTITY_ID_FIELD,
+          TIMESTAMP_FIELD, QUALIFIER_FIELD, COUNT_FIELD, PAYLOAD_FIELD));
+      mTableURI = tableURI.toString();
+      mFamilyWidth = familyWidth;
+      mVersions = versions;
+      mRecordBytes = recordBytes;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void prepare(
+        final FlowProcess flowProcess,
+        final OperationCall<EntityIdFactory> operationCall
+    ) {
+      mSchema = new Schema.Parser().parse(PAYLOAD_SCHEMA);
+      mData = new byte[mRecordBytes];
+      new Random(0).nextBytes(mData);
+      final KijiURI tableURI = KijiURI.newBuilder(mTableURI).build();
+      try {
+        final Kiji kiji = Kiji.Factory.open(tableURI, TupleWriter.getConfiguration(flowProcess));
+        try {
+          final KijiTable table = kiji.openTable(tableURI.getTable());
+          try {
+            operationCall.setContext(EntityIdFactory.getFactory(table.getLayout()));
+          } finally {
+            ResourceUtils.releaseOrLog(table);
+          }
+        } finally {
+          ResourceUtils.releaseOrLog(kiji);
+        }
+      } catch (IOException ioe) {
+        throw new TupleException("Unable to read layout of table: " + mTableURI, ioe);
+      }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void operate(
+        final FlowProcess flowProcess,
+        final FunctionCall<EntityIdFactory> functionCall
+    ) {
+      final String rowId = functionCall.getArguments().getString(0);
+      final EntityId entityId = EntityId$.MODULE$.fromJavaEntityId(
+          functionCall.getContext().getEntityId(rowId));
+      for (int qualifier = 0; qualifier < mFamilyWidth; qualifier++) {
+        for (int version = 1; version <= mVersions; version++) {
+          final GenericRecord payload = new GenericData.Record(mSchema);
+          payload.put("data", ByteBuffer.wrap(mData));
+          functionCall.getOutputCollector().add(new Tuple(
+              entityId, (long) version, "q" + qualifier, 0L, payload));
+        }
+      }
+      flowProcess.increment(COUNTER_GROUP, ROWS_COUNTER, 1);
+      // Every tuple writes the count of the row and one cell of the map family.
+      final long tuples = (long) mFamilyWidth * mVersions;
+      flowProcess.increment(COUNTER_GROUP, CELLS_COUNTER, 2 * tuples);
+      flowProcess.increment(COUNTER_GROUP, BYTES_COUNTER, tuples * (mRecordBytes + COUNT_BYTES));
+    }
+  }
+
+  /** Counts the rows, cells and payload bytes read, and emits nothing. */
+  private static final class MeasureCells extends BaseOperation<Void> implements Function<Void> {
+    private static final long serialVersionUID = 1L;
+
+    /** Create a new MeasureCells function. */
+    private MeasureCells() {
+      super(2, Fields.NONE);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void operate(
+        final FlowProcess flowProcess,
+        final FunctionCall<Void> functionCall
+    ) {
+      final TupleEntry arguments = functionCall.getArguments();
+      long cells = LazyCells.decode(arguments.getObject(COUNT_FIELD)).size();
+      long bytes = cells * COUNT_BYTES;
+      for (FlowCell<?> cell
+          : JavaConversions.asJavaIterable(LazyCells.decode(arguments.getObject(PAYLOAD_FIELD)))) {
+        cells++;
+        bytes += ((ByteBuffer) ((GenericRecord) cell.datum()).get("data")).remaining();
+      }
+      flowProcess.increment(COUNTER_GROUP, ROWS_COUNTER, 1);
+      flowProcess.increment(COUNTER_GROUP, CELLS_COUNTER, cells);
+      flowProcess.increment(COUNTER_GROUP, BYTES_COUNTER, bytes);
+    }
+  }
+
+  /** Emits the most recent count of a row plus one, to be written back to the row. */
+  private static final class IncrementCount extends BaseOperation<Void> implements Function<Void> {
+    private static final long serialVersionUID = 1L;
+
+    /** Name of the field holding the count to write back. */
+    private static final String NEW_COUNT_FIELD = "newCount";
+
+    /** Create a new IncrementCount function. */
+    private IncrementCount() {
+      super(1, new Fields(NEW_COUNT_FIELD));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void operate(
+        final FlowProcess flowProcess,
+        final FunctionCall<Void> functionCall
+    ) {
+      long count = 0;
+      long version = Long.MIN_VALUE;
+      for (FlowCell<?> cell : JavaConversions.asJavaIterable(
+          LazyCells.decode(functionCall.getArguments().getObject(0)))) {
+        if (cell.version() > version) {
+          version = cell.version();
+          count = (Long) cell.datum();
+        }
+      }
+      functionCall.getOutputCollector().add(new Tuple(count + 1));
+      flowProcess.increment(COUNTER_GROUP, ROWS_COUNTER, 1);
+      // One cell is read and one written per row.
+      flowProcess.increment(COUNTER_GROUP, CELLS_COUNTER, 2);
+      flowProcess.increment(COUNTER_GROUP, BYTES_COUNTER, 2 * COUNT_BYTES);
+    }
+  }
+}
@@ -0,0 +1,131 @@
+package org.kiji.express.flow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import cascading.flow.FlowProcess;
+import cascading.operation.ConcreteCall;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryCollector;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+public class TestCoalesceWrites {
+  private static final Fields FIELDS =
+      new Fields(TapBuilder.ENTITY_ID_FIELD, "time", "qualifier", "a", "b");
+
+  /** Keeps the first non-null value of "b" and sums the values of "a". */
+  private static final class SumA implements WriteMerger {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public Object merge(
+        final String field,
+        final Object previous,
+        final Object next
+    ) {
+      if (null == previous || null == next) {
+        return (null == previous) ? next : previous;
+      }
+      return "a".equals(field) ? (Object) ((Integer) previous + (Integer) next) : previous;
+    }
+  }
+
+  /** Runs a CoalesceWrites function over tuples of {@link #FIELDS}. */
+  private static final class Harness {
+    private final CoalesceWrites mFunction;
+    private final ConcreteCall<Map<Tuple, Tuple>> mCall =
+        new ConcreteCall<Map<Tuple, Tuple>>(FIELDS, FIELDS);
+    private final List<Tuple> mEmitted = Lists.newArrayList();
+
+    private Harness(
+        final int maxBufferedKeys,
+        final WriteMerger merger
+    ) {
+      mFunction = new CoalesceWrites(
+          "time", Arrays.asList("qualifier"), Arrays.asList("a", "b"), maxBufferedKeys, merger);
+      mCall.setOutputCollector(new TupleEntryCollector(FIELDS) {
+        @Override
+        protected void collect(final TupleEntry entry) {
+          mEmitted.add(entry.getTupleCopy());
+        }
+      });
+      mFunction.prepare(FlowProcess.NULL, mCall);
+    }
+
+    private Harness write(
+        final Object... values
+    ) {
+      mCall.setArguments(new TupleEntry(FIELDS, new Tuple(values)));
+      mFunction.operate(FlowProcess.NULL, mCall);
+      return this;
+    }
+
+    private List<Tuple> flush() {
+      mFunction.flush(FlowProcess.NULL, mCall);
+      mFunction.cleanup(FlowProcess.NULL, mCall);
+      return mEmitted;
+    }
+  }
+
+  @Test
+  public void testCoalescesTuplesPerEntityTimestampAndQualifier() {
+    final List<Tuple> emitted = new Harness(10, null)
+        .write("e1", 1L, "x", 1, null)
+        .write("e1", 1L, "x", null, 2)
+        .write("e1", 2L, "x", 3, null)
+        .write("e2", 1L, "x", 4, null)
+        .write("e1", 1L, "y", 5, null)
+        .write("e1", 1L, "x", 6, null)
+        .flush();
+    assertEquals(Arrays.asList(
+        new Tuple("e1", 1L, "x", 6, 2),
+        new Tuple("e1", 2L, "x", 3, null),
+        new Tuple("e2", 1L, "x", 4, null),
+        new Tuple("e1", 1L, "y", 5, null)),
+        emitted);
+  }
+
+  @Test
+  public void testMergerCombinesValuesOfTheSameCell() {
+    final List<Tuple> emitted = new Harness(10, new SumA())
+        .write("e1", 1L, "x", 1, "first")
+        .write("e1", 1L, "x", 2, "second")
+        .write("e1", 1L, "x", null, null)
+        .write("e1", 2L, "x", 4, null)
+        .flush();
+    assertEquals(Arrays.asList(
+        new Tuple("e1", 1L, "x", 3, "first"),
+        new Tuple("e1", 2L, "x", 4, null)),
+        emitted);
+  }
+
+  @Test
+  public void testEmitsWhenBufferIsFullAndAtFlush() {
+    final Harness harness = new Harness(2, null)
+        .write("e1", 1L, "x", 1, null)
+        .write("e1", 1L, "x", 2, null);
+    assertTrue(harness.mEmitted.isEmpty());
+
+    harness.write("e2", 1L, "x", 3, null);
+    assertEquals(Arrays.asList(
+        new Tuple("e1", 1L, "x", 2, null),
+        new Tuple("e2", 1L, "x", 3, null)),
+        harness.mEmitted);
+
+    harness.write("e3", 1L, "x", 4, null);
+    assertEquals(2, harness.mEmitted.size());
+    assertEquals(new Tuple("e3", 1L, "x", 4, null), harness.flush().get(2));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsEmptyBuffer() {
+    new CoalesceWrites("time", Arrays.<String>asList(), Arrays.asList("a"), 0, null);
+  }
+}
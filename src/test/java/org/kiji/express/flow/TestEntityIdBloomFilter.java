@@ -0,0 +1,57 @@
+package org.kiji.express.flow;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class TestEntityIdBloomFilter {
+
+  @Test
+  public void testMatchesAddedKeys() {
+    final EntityIdBloomFilter filter = EntityIdBloomFilter.create(1000, 0.001);
+    for (int i = 0; i < 1000; i++) {
+      filter.add(Arrays.<Object>asList("user-" + i, (long) i));
+    }
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(filter.mightContain(Arrays.<Object>asList("user-" + i, (long) i)));
+    }
+  }
+
+  @Test
+  public void testIntegralComponentsMatchAcrossBoxedTypes() {
+    final EntityIdBloomFilter filter = EntityIdBloomFilter.create(100, 0.001)
+        .add(Arrays.<Object>asList(42))
+        .add(Arrays.<Object>asList(7L))
+        .add(Arrays.<Object>asList("row", -3));
+    assertTrue(filter.mightContain(Arrays.<Object>asList(42L)));
+    assertTrue(filter.mightContain(Arrays.<Object>asList(42)));
+    assertTrue(filter.mightContain(Arrays.<Object>asList(7)));
+    assertTrue(filter.mightContain(Arrays.<Object>asList((short) 7)));
+    assertTrue(filter.mightContain(Arrays.<Object>asList("row", -3L)));
+  }
+
+  @Test
+  public void testRejectsOtherKeys() {
+    // Hashing is deterministic, so these keys are consistently rejected at this filter size.
+    final EntityIdBloomFilter filter = EntityIdBloomFilter.create(100, 0.0001)
+        .add(Arrays.<Object>asList("row", 1L));
+    assertFalse(filter.mightContain(Arrays.<Object>asList("row", 2L)));
+    assertFalse(filter.mightContain(Arrays.<Object>asList("row")));
+    assertFalse(filter.mightContain(Arrays.<Object>asList(1L, "row")));
+  }
+
+  @Test
+  public void testSerializeAndMerge() {
+    final EntityIdBloomFilter first = EntityIdBloomFilter.create(100, 0.001)
+        .add(Arrays.<Object>asList("a"));
+    final EntityIdBloomFilter second = EntityIdBloomFilter.create(100, 0.001)
+        .add(Arrays.<Object>asList(new byte[] {1, 2, 3}));
+    final EntityIdBloomFilter merged =
+        EntityIdBloomFilter.deserialize(first.serialize()).merge(second);
+    assertTrue(merged.mightContain(Arrays.<Object>asList("a")));
+    assertTrue(merged.mightContain(Arrays.<Object>asList(new byte[] {1, 2, 3})));
+  }
+}
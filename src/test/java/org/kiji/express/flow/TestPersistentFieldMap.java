@@ -0,0 +1,105 @@
+package org.kiji.express.flow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+public class TestPersistentFieldMap {
+
+  @Test
+  public void testEmpty() {
+    final PersistentFieldMap<Integer> map = PersistentFieldMap.empty();
+    assertEquals(0, map.size());
+    assertNull(map.get("a"));
+    assertFalse(map.containsKey("a"));
+    assertTrue(map.asMap().isEmpty());
+  }
+
+  @Test
+  public void testPlusLeavesSourceUnchanged() {
+    final PersistentFieldMap<Integer> one = PersistentFieldMap.<Integer>empty().plus("a", 1);
+    final PersistentFieldMap<Integer> two = one.plus("b", 2);
+    assertEquals(1, one.size());
+    assertFalse(one.containsKey("b"));
+    assertEquals(2, two.size());
+    assertEquals(Integer.valueOf(1), two.get("a"));
+    assertEquals(Integer.valueOf(2), two.get("b"));
+  }
+
+  @Test
+  public void testPlusReplacesExistingField() {
+    final PersistentFieldMap<Integer> original = PersistentFieldMap.<Integer>empty().plus("a", 1);
+    final PersistentFieldMap<Integer> replaced = original.plus("a", 2);
+    assertEquals(1, replaced.size());
+    assertEquals(Integer.valueOf(2), replaced.get("a"));
+    assertEquals(Integer.valueOf(1), original.get("a"));
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testPlusRejectsNullValue() {
+    PersistentFieldMap.<Integer>empty().plus("a", null);
+  }
+
+  @Test
+  public void testCopyOf() {
+    final Map<String, Integer> entries = ImmutableMap.of("c", 3, "a", 1, "b", 2);
+    final PersistentFieldMap<Integer> map = PersistentFieldMap.copyOf(entries);
+    assertEquals(entries, map.asMap());
+    assertEquals(0, PersistentFieldMap.copyOf(null).size());
+  }
+
+  @Test
+  public void testIteratesInFieldNameOrder() {
+    final PersistentFieldMap<Integer> map =
+        PersistentFieldMap.copyOf(ImmutableMap.of("c", 3, "a", 1, "b", 2));
+    final List<String> keys = Lists.newArrayList(map.asMap().keySet());
+    assertEquals(Lists.newArrayList("a", "b", "c"), keys);
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testIteratorIsImmutable() {
+    final Iterator<Map.Entry<String, Integer>> entries =
+        PersistentFieldMap.<Integer>empty().plus("a", 1).asMap().entrySet().iterator();
+    entries.next();
+    entries.remove();
+  }
+
+  @Test
+  public void testMatchesTreeMapUnderRandomInserts() {
+    // Exercises every rotation of the tree, including inserts of existing fields.
+    final Random random = new Random(0);
+    final TreeMap<String, Integer> expected = new TreeMap<String, Integer>();
+    PersistentFieldMap<Integer> map = PersistentFieldMap.empty();
+    for (int i = 0; i < 2000; i++) {
+      final String key = String.format("field-%04d", random.nextInt(1000));
+      expected.put(key, i);
+      map = map.plus(key, i);
+      assertEquals(expected.size(), map.size());
+    }
+    assertEquals(expected, map.asMap());
+    assertEquals(Lists.newArrayList(expected.keySet()), Lists.newArrayList(map.asMap().keySet()));
+  }
+
+  @Test
+  public void testSequentialInserts() {
+    PersistentFieldMap<Integer> map = PersistentFieldMap.empty();
+    for (int i = 0; i < 1024; i++) {
+      map = map.plus(String.format("field-%04d", i), i);
+    }
+    for (int i = 1023; i >= 0; i--) {
+      assertEquals(Integer.valueOf(i), map.get(String.format("field-%04d", i)));
+    }
+    assertEquals(1024, map.size());
+  }
+}
@@ -0,0 +1,75 @@
+package org.kiji.express.flow;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+public class TestRowKeyRange {
+
+  private static void assertCovers(
+      final RowKeyRange range,
+      final List<RowKeyRange> splits
+  ) {
+    assertArrayEquals(range.getStartKey(), splits.get(0).getStartKey());
+    assertArrayEquals(range.getEndKey(), splits.get(splits.size() - 1).getEndKey());
+    for (int index = 0; index < splits.size(); index++) {
+      final RowKeyRange split = splits.get(index);
+      final byte[] end = split.getEndKey();
+      assertTrue(end.length == 0 || Bytes.compareTo(split.getStartKey(), end) < 0);
+      if (index > 0) {
+        assertArrayEquals(splits.get(index - 1).getEndKey(), split.getStartKey());
+      }
+    }
+  }
+
+  @Test
+  public void testSplitIntoOneReturnsRange() {
+    final RowKeyRange range = RowKeyRange.of(Bytes.toBytes("a"), Bytes.toBytes("z"));
+    final List<RowKeyRange> splits = range.split(1);
+    assertEquals(1, splits.size());
+    assertEquals(range, splits.get(0));
+  }
+
+  @Test
+  public void testSplitCoversBoundedRangeContiguously() {
+    final RowKeyRange range = RowKeyRange.of(new byte[] {0x00}, new byte[] {0x40});
+    final List<RowKeyRange> splits = range.split(4);
+    assertEquals(4, splits.size());
+    assertCovers(range, splits);
+  }
+
+  @Test
+  public void testSplitCoversUnboundedRanges() {
+    final RowKeyRange range = RowKeyRange.of(Bytes.toBytes("m"), new byte[0]);
+    final List<RowKeyRange> splits = range.split(8);
+    assertEquals(8, splits.size());
+    assertCovers(range, splits);
+
+    final List<RowKeyRange> all = RowKeyRange.ALL.split(3);
+    assertEquals(3, all.size());
+    assertCovers(RowKeyRange.ALL, all);
+  }
+
+  @Test
+  public void testSplitOfNarrowRangeCollapses() {
+    // The only row key in the range is 0x01, so the range cannot be divided.
+    final RowKeyRange single = RowKeyRange.of(new byte[] {0x01}, new byte[] {0x01, 0x00});
+    assertEquals(1, single.split(4).size());
+    assertEquals(single, single.split(4).get(0));
+
+    final RowKeyRange narrow = RowKeyRange.of(new byte[] {0x01}, new byte[] {0x03});
+    final List<RowKeyRange> splits = narrow.split(16);
+    assertTrue(splits.size() <= 16);
+    assertCovers(narrow, splits);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSplitRejectsNonPositiveCount() {
+    RowKeyRange.ALL.split(0);
+  }
+}
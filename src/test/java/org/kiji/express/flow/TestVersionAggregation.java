@@ -0,0 +1,87 @@
+package org.kiji.express.flow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+import scala.collection.JavaConversions;
+import scala.collection.immutable.List$;
+
+public class TestVersionAggregation {
+
+  private static List<FlowCell<?>> cells(
+      final Object... versionsAndData
+  ) {
+    final List<FlowCell<?>> cells = Lists.newArrayList();
+    for (int i = 0; i < versionsAndData.length; i += 2) {
+      cells.add(new FlowCell<Object>(
+          "family", "qualifier", (Long) versionsAndData[i], versionsAndData[i + 1]));
+    }
+    return cells;
+  }
+
+  @Test
+  public void testCountIncludesNullValues() {
+    assertEquals(3L, VersionAggregation.count().aggregate(cells(3L, 1, 2L, null, 1L, 2)));
+    assertEquals(0L, VersionAggregation.count().aggregate(cells()));
+  }
+
+  @Test
+  public void testSumOfIntegralValuesIsLong() {
+    assertEquals(10L, VersionAggregation.sum().aggregate(cells(3L, 1L, 2L, 2, 1L, 7)));
+    assertEquals(6L, VersionAggregation.sum()
+        .aggregate(cells(3L, (short) 1, 2L, (byte) 2, 1L, (short) 3)));
+  }
+
+  @Test
+  public void testSumWithFloatingValueIsDouble() {
+    assertEquals(4.5, VersionAggregation.sum().aggregate(cells(2L, 4L, 1L, 0.5)));
+  }
+
+  @Test
+  public void testSumSkipsNullValues() {
+    assertEquals(5L, VersionAggregation.sum().aggregate(cells(2L, null, 1L, 5L)));
+    assertNull(VersionAggregation.sum().aggregate(cells(1L, null)));
+  }
+
+  @Test
+  public void testMinAndMaxSkipNullValues() {
+    final List<FlowCell<?>> cells = cells(4L, "b", 3L, null, 2L, "c", 1L, "a");
+    assertEquals("a", VersionAggregation.min().aggregate(cells));
+    assertEquals("c", VersionAggregation.max().aggregate(cells));
+    assertNull(VersionAggregation.max().aggregate(cells(1L, null)));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testLatestPerBucketIsScalaListOfMostRecentCells() {
+    final Object result = VersionAggregation.latestPerBucket(10)
+        .aggregate(cells(25L, "a", 21L, "b", 19L, "c", 11L, "d", 3L, "e", -1L, "f"));
+    assertTrue(result instanceof scala.collection.immutable.List);
+    final List<Long> versions = Lists.newArrayList();
+    for (FlowCell<?> cell : JavaConversions.seqAsJavaList(
+        (scala.collection.immutable.List<FlowCell<?>>) result)) {
+      versions.add(cell.version());
+    }
+    assertEquals(Arrays.asList(25L, 19L, 3L, -1L), versions);
+    assertEquals(List$.MODULE$.empty(), VersionAggregation.latestPerBucket(10).aggregate(cells()));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testLatestPerBucketRejectsEmptyBuckets() {
+    VersionAggregation.latestPerBucket(0);
+  }
+
+  @Test
+  public void testEquality() {
+    assertEquals(VersionAggregation.latestPerBucket(5), VersionAggregation.latestPerBucket(5));
+    assertEquals(VersionAggregation.sum().hashCode(), VersionAggregation.sum().hashCode());
+    assertFalse(VersionAggregation.min().equals(VersionAggregation.max()));
+  }
+}